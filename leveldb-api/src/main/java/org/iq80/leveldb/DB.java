@@ -18,7 +18,10 @@
 package org.iq80.leveldb;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
@@ -46,6 +49,50 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      */
     public byte[] get(byte[] key, ReadOptions options) throws DBException;
 
+    /**
+     * 批量返回给定KEY列表的数值, 所有KEY在同一个快照上读取
+     *
+     * @param keys 数据Key 列表
+     * @return 与 keys 顺序一致的 Value 列表, 不存在的 Key 对应 null
+     * @throws DBException 数据库读取异常
+     */
+    public List<byte[]> multiGet(List<byte[]> keys) throws DBException;
+
+    /**
+     * 批量返回给定KEY列表的数值, 所有KEY在同一个快照上读取。
+     * KEY 会先排序, 每个表文件只打开一次, 落在同一数据块的 KEY 共用已打开的块。
+     *
+     * @param keys    数据Key 列表
+     * @param options 读取参数
+     * @return 与 keys 顺序一致的 Value 列表, 不存在的 Key 对应 null
+     * @throws DBException 数据库读取异常
+     */
+    public List<byte[]> multiGet(List<byte[]> keys, ReadOptions options) throws DBException;
+
+    /**
+     * 返回给定KEY的数值的只读视图, 不复制数据。
+     * 视图直接引用数据块或内存表中的数据, 这些数据不会被修改或复用, 因此视图在被引用期间一直有效,
+     * 与快照或迭代器是否关闭无关; 但持有视图会使其所在的整个数据块无法被回收, 需要长期保存时应复制出来。
+     *
+     * @param key     数据Key
+     * @param options 读取参数
+     * @return 位置为 0 的只读 ByteBuffer, 不存在返回 null
+     * @throws DBException 数据库读取异常
+     */
+    public ByteBuffer getByteBuffer(byte[] key, ReadOptions options) throws DBException;
+
+    /**
+     * 将给定KEY的数值复制到调用方提供的缓冲区中, 不分配新数组。
+     * 从 value 的当前位置开始最多写入 value.remaining() 个字节, 并推进其位置。
+     *
+     * @param key     数据Key
+     * @param value   目标缓冲区
+     * @param options 读取参数
+     * @return 数值的完整长度, 大于写入的字节数说明缓冲区不够大; 不存在返回 -1
+     * @throws DBException 数据库读取异常
+     */
+    public int get(byte[] key, ByteBuffer value, ReadOptions options) throws DBException;
+
     /**
      * 返回数据库迭代器
      *
@@ -111,6 +158,20 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      */
     public Snapshot write(WriteBatch updates, WriteOptions options) throws DBException;
 
+    /**
+     * 异步写入: 批量写入日志和内存表后立即返回, 不等待刷盘。
+     * 后台的日志同步线程把一段时间内到达的异步写入合并成一次刷盘, 然后统一完成它们的 future,
+     * 等待时间由 Options.walSyncWindowMicros 配置。写入在 future 完成之前就已经对读可见。
+     * 只有刷盘在后台进行: 排队等待组提交、写日志、插入内存表以及写入限速或停写的等待
+     * 仍然发生在调用线程上, 所以本方法同样可能阻塞。
+     * options.sync() 被忽略, 不能与 options.disableWAL() 同时使用。
+     *
+     * @param updates 数据批量写对象
+     * @param options 写参数
+     * @return 刷盘后完成的 future, options.snapshot() 为 true 时结果为写入后的快照, 否则为 null
+     */
+    public Future<Snapshot> writeAsync(WriteBatch updates, WriteOptions options);
+
     /**
      * 获取数据库快照
      *
@@ -122,6 +183,15 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
 
     public String getProperty(String name);
 
+    /**
+     * 把内存表中的数据写入表文件, 返回时之前的所有写入都已持久化。
+     * 用 WriteOptions.disableWAL(true) 写入的数据只存在于内存表中, 崩溃恢复时只重放日志,
+     * 因此这些数据在下一次 flush 或正常关闭数据库之前都可能丢失。
+     *
+     * @throws DBException 数据库操作异常
+     */
+    public void flush() throws DBException;
+
     /**
      * Suspends any background compaction threads.  This methods
      * returns once the background compactions are suspended.
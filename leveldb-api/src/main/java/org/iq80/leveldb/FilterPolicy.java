@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * 过滤策略
+ * <p/>
+ * 为每个数据块生成一个小的过滤器(如布隆过滤器), 读取时可以据此跳过
+ * 一定不包含给定 KEY 的数据块, 减少磁盘读取。
+ */
+public interface FilterPolicy
+{
+    /**
+     * 返回过滤策略名称, 名称会写入表文件, 修改过滤器编码时必须同时修改名称
+     *
+     * @return 过滤策略名称
+     */
+    String name();
+
+    /**
+     * 给定排好序的 KEY 列表(可能有重复), 创建对应的过滤器
+     *
+     * @param keys 数据 KEY 列表
+     * @return 过滤器数据
+     */
+    byte[] createFilter(List<byte[]> keys);
+
+    /**
+     * 如果 KEY 在创建过滤器的列表中, 必须返回 true;
+     * 如果不在, 应尽可能返回 false
+     *
+     * @param key 数据 KEY
+     * @param filter 过滤器数据
+     * @return KEY 是否可能存在
+     */
+    boolean keyMayMatch(byte[] key, byte[] filter);
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * 内存表工厂
+ * <p/>
+ * 决定内存表使用的数据结构, 具体的工厂由数据库实现提供, 例如跳表、
+ * 批量导入使用的只追加数组、以及按 KEY 前缀分桶的哈希链表。
+ */
+public interface MemTableFactory
+{
+    /**
+     * 返回内存表结构名称
+     *
+     * @return 内存表结构名称
+     */
+    String name();
+}
@@ -37,6 +37,32 @@ public class Options {
      */
     private int writeBufferSize = 4 << 20;
 
+    /**
+     * 写缓存数量 默认为 2, 包括当前内存表和等待刷盘的不可变内存表,
+     * 大于 2 时前一个内存表仍在刷盘也可以继续切换内存表而不阻塞写入
+     */
+    private int maxWriteBufferNumber = 2;
+
+    /**
+     * 后台压缩线程数 默认为 1, 大于 1 时互不冲突的压缩可以并发执行
+     */
+    private int maxBackgroundCompactions = 1;
+
+    /**
+     * 单个压缩最多切分的子范围数 默认为 1, 大于 1 时较大的压缩按 KEY 范围并行合并
+     */
+    private int maxSubcompactions = 1;
+
+    /**
+     * 是否流水线写入 默认为 false, 为 true 时一组写入在插入内存表的同时下一组已经可以写日志
+     */
+    private boolean pipelinedWrite = false;
+
+    /**
+     * 异步写入的刷盘合并窗口, 单位微秒 默认为 0, 即同步线程空闲时立即刷盘, 刷盘期间到达的写入合并到下一次
+     */
+    private long walSyncWindowMicros = 0;
+
     /**
      * 最大打开文件数量
      */
@@ -70,15 +96,25 @@ public class Options {
      */
     private DBComparator comparator;
 
+    /**
+     * 过滤策略 默认不使用, 为 null 时不生成过滤块
+     */
+    private FilterPolicy filterPolicy;
+
     /**
      * 日志记录器
      */
     private Logger logger = null;
 
     /**
-     * 缓存大小
+     * 数据块缓存大小 默认 8M, 为 0 时不使用块缓存
+     */
+    private long cacheSize = 8 << 20;
+
+    /**
+     * 内存表工厂 默认为 null, 使用跳表
      */
-    private long cacheSize;
+    private MemTableFactory memTableFactory;
 
     /**
      * 校验值不能为NULL
@@ -119,6 +155,63 @@ public class Options {
         return this;
     }
 
+    public int maxWriteBufferNumber() {
+        return maxWriteBufferNumber;
+    }
+
+    public Options maxWriteBufferNumber(int maxWriteBufferNumber) {
+        if (maxWriteBufferNumber < 2) {
+            throw new IllegalArgumentException("maxWriteBufferNumber must be at least 2");
+        }
+        this.maxWriteBufferNumber = maxWriteBufferNumber;
+        return this;
+    }
+
+    public int maxBackgroundCompactions() {
+        return maxBackgroundCompactions;
+    }
+
+    public Options maxBackgroundCompactions(int maxBackgroundCompactions) {
+        if (maxBackgroundCompactions < 1) {
+            throw new IllegalArgumentException("maxBackgroundCompactions must be at least 1");
+        }
+        this.maxBackgroundCompactions = maxBackgroundCompactions;
+        return this;
+    }
+
+    public int maxSubcompactions() {
+        return maxSubcompactions;
+    }
+
+    public Options maxSubcompactions(int maxSubcompactions) {
+        if (maxSubcompactions < 1) {
+            throw new IllegalArgumentException("maxSubcompactions must be at least 1");
+        }
+        this.maxSubcompactions = maxSubcompactions;
+        return this;
+    }
+
+    public boolean pipelinedWrite() {
+        return pipelinedWrite;
+    }
+
+    public Options pipelinedWrite(boolean pipelinedWrite) {
+        this.pipelinedWrite = pipelinedWrite;
+        return this;
+    }
+
+    public long walSyncWindowMicros() {
+        return walSyncWindowMicros;
+    }
+
+    public Options walSyncWindowMicros(long walSyncWindowMicros) {
+        if (walSyncWindowMicros < 0) {
+            throw new IllegalArgumentException("walSyncWindowMicros must not be negative");
+        }
+        this.walSyncWindowMicros = walSyncWindowMicros;
+        return this;
+    }
+
     public int maxOpenFiles() {
         return maxOpenFiles;
     }
@@ -175,6 +268,24 @@ public class Options {
         return this;
     }
 
+    public MemTableFactory memTableFactory() {
+        return memTableFactory;
+    }
+
+    public Options memTableFactory(MemTableFactory memTableFactory) {
+        this.memTableFactory = memTableFactory;
+        return this;
+    }
+
+    public FilterPolicy filterPolicy() {
+        return filterPolicy;
+    }
+
+    public Options filterPolicy(FilterPolicy filterPolicy) {
+        this.filterPolicy = filterPolicy;
+        return this;
+    }
+
     public DBComparator comparator() {
         return comparator;
     }
@@ -30,7 +30,11 @@ public class WriteOptions
      * 是否生成快照
      */
     private boolean snapshot;
-
+    /**
+     * 是否跳过预写日志, 跳过时数据只写入内存表,
+     * 在 DB.flush() 或关闭数据库之前崩溃会丢失, 只适用于可以重建的数据
+     */
+    private boolean disableWAL;
 
     public boolean sync()
     {
@@ -52,4 +56,15 @@ public class WriteOptions
         return this;
     }
 
+    public boolean disableWAL()
+    {
+        return disableWAL;
+    }
+
+    public WriteOptions disableWAL(boolean disableWAL)
+    {
+        this.disableWAL = disableWAL;
+        return this;
+    }
+
 }
@@ -32,6 +32,11 @@ import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.iq80.leveldb.DB;
@@ -41,6 +46,7 @@ import org.iq80.leveldb.Options;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
 import org.iq80.leveldb.impl.DbImpl;
+import org.iq80.leveldb.table.BloomFilterPolicy;
 import org.iq80.leveldb.util.FileUtils;
 import org.iq80.leveldb.util.PureJavaCrc32C;
 import org.iq80.leveldb.util.Slice;
@@ -52,6 +58,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Closeables;
 import com.google.common.io.Files;
@@ -60,6 +67,10 @@ public class DbBenchmark
 {
     private boolean useExisting;
     private Integer writeBufferSize;
+    private Integer cacheSize;
+    private Integer bloomBits;
+    private int threads;
+    private boolean pipelinedWrite;
     private File databaseDir;
     private double compressionRatio;
     private long startTime;
@@ -106,8 +117,12 @@ public class DbBenchmark
         reads_ = (Integer) (flags.get(Flag.reads) == null ? flags.get(Flag.num) : flags.get(Flag.reads));
         valueSize = (Integer) flags.get(Flag.value_size);
         writeBufferSize = (Integer) flags.get(Flag.write_buffer_size);
+        cacheSize = (Integer) flags.get(Flag.cache_size);
+        bloomBits = (Integer) flags.get(Flag.bloom_bits);
         compressionRatio = (Double) flags.get(Flag.compression_ratio);
         useExisting = (Boolean) flags.get(Flag.use_existing_db);
+        threads = (Integer) flags.get(Flag.threads);
+        pipelinedWrite = (Boolean) flags.get(Flag.pipelined_write);
         heap_counter_ = 0;
         bytes_ = 0;
         rand_ = new Random(301);
@@ -147,7 +162,12 @@ public class DbBenchmark
                 write(new WriteOptions(), SEQUENTIAL, FRESH, num_, valueSize, 1000);
             }
             else if (benchmark.equals("fillrandom")) {
-                write(new WriteOptions(), RANDOM, FRESH, num_, valueSize, 1);
+                if (threads > 1) {
+                    writeConcurrently(new WriteOptions(), num_, valueSize, threads);
+                }
+                else {
+                    write(new WriteOptions(), RANDOM, FRESH, num_, valueSize, 1);
+                }
             }
             else if (benchmark.equals("overwrite")) {
                 write(new WriteOptions(), RANDOM, EXISTING, num_, valueSize, 1);
@@ -182,6 +202,9 @@ public class DbBenchmark
             else if (benchmark.equals("crc32c")) {
                 crc32c(4096, "(4k per op)");
             }
+            else if (benchmark.equals("crc32c-direct")) {
+                crc32cDirect(4096, "(4k per op)");
+            }
             else if (benchmark.equals("acquireload")) {
                 acquireLoad();
             }
@@ -303,10 +326,16 @@ public class DbBenchmark
     {
         Options options = new Options();
         options.createIfMissing(!useExisting);
-        // todo block cache
+        if (cacheSize >= 0) {
+            options.cacheSize(cacheSize);
+        }
+        if (bloomBits > 0) {
+            options.filterPolicy(new BloomFilterPolicy(bloomBits));
+        }
         if (writeBufferSize != null) {
             options.writeBufferSize(writeBufferSize);
         }
+        options.pipelinedWrite(pipelinedWrite);
         db_ = factory.open(databaseDir, options);
     }
 
@@ -364,16 +393,8 @@ public class DbBenchmark
     private void write(WriteOptions writeOptions, Order order, DBState state, int numEntries, int valueSize, int entries_per_batch)
             throws IOException
     {
-        if (state == FRESH) {
-            if (useExisting) {
-                message_ = "skipping (--use_existing_db is true)";
-                return;
-            }
-            db_.close();
-            db_ = null;
-            destroyDb();
-            open();
-            start(); // Do not count time taken to destroy/open
+        if (state == FRESH && !openFresh()) {
+            return;
         }
 
         if (numEntries != num_) {
@@ -394,6 +415,73 @@ public class DbBenchmark
         }
     }
 
+    private boolean openFresh()
+            throws IOException
+    {
+        if (useExisting) {
+            message_ = "skipping (--use_existing_db is true)";
+            return false;
+        }
+        db_.close();
+        db_ = null;
+        destroyDb();
+        open();
+        start(); // Do not count time taken to destroy/open
+        return true;
+    }
+
+    /**
+     * Writes N values in random key order from several threads at once,
+     * each thread writing its own share with its own key and value generator.
+     */
+    private void writeConcurrently(final WriteOptions writeOptions, int numEntries, final int valueSize, int threads)
+            throws IOException
+    {
+        if (!openFresh()) {
+            return;
+        }
+        message_ = String.format("(%d writers%s)", threads, pipelinedWrite ? ", pipelined" : "");
+
+        final int entriesPerThread = numEntries / threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> futures = Lists.newArrayList();
+            for (int thread = 0; thread < threads; thread++) {
+                final int seed = 301 + thread;
+                futures.add(executor.submit(new Callable<Long>()
+                {
+                    @Override
+                    public Long call()
+                    {
+                        Random random = new Random(seed);
+                        RandomGenerator generator = new RandomGenerator(compressionRatio);
+                        long bytes = 0;
+                        for (int i = 0; i < entriesPerThread; i++) {
+                            byte[] key = formatNumber(random.nextInt(num_));
+                            db_.put(key, generator.generate(valueSize), writeOptions);
+                            bytes += valueSize + key.length;
+                        }
+                        return bytes;
+                    }
+                }));
+            }
+            for (Future<Long> future : futures) {
+                bytes_ += future.get();
+                done_ += entriesPerThread;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
     public static byte[] formatNumber(long n)
     {
         Preconditions.checkArgument(n >= 0, "number must be positive");
@@ -459,7 +547,16 @@ public class DbBenchmark
 
     private void readReverse()
     {
-        //To change body of created methods use File | Settings | File Templates.
+        for (int loops = 0; loops < 5; loops++) {
+            DBIterator iterator = db_.iterator();
+            iterator.seekToLast();
+            for (int i = 0; i < reads_ && iterator.hasPrev(); i++) {
+                Map.Entry<byte[], byte[]> entry = iterator.prev();
+                bytes_ += entry.getKey().length + entry.getValue().length;
+                finishedSingleOp();
+            }
+            Closeables.closeQuietly(iterator);
+        }
     }
 
     private void readRandom()
@@ -520,6 +617,30 @@ public class DbBenchmark
         message_ = message;
     }
 
+    private void crc32cDirect(int blockSize, String message)
+    {
+        // Checksum about 500MB of data total, read in place from a direct buffer
+        ByteBuffer data = ByteBuffer.allocateDirect(blockSize);
+        for (int i = 0; i < blockSize; i++) {
+            data.put(i, (byte) 'x');
+        }
+
+        long bytes = 0;
+        int crc = 0;
+        while (bytes < 1000 * 1048576) {
+            PureJavaCrc32C checksum = new PureJavaCrc32C();
+            checksum.update(data);
+            crc = checksum.getMaskedValue();
+            finishedSingleOp();
+            bytes += blockSize;
+        }
+        System.out.printf("... crc=0x%x\r", crc);
+
+        bytes_ = bytes;
+        // Print so result is not dead
+        message_ = message;
+    }
+
     private void acquireLoad()
     {
         //To change body of created methods use File | Settings | File Templates.
@@ -674,6 +795,7 @@ public class DbBenchmark
         //      readrandom    -- read N times in random order
         //      readhot       -- read N times in random order from 1% section of DB
         //      crc32c        -- repeated crc32c of 4K of data
+        //      crc32c-direct -- repeated crc32c of 4K of data in a direct buffer
         //      acquireload   -- load N*1000 times
         //   Meta operations:
         //      compact     -- Compact the entire DB
@@ -690,13 +812,14 @@ public class DbBenchmark
                 "readrandom",
                 "readrandom",  // Extra run to allow previous compactions to quiesce
                 "readseq",
-                // "readreverse",
+                "readreverse",
                 "compact",
                 "readrandom",
                 "readseq",
-                // "readreverse",
+                "readreverse",
                 "fill100K",
-                // "crc32c",
+                "crc32c",
+                "crc32c-direct",
                 "snappycomp",
                 "unsnap-array",
                 "unsnap-direct"
@@ -743,6 +866,27 @@ public class DbBenchmark
                     }
                 },
 
+        // Number of concurrent writer threads used by fillrandom
+        threads(1)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
+        // If true, overlap the log append of one write group with the
+        // memtable insert of the previous one
+        pipelined_write(false)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Boolean.parseBoolean(value);
+                    }
+                },
+
         // Number of key/values to place in database
         num(1000000)
                 {
@@ -795,6 +939,17 @@ public class DbBenchmark
                     }
                 },
 
+        // Bloom filter bits per key.
+        // Negative means use default settings.
+        bloom_bits(-1)
+                {
+                    @Override
+                    public Object parseValue(String value)
+                    {
+                        return Integer.parseInt(value);
+                    }
+                },
+
         // Maximum number of files to keep open at the same time (use default if == 0)
         open_files(0)
                 {
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存表使用的字节分配器
+ * <p/>
+ * 按块申请大的字节数组, 记录在块内顺序分配, 不再为每条记录创建对象。
+ * 分配通过 CAS 推进块内位置, 只有换块时加锁。分配出的地址为块号与块内偏移的组合。
+ */
+final class Arena
+{
+    private final int chunkSize;
+
+    /**
+     * 已分配的块, 按块号索引, 扩容时整体替换
+     */
+    private volatile byte[][] chunks = new byte[16][];
+    private int chunkCount;
+
+    /**
+     * 当前用于顺序分配的块
+     */
+    private volatile Chunk current;
+
+    private final AtomicLong memoryUsage = new AtomicLong();
+
+    Arena(int chunkSize)
+    {
+        Preconditions.checkArgument(chunkSize > 0, "chunkSize must be positive");
+        this.chunkSize = chunkSize;
+        current = addChunk(chunkSize);
+    }
+
+    /**
+     * 分配指定长度的空间
+     *
+     * @return 地址, 通过 {@link #chunk(long)} 与 {@link #offset(long)} 访问
+     */
+    long allocate(int size)
+    {
+        Preconditions.checkArgument(size >= 0, "size is negative");
+        memoryUsage.addAndGet(size);
+        if (size > chunkSize / 4) {
+            // large records get a chunk of their own so the current chunk is not wasted
+            Chunk chunk = addChunk(size);
+            chunk.reserve(size);
+            return address(chunk.index, 0);
+        }
+
+        while (true) {
+            Chunk chunk = current;
+            int offset = chunk.reserve(size);
+            if (offset >= 0) {
+                return address(chunk.index, offset);
+            }
+            replaceCurrent(chunk);
+        }
+    }
+
+    byte[] chunk(long address)
+    {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    static int offset(long address)
+    {
+        return (int) address;
+    }
+
+    /**
+     * 已分配出去的字节数, 不含块尾未用的空间
+     */
+    long memoryUsage()
+    {
+        return memoryUsage.get();
+    }
+
+    private synchronized void replaceCurrent(Chunk full)
+    {
+        if (current == full) {
+            current = addChunk(chunkSize);
+        }
+    }
+
+    private synchronized Chunk addChunk(int size)
+    {
+        byte[][] chunks = this.chunks;
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        Chunk chunk = new Chunk(chunkCount, new byte[size]);
+        chunks[chunkCount++] = chunk.data;
+
+        // publish the chunk before any address inside it can be handed out
+        this.chunks = chunks;
+        return chunk;
+    }
+
+    private static long address(int chunk, int offset)
+    {
+        return ((long) chunk << 32) | offset;
+    }
+
+    private static final class Chunk
+    {
+        private final int index;
+        private final byte[] data;
+        private final AtomicInteger position = new AtomicInteger();
+
+        private Chunk(int index, byte[] data)
+        {
+            this.index = index;
+            this.data = data;
+        }
+
+        /**
+         * @return 分配的块内偏移, 空间不足时返回 -1
+         */
+        private int reserve(int size)
+        {
+            while (true) {
+                int offset = position.get();
+                if (size > data.length - offset) {
+                    return -1;
+                }
+                if (position.compareAndSet(offset, offset + size)) {
+                    return offset;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,484 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Longs;
+import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.util.AbstractSeekingIterator;
+import org.iq80.leveldb.util.InternalIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * 基于 arena 的内存表
+ * <p/>
+ * 记录编码为 [内部 KEY 长度][内部 KEY][值长度][值] 写入 {@link Arena} 的大数组中。
+ * 跳表节点不是对象, 而是整型页中的一段: [记录块号][记录偏移][高度][各层后继节点],
+ * 后继通过 CAS 链接, 插入与读取都不加锁。读取到的值直接引用 arena 中的字节。
+ */
+public class ArenaMemTable extends MemTable
+{
+    private static final int MAX_HEIGHT = 12;
+
+    /**
+     * 节点整型页大小 (2^10 个整数)
+     */
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    private static final int NODE_CHUNK = 0;
+    private static final int NODE_OFFSET = 1;
+    private static final int NODE_HEIGHT = 2;
+    private static final int NODE_NEXT = 3;
+
+    /**
+     * 空节点, 节点 0 从不分配
+     */
+    private static final int NIL = 0;
+
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    private final InternalKeyComparator internalKeyComparator;
+    private final UserComparator userComparator;
+    private final Arena arena;
+
+    private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[16];
+    private final AtomicInteger nodePosition = new AtomicInteger(1);
+    private final AtomicInteger maxHeight = new AtomicInteger(1);
+    private final int head;
+
+    public ArenaMemTable(InternalKeyComparator internalKeyComparator, int writeBufferSize)
+    {
+        Preconditions.checkNotNull(internalKeyComparator, "internalKeyComparator is null");
+        this.internalKeyComparator = internalKeyComparator;
+        this.userComparator = internalKeyComparator.getUserComparator();
+        this.arena = new Arena(Math.max(MIN_CHUNK_SIZE, writeBufferSize / 8));
+        this.head = allocateNode(0, MAX_HEIGHT);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return next(head, 0) == NIL;
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        // record bytes plus the node towers linking them
+        return arena.memoryUsage() + (long) nodePosition.get() * SIZE_OF_INT;
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    {
+        Preconditions.checkNotNull(valueType, "valueType is null");
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(value, "value is null");
+
+        // encode the record into the arena
+        int keyLength = key.length() + SIZE_OF_LONG;
+        int size = SIZE_OF_INT + keyLength + SIZE_OF_INT + value.length();
+        long address = arena.allocate(size);
+        Slice record = new Slice(arena.chunk(address), Arena.offset(address), size);
+        record.setInt(0, keyLength);
+        record.setBytes(SIZE_OF_INT, key, 0, key.length());
+        record.setLong(SIZE_OF_INT + key.length(), SequenceNumber.packSequenceAndValueType(sequenceNumber, valueType));
+        record.setInt(SIZE_OF_INT + keyLength, value.length());
+        record.setBytes(SIZE_OF_INT + keyLength + SIZE_OF_INT, value, 0, value.length());
+
+        int height = randomHeight(address);
+        int node = allocateNode(address, height);
+        insert(node, height, key, sequenceNumber);
+    }
+
+    @Override
+    public LookupResult get(LookupKey key)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        int node = findGreaterOrEqual(key.getUserKey(), key.getInternalKey().getSequenceNumber());
+        if (node == NIL) {
+            return null;
+        }
+
+        byte[] data = data(node);
+        int offset = keyOffset(node);
+        int userKeyLength = getInt(data, offset - SIZE_OF_INT) - SIZE_OF_LONG;
+        if (userComparator.compare(new Slice(data, offset, userKeyLength), key.getUserKey()) != 0) {
+            return null;
+        }
+        if (SequenceNumber.unpackValueType(getLong(data, offset + userKeyLength)) == ValueType.DELETION) {
+            return LookupResult.deleted(key);
+        }
+        return LookupResult.ok(key, value(node));
+    }
+
+    @Override
+    public InternalIterator iterator()
+    {
+        return new ArenaMemTableIterator();
+    }
+
+    /**
+     * 把节点链接到各层, 某层 CAS 失败时从该层的前驱继续向后查找插入位置
+     */
+    private void insert(int node, int height, Slice userKey, long sequenceNumber)
+    {
+        int currentMaxHeight = maxHeight.get();
+        while (height > currentMaxHeight) {
+            if (maxHeight.compareAndSet(currentMaxHeight, height)) {
+                break;
+            }
+            currentMaxHeight = maxHeight.get();
+        }
+
+        int[] previous = new int[height];
+        int[] next = new int[height];
+        int x = head;
+        for (int level = Math.max(height, currentMaxHeight) - 1; level >= 0; level--) {
+            int candidate = next(x, level);
+            while (candidate != NIL && compare(candidate, userKey, sequenceNumber) < 0) {
+                x = candidate;
+                candidate = next(x, level);
+            }
+            if (level < height) {
+                previous[level] = x;
+                next[level] = candidate;
+            }
+        }
+
+        for (int level = 0; level < height; level++) {
+            while (true) {
+                setNext(node, level, next[level]);
+                if (casNext(previous[level], level, next[level], node)) {
+                    break;
+                }
+
+                // another writer linked a node here first, the predecessor is still before us
+                int before = previous[level];
+                int candidate = next(before, level);
+                while (candidate != NIL && compare(candidate, userKey, sequenceNumber) < 0) {
+                    before = candidate;
+                    candidate = next(before, level);
+                }
+                previous[level] = before;
+                next[level] = candidate;
+            }
+        }
+    }
+
+    /**
+     * @return 第一个大于等于给定内部 KEY 的节点, 没有则返回 {@link #NIL}
+     */
+    private int findGreaterOrEqual(Slice userKey, long sequenceNumber)
+    {
+        int x = head;
+        int level = maxHeight.get() - 1;
+        while (true) {
+            int next = next(x, level);
+            if (next != NIL && compare(next, userKey, sequenceNumber) < 0) {
+                x = next;
+            }
+            else if (level == 0) {
+                return next;
+            }
+            else {
+                level--;
+            }
+        }
+    }
+
+    /**
+     * @return 最后一个小于给定节点的节点, 没有则返回头节点
+     */
+    private int findLessThan(int node)
+    {
+        byte[] data = data(node);
+        int offset = keyOffset(node);
+        int userKeyLength = getInt(data, offset - SIZE_OF_INT) - SIZE_OF_LONG;
+        Slice userKey = new Slice(data, offset, userKeyLength);
+        long sequenceNumber = SequenceNumber.unpackSequenceNumber(getLong(data, offset + userKeyLength));
+
+        int x = head;
+        int level = maxHeight.get() - 1;
+        while (true) {
+            int next = next(x, level);
+            if (next != NIL && compare(next, userKey, sequenceNumber) < 0) {
+                x = next;
+            }
+            else if (level == 0) {
+                return x;
+            }
+            else {
+                level--;
+            }
+        }
+    }
+
+    /**
+     * @return 最后一个节点, 表为空时返回头节点
+     */
+    private int findLast()
+    {
+        int x = head;
+        int level = maxHeight.get() - 1;
+        while (true) {
+            int next = next(x, level);
+            if (next != NIL) {
+                x = next;
+            }
+            else if (level == 0) {
+                return x;
+            }
+            else {
+                level--;
+            }
+        }
+    }
+
+    /**
+     * 比较节点的内部 KEY 与给定的内部 KEY, 序列号大的排在前面
+     */
+    private int compare(int node, Slice userKey, long sequenceNumber)
+    {
+        byte[] data = data(node);
+        int offset = keyOffset(node);
+        int userKeyLength = getInt(data, offset - SIZE_OF_INT) - SIZE_OF_LONG;
+        int result = userComparator.compare(new Slice(data, offset, userKeyLength), userKey);
+        if (result != 0) {
+            return result;
+        }
+        long nodeSequenceNumber = SequenceNumber.unpackSequenceNumber(getLong(data, offset + userKeyLength));
+        return Longs.compare(sequenceNumber, nodeSequenceNumber);
+    }
+
+    private InternalEntry entry(int node)
+    {
+        byte[] data = data(node);
+        int offset = keyOffset(node);
+        InternalKey key = new InternalKey(new Slice(data, offset, getInt(data, offset - SIZE_OF_INT)));
+        return new InternalEntry(key, value(node));
+    }
+
+    private Slice value(int node)
+    {
+        byte[] data = data(node);
+        int offset = keyOffset(node);
+        offset += getInt(data, offset - SIZE_OF_INT);
+        return new Slice(data, offset + SIZE_OF_INT, getInt(data, offset));
+    }
+
+    private byte[] data(int node)
+    {
+        AtomicIntegerArray page = page(node);
+        int index = node & (PAGE_SIZE - 1);
+        long address = ((long) page.get(index + NODE_CHUNK) << 32) | (page.get(index + NODE_OFFSET) & 0xFFFFFFFFL);
+        return arena.chunk(address);
+    }
+
+    /**
+     * @return 节点内部 KEY 在数据块中的起始偏移
+     */
+    private int keyOffset(int node)
+    {
+        return page(node).get((node & (PAGE_SIZE - 1)) + NODE_OFFSET) + SIZE_OF_INT;
+    }
+
+    private int next(int node, int level)
+    {
+        return page(node).get((node & (PAGE_SIZE - 1)) + NODE_NEXT + level);
+    }
+
+    private void setNext(int node, int level, int next)
+    {
+        page(node).set((node & (PAGE_SIZE - 1)) + NODE_NEXT + level, next);
+    }
+
+    private boolean casNext(int node, int level, int expected, int next)
+    {
+        return page(node).compareAndSet((node & (PAGE_SIZE - 1)) + NODE_NEXT + level, expected, next);
+    }
+
+    private AtomicIntegerArray page(int node)
+    {
+        return pages[node >>> PAGE_SHIFT];
+    }
+
+    /**
+     * 分配节点, 节点不会跨页
+     */
+    private int allocateNode(long address, int height)
+    {
+        int size = NODE_NEXT + height;
+        int node;
+        while (true) {
+            int position = nodePosition.get();
+            node = position;
+            if ((position >>> PAGE_SHIFT) != ((position + size - 1) >>> PAGE_SHIFT)) {
+                node = ((position >>> PAGE_SHIFT) + 1) << PAGE_SHIFT;
+            }
+            if (nodePosition.compareAndSet(position, node + size)) {
+                break;
+            }
+        }
+
+        AtomicIntegerArray page = ensurePage(node >>> PAGE_SHIFT);
+        int index = node & (PAGE_SIZE - 1);
+        page.set(index + NODE_CHUNK, (int) (address >>> 32));
+        page.set(index + NODE_OFFSET, Arena.offset(address));
+        page.set(index + NODE_HEIGHT, height);
+        return node;
+    }
+
+    private AtomicIntegerArray ensurePage(int pageIndex)
+    {
+        AtomicIntegerArray[] pages = this.pages;
+        if (pageIndex < pages.length && pages[pageIndex] != null) {
+            return pages[pageIndex];
+        }
+        synchronized (this) {
+            pages = this.pages;
+            if (pageIndex >= pages.length) {
+                pages = Arrays.copyOf(pages, Math.max(pages.length * 2, pageIndex + 1));
+            }
+            if (pages[pageIndex] == null) {
+                pages[pageIndex] = new AtomicIntegerArray(PAGE_SIZE);
+            }
+            // publish the page before any node inside it is linked
+            this.pages = pages;
+            return pages[pageIndex];
+        }
+    }
+
+    /**
+     * 由记录地址散列出节点高度, 每层的概率为 1/4
+     */
+    private static int randomHeight(long address)
+    {
+        long bits = address * 0x9E3779B97F4A7C15L;
+        bits ^= bits >>> 32;
+        int height = 1;
+        while (height < MAX_HEIGHT && (bits & 3) == 0) {
+            height++;
+            bits >>>= 2;
+        }
+        return height;
+    }
+
+    private static int getInt(byte[] data, int index)
+    {
+        return (data[index] & 0xff) |
+                (data[index + 1] & 0xff) << 8 |
+                (data[index + 2] & 0xff) << 16 |
+                (data[index + 3] & 0xff) << 24;
+    }
+
+    private static long getLong(byte[] data, int index)
+    {
+        return (getInt(data, index) & 0xFFFFFFFFL) | ((long) getInt(data, index + SIZE_OF_INT) << 32);
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ArenaMemTable");
+        sb.append("{comparator=").append(internalKeyComparator.name());
+        sb.append(", memoryUsage=").append(approximateMemoryUsage());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private class ArenaMemTableIterator extends AbstractSeekingIterator<InternalKey, Slice> implements InternalIterator
+    {
+        /**
+         * 游标前后的节点, -1 表示未知, 需要时再从另一侧查找
+         */
+        private static final int UNKNOWN = -1;
+
+        private int previousNode = head;
+        private int nextNode = UNKNOWN;
+
+        @Override
+        protected void seekToFirstInternal()
+        {
+            previousNode = head;
+            nextNode = UNKNOWN;
+        }
+
+        @Override
+        protected void seekInternal(InternalKey targetKey)
+        {
+            previousNode = UNKNOWN;
+            nextNode = findGreaterOrEqual(targetKey.getUserKey(), targetKey.getSequenceNumber());
+        }
+
+        @Override
+        protected void seekToLastInternal()
+        {
+            previousNode = UNKNOWN;
+            nextNode = NIL;
+        }
+
+        @Override
+        protected Entry<InternalKey, Slice> getNextElement()
+        {
+            int node = nextNode != UNKNOWN ? nextNode : ArenaMemTable.this.next(previousNode, 0);
+            if (node == NIL) {
+                previousNode = UNKNOWN;
+                nextNode = NIL;
+                return null;
+            }
+            previousNode = node;
+            nextNode = UNKNOWN;
+            return entry(node);
+        }
+
+        @Override
+        protected Entry<InternalKey, Slice> getPreviousElement()
+        {
+            int node;
+            if (previousNode != UNKNOWN) {
+                node = previousNode;
+            }
+            else if (nextNode == NIL) {
+                node = findLast();
+            }
+            else {
+                node = findLessThan(nextNode);
+            }
+
+            if (node == head) {
+                previousNode = head;
+                return null;
+            }
+            previousNode = UNKNOWN;
+            nextNode = node;
+            return entry(node);
+        }
+    }
+}
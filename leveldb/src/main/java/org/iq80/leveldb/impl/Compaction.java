@@ -72,6 +72,14 @@ public class Compaction
         this.inputs = new List[]{levelInputs, levelUpInputs};
     }
 
+    /**
+     * 创建输入相同而遍历状态独立的压缩, 供子压缩在各自的 KEY 子范围上使用
+     */
+    Compaction newSubcompaction()
+    {
+        return new Compaction(inputVersion, level, levelInputs, levelUpInputs, grandparents);
+    }
+
     public int getLevel()
     {
         return level;
@@ -87,6 +95,14 @@ public class Compaction
         return levelUpInputs;
     }
 
+    /**
+     * @return 与压缩范围重叠的 level + 2 文件, 最后两层为 null
+     */
+    public List<FileMetaData> getGrandparents()
+    {
+        return grandparents;
+    }
+
     public VersionEdit getEdit()
     {
         return edit;
@@ -57,4 +57,15 @@ public class DbConstants
      */
     public static final int MAX_MEM_COMPACT_LEVEL = 2;
 
+    /**
+     * Maximum size of the write batches merged into one log record by a group commit.
+     */
+    public static final int MAX_GROUP_SIZE = 1 << 20;
+
+    /**
+     * If the leading write is small, limit the growth of its group so the
+     * small write is not slowed down too much.
+     */
+    public static final int SMALL_GROUP_SIZE = 128 << 10;
+
 }
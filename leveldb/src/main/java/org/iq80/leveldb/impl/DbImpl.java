@@ -19,13 +19,19 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.DBException;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.MemTableFactory;
 import org.iq80.leveldb.Range;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.Snapshot;
@@ -33,13 +39,15 @@ import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
 import org.iq80.leveldb.impl.Filename.FileInfo;
 import org.iq80.leveldb.impl.Filename.FileType;
-import org.iq80.leveldb.impl.MemTable.MemTableIterator;
 import org.iq80.leveldb.impl.WriteBatchImpl.Handler;
+import org.iq80.leveldb.table.BlockCache;
 import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.table.CustomUserComparator;
 import org.iq80.leveldb.table.TableBuilder;
 import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.table.UserFilterPolicy;
 import org.iq80.leveldb.util.DbIterator;
+import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.MergingIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceInput;
@@ -53,24 +61,40 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.collect.Lists.newArrayList;
-import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static com.google.common.collect.Lists.newArrayListWithCapacity;
 import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.MAX_GROUP_SIZE;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
+import static org.iq80.leveldb.impl.DbConstants.SMALL_GROUP_SIZE;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static org.iq80.leveldb.impl.ValueType.DELETION;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
@@ -96,17 +120,69 @@ public class DbImpl implements DB
 
     private LogWriter log;
 
+    /**
+     * 等待写入的队列, 队首为当前组长, 只在持有 mutex 时访问
+     */
+    private final Deque<Writer> writers = new ArrayDeque<Writer>();
+    /**
+     * 流水线写入时已写完日志正在插入内存表的组, 以组长表示, 按日志顺序排列, 只在持有 mutex 时访问
+     */
+    private final Deque<Writer> memTableWriters = new ArrayDeque<Writer>();
+    private final Condition memTableWritersDrained = mutex.newCondition();
+
     private MemTable memTable;
-    private MemTable immutableMemTable;
+    /**
+     * 等待刷盘的不可变内存表, 由旧到新, 只在持有 mutex 时访问
+     */
+    private final Deque<ImmutableMemTable> immutableMemTables = new ArrayDeque<ImmutableMemTable>();
+    /**
+     * 当前读视图, 只在持有 mutex 时替换
+     */
+    private final AtomicReference<ReadView> readView = new AtomicReference<ReadView>();
+    private final AtomicBoolean compactionSignalled = new AtomicBoolean();
+
+    /**
+     * 切分后的压缩执行过的子压缩总数
+     */
+    private final AtomicLong subcompactions = new AtomicLong();
 
     private final InternalKeyComparator internalKeyComparator;
+    private final InternalMemTableFactory memTableFactory;
+    private final InternalFilterPolicy internalFilterPolicy;
 
     private volatile Throwable backgroundException;
+    /**
+     * 内存表刷盘与文件压缩使用各自的线程, 耗时的压缩不会推迟写入者等待的刷盘
+     */
+    private ExecutorService flushExecutor;
     private ExecutorService compactionExecutor;
-    private Future<?> backgroundCompaction;
+    /**
+     * 执行子压缩的线程, 压缩线程自己处理第一个子范围
+     */
+    private ExecutorService subcompactionExecutor;
+    /**
+     * 日志同步线程, 把等待刷盘的异步写入合并成一次 force
+     */
+    private ExecutorService walSyncExecutor;
+    private final BlockingQueue<AsyncWrite> pendingSyncs = new LinkedBlockingQueue<AsyncWrite>();
+    private Future<?> backgroundFlush;
+    /**
+     * 已提交尚未完成的压缩数
+     */
+    private int backgroundCompactions;
 
     private ManualCompaction manualCompaction;
 
+    /**
+     * 根据压缩进度平滑地延迟写入
+     */
+    private final WriteController writeController = new WriteController();
+
+    /**
+     * 当前内存表中是否有跳过日志的写入, 只在持有 mutex 时访问
+     */
+    private boolean unloggedWrites;
+
     public DbImpl(Options options, File databaseDir)
             throws IOException
     {
@@ -130,29 +206,70 @@ public class DbImpl implements DB
             userComparator = new BytewiseComparator();
         }
         internalKeyComparator = new InternalKeyComparator(userComparator);
-        memTable = new MemTable(internalKeyComparator);
-        immutableMemTable = null;
+        UserFilterPolicy userFilterPolicy = TableBuilder.toUserFilterPolicy(options.filterPolicy());
+        if (userFilterPolicy != null) {
+            internalFilterPolicy = new InternalFilterPolicy(userFilterPolicy);
+        }
+        else {
+            internalFilterPolicy = null;
+        }
+        MemTableFactory memTableFactory = options.memTableFactory();
+        if (memTableFactory == null) {
+            memTableFactory = MemTableFactories.skipList();
+        }
+        Preconditions.checkArgument(memTableFactory instanceof InternalMemTableFactory,
+                "Unsupported memtable factory %s, use one from MemTableFactories", memTableFactory.name());
+        this.memTableFactory = (InternalMemTableFactory) memTableFactory;
+        memTable = newMemTable();
 
 
 
+        UncaughtExceptionHandler uncaughtExceptionHandler = new UncaughtExceptionHandler()
+        {
+            @Override
+            public void uncaughtException(Thread t, Throwable e)
+            {
+                // todo need a real UncaughtExceptionHandler
+                System.out.printf("%s%n", t);
+                e.printStackTrace();
+            }
+        };
+        ThreadFactory flushThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-flush-%s")
+                .setUncaughtExceptionHandler(uncaughtExceptionHandler)
+                .build();
+        flushExecutor = Executors.newSingleThreadExecutor(flushThreadFactory);
         ThreadFactory compactionThreadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("leveldb-compaction-%s")
-                .setUncaughtExceptionHandler(new UncaughtExceptionHandler()
-                {
-                    @Override
-                    public void uncaughtException(Thread t, Throwable e)
-                    {
-                        // todo need a real UncaughtExceptionHandler
-                        System.out.printf("%s%n", t);
-                        e.printStackTrace();
-                    }
-                })
+                .setUncaughtExceptionHandler(uncaughtExceptionHandler)
+                .build();
+        compactionExecutor = Executors.newFixedThreadPool(options.maxBackgroundCompactions(), compactionThreadFactory);
+        ThreadFactory subcompactionThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-subcompaction-%s")
+                .setUncaughtExceptionHandler(uncaughtExceptionHandler)
+                .build();
+        subcompactionExecutor = Executors.newCachedThreadPool(subcompactionThreadFactory);
+        ThreadFactory walSyncThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-wal-sync-%s")
+                .setUncaughtExceptionHandler(uncaughtExceptionHandler)
                 .build();
-        compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        walSyncExecutor = Executors.newSingleThreadExecutor(walSyncThreadFactory);
+        walSyncExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                syncAsyncWrites();
+            }
+        });
 
         // Reserve ten files or so for other uses and give the rest to TableCache.
         int tableCacheSize = options.maxOpenFiles() - 10;
-        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyComparator), options.verifyChecksums());
+        BlockCache blockCache = null;
+        if (options.cacheSize() > 0) {
+            blockCache = new BlockCache(options.cacheSize());
+        }
+        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyComparator), options.verifyChecksums(), blockCache, internalFilterPolicy);
 
         // create the version set
 
@@ -218,7 +335,13 @@ public class DbImpl implements DB
             edit.setLogNumber(log.getFileNumber());
 
             // apply recovered edits
-            versions.logAndApply(edit);
+            try {
+                versions.logAndApply(edit, mutex);
+            }
+            finally {
+                releasePendingOutputs(edit);
+            }
+            installReadView();
 
             // cleanup unused files
             deleteObsoleteFiles();
@@ -232,26 +355,52 @@ public class DbImpl implements DB
     }
 
     public void close() {
+        if (shuttingDown.get()) {
+            return;
+        }
+        // writes that skipped the log only live in memory, persist them before shutting down
+        mutex.lock();
+        try {
+            if (unloggedWrites && backgroundException == null) {
+                flushMemTable();
+            }
+        } finally {
+            mutex.unlock();
+        }
         if (shuttingDown.getAndSet(true)) {
             return;
         }
 
         mutex.lock();
         try {
-            while (backgroundCompaction != null) {
+            while (backgroundFlush != null || backgroundCompactions > 0) {
                 backgroundCondition.awaitUninterruptibly();
             }
         } finally {
             mutex.unlock();
         }
 
+        flushExecutor.shutdown();
         compactionExecutor.shutdown();
+        subcompactionExecutor.shutdown();
+        // the sync thread stops after the round that takes this marker, the log close below covers
+        // the rest; it is not interrupted since that would close the log channel under a force
+        pendingSyncs.add(STOP_SYNC);
+        walSyncExecutor.shutdown();
         try {
+            flushExecutor.awaitTermination(1, TimeUnit.DAYS);
             compactionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            subcompactionExecutor.awaitTermination(1, TimeUnit.DAYS);
+            walSyncExecutor.awaitTermination(1, TimeUnit.DAYS);
         }
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        // drop the published view before the versions are destroyed
+        ReadView view = readView.getAndSet(null);
+        if (view != null) {
+            view.release();
+        }
         try {
             versions.destroy();
         }
@@ -262,6 +411,10 @@ public class DbImpl implements DB
         }
         catch (IOException ignored) {
         }
+        // closing the log forced it to disk
+        List<AsyncWrite> remaining = newArrayList();
+        pendingSyncs.drainTo(remaining);
+        completeAsyncWrites(remaining, null);
         tableCache.close();
         dbLock.release();
     }
@@ -270,6 +423,12 @@ public class DbImpl implements DB
     public String getProperty(String name)
     {
         checkBackgroundException();
+        if (name.equals("leveldb.delayed-write-rate")) {
+            return String.valueOf(writeController.getDelayedWriteRate());
+        }
+        if (name.equals("leveldb.write-stall-micros")) {
+            return String.valueOf(TimeUnit.NANOSECONDS.toMicros(writeController.getStallNanos()));
+        }
         return null;
     }
 
@@ -326,15 +485,25 @@ public class DbImpl implements DB
             }
         }
     }
+    @Override
+    public void flush()
+    {
+        checkBackgroundException();
+        flushMemTable();
+        checkBackgroundException();
+    }
+
     public void flushMemTable()
     {
         mutex.lock();
         try {
-            // force compaction
-            makeRoomForWrite(true);
+            // force compaction, queued behind pending writes so the log is not switched under them
+            write(new Writer(null, false, false, mutex.newCondition()));
+            // everything written so far is in the memtables waiting to be flushed
+            unloggedWrites = false;
 
             // todo bg_error code
-            while(immutableMemTable != null) {
+            while (!immutableMemTables.isEmpty()) {
                 backgroundCondition.awaitUninterruptibly();
             }
 
@@ -374,26 +543,80 @@ public class DbImpl implements DB
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
 
-        if (backgroundCompaction != null) {
-            // Already scheduled
-        }
-        else if (shuttingDown.get()) {
+        if (shuttingDown.get()) {
             // DB is being shutdown; no more background compactions
+            return;
+        }
+
+        if (backgroundFlush != null) {
+            // Already scheduled
         }
-        else if (immutableMemTable == null &&
-                manualCompaction == null &&
-                !versions.needsCompaction()) {
-            // No work to be done
+        else if (immutableMemTables.isEmpty()) {
+            // No memtable to flush
         }
         else {
-            backgroundCompaction = compactionExecutor.submit(new Callable<Void>()
+            backgroundFlush = flushExecutor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws Exception
+                {
+                    try {
+                        backgroundFlushCall();
+                    }
+                    catch (DatabaseShutdownException ignored) {
+                    } catch (Throwable e) {
+                        backgroundException = e;
+                    }
+                    return null;
+                }
+            });
+        }
+
+        if (manualCompaction != null) {
+            // A manual compaction runs alone, wait for the running ones to finish
+            if (!manualCompaction.scheduled && backgroundCompactions == 0) {
+                Compaction compaction = versions.compactRange(manualCompaction.level,
+                        new InternalKey(manualCompaction.begin, MAX_SEQUENCE_NUMBER, ValueType.VALUE),
+                        new InternalKey(manualCompaction.end, 0, ValueType.DELETION));
+                if (compaction == null) {
+                    // nothing to compact in the range
+                    manualCompaction = null;
+                    backgroundCondition.signalAll();
+                }
+                else {
+                    manualCompaction.scheduled = true;
+                    submitCompaction(compaction, true);
+                }
+            }
+            return;
+        }
+
+        // Start as many non-conflicting compactions as there are compaction threads
+        while (backgroundCompactions < options.maxBackgroundCompactions() && versions.needsCompaction()) {
+            Compaction compaction = versions.pickCompaction();
+            if (compaction == null) {
+                // the remaining work conflicts with running compactions
+                break;
+            }
+            submitCompaction(compaction, false);
+        }
+    }
+
+    private void submitCompaction(final Compaction compaction, final boolean manual)
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        backgroundCompactions++;
+        try {
+            compactionExecutor.submit(new Callable<Void>()
             {
                 @Override
                 public Void call()
                         throws Exception
                 {
                     try {
-                        backgroundCall();
+                        backgroundCall(compaction, manual);
                     }
                     catch (DatabaseShutdownException ignored) {
                     } catch (Throwable e) {
@@ -403,6 +626,11 @@ public class DbImpl implements DB
                 }
             });
         }
+        catch (RejectedExecutionException e) {
+            backgroundCompactions--;
+            versions.finishCompaction(compaction);
+            throw e;
+        }
     }
     
     public void checkBackgroundException() {
@@ -412,22 +640,58 @@ public class DbImpl implements DB
         }
     }
 
-    private void backgroundCall()
+    private void backgroundFlushCall()
             throws IOException
     {
         mutex.lock();
         try {
-            if (backgroundCompaction == null) {
+            if (backgroundFlush == null) {
                 return;
             }
 
             try {
                 if (!shuttingDown.get()) {
-                    backgroundCompaction();
+                    compactMemTableInternal();
+                }
+            }
+            finally {
+                backgroundFlush = null;
+            }
+        }
+        finally {
+            try {
+                // The new level-0 file may call for a compaction, and more
+                // memtables may have been sealed while this one was flushed.
+                maybeScheduleCompaction();
+            }
+            finally {
+                try {
+                    backgroundCondition.signalAll();
+                }
+                finally {
+                    mutex.unlock();
+                }
+            }
+        }
+    }
+
+    private void backgroundCall(Compaction compaction, boolean manual)
+            throws IOException
+    {
+        mutex.lock();
+        try {
+            try {
+                if (!shuttingDown.get()) {
+                    backgroundCompaction(compaction, manual);
                 }
             }
             finally {
-                backgroundCompaction = null;
+                versions.finishCompaction(compaction);
+                backgroundCompactions--;
+                if (manual) {
+                    // manual compaction complete
+                    manualCompaction = null;
+                }
             }
         }
         finally {
@@ -447,41 +711,28 @@ public class DbImpl implements DB
         }
     }
 
-    private void backgroundCompaction()
+    private void backgroundCompaction(Compaction compaction, boolean manual)
             throws IOException
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
 
-        compactMemTableInternal();
-
-        Compaction compaction;
-        if (manualCompaction != null) {
-            compaction = versions.compactRange(manualCompaction.level,
-                    new InternalKey(manualCompaction.begin, MAX_SEQUENCE_NUMBER, ValueType.VALUE),
-                    new InternalKey(manualCompaction.end, 0, ValueType.DELETION));
-        } else {
-            compaction = versions.pickCompaction();
-        }
-
-        if (compaction == null) {
-            // no compaction
-        } else if (manualCompaction == null && compaction.isTrivialMove()) {
+        if (!manual && compaction.isTrivialMove()) {
             // Move file to next level
             Preconditions.checkState(compaction.getLevelInputs().size() == 1);
             FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
             compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
             compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
-            versions.logAndApply(compaction.getEdit());
+            versions.logAndApply(compaction.getEdit(), mutex);
+            installReadView();
             // log
         } else {
             CompactionState compactionState = new CompactionState(compaction);
-            doCompactionWork(compactionState);
-            cleanupCompaction(compactionState);
-        }
-
-        // manual compaction complete
-        if (manualCompaction != null) {
-            manualCompaction = null;
+            try {
+                doCompactionWork(compactionState);
+            }
+            finally {
+                cleanupCompaction(compactionState);
+            }
         }
     }
 
@@ -523,29 +774,29 @@ public class DbImpl implements DB
         long maxSequence = 0;
         MemTable memTable = null;
         for (Slice record = logReader.readRecord(); record != null; record = logReader.readRecord()) {
-            SliceInput sliceInput = record.input();
             // read header
-            if (sliceInput.available() < 12) {
-                logMonitor.corruption(sliceInput.available(), "log record too small");
+            if (record.length() < WriteBatchImpl.HEADER_SIZE) {
+                logMonitor.corruption(record.length(), "log record too small");
                 continue;
             }
 
-            // read sequence number
-            long sequenceBegin = sliceInput.readLong();
-
-            //read batch update size
-            int updateSize = sliceInput.readInt();
-
-            // read entries
-            WriteBatchImpl writeBatch = readWriteBatch(sliceInput, updateSize);
+            // the record is the batch, entries are decoded in place
+            WriteBatchImpl writeBatch = WriteBatchImpl.fromRecord(record);
+            long sequenceBegin = writeBatch.getSequence();
+            int updateSize = writeBatch.size();
 
             // apply entries to memTable
             if (memTable == null) {
-                memTable = new MemTable(internalKeyComparator);
+                memTable = newMemTable();
             }
 
             //write record to memTable
-            writeBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+            try {
+                writeBatch.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+            }
+            catch (IllegalStateException e) {
+                throw new IOException(e.getMessage(), e);
+            }
 
             // update the maxSequence
             long lastSequence = sequenceBegin + updateSize - 1;
@@ -578,59 +829,141 @@ public class DbImpl implements DB
     @Override
     public byte[] get(byte[] key, ReadOptions options)
             throws DBException
+    {
+        Slice value = getValue(key, options);
+        return value == null ? null : value.getBytes();
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(byte[] key, ReadOptions options)
+            throws DBException
+    {
+        Slice value = getValue(key, options);
+        return value == null ? null : value.toReadOnlyByteBuffer();
+    }
+
+    @Override
+    public int get(byte[] key, ByteBuffer value, ReadOptions options)
+            throws DBException
+    {
+        Slice found = getValue(key, options);
+        if (found == null) {
+            return -1;
+        }
+        // copies as much as fits and advances the position
+        found.getBytes(0, value);
+        return found.length();
+    }
+
+    /**
+     * 查找给定KEY的数值, 返回的分片直接引用数据块或内存表中的数据
+     */
+    private Slice getValue(byte[] key, ReadOptions options)
     {
         checkBackgroundException();
-        LookupKey lookupKey;
-        mutex.lock();
+        // read the sequence before the view so the view covers every write up to it
+        long sequence = getSnapshotSequence(options);
+        ReadView view = acquireReadView();
         try {
-            SnapshotImpl snapshot = getSnapshot(options);
-            lookupKey = new LookupKey(Slices.wrappedBuffer(key), snapshot.getLastSequence());
+            LookupKey lookupKey = new LookupKey(Slices.wrappedBuffer(key), sequence);
 
-            // First look in the memtable, then in the immutable memtable (if any).
-            LookupResult lookupResult = memTable.get(lookupKey);
-            if (lookupResult != null) {
-                Slice value = lookupResult.getValue();
-                if (value == null) {
-                    return null;
-                }
-                return value.getBytes();
-            }
-            if (immutableMemTable != null) {
-                lookupResult = immutableMemTable.get(lookupKey);
-                if (lookupResult != null) {
-                    Slice value = lookupResult.getValue();
-					if (value == null) {
-						return null;
-					}
-					return value.getBytes();
+            // First look in the memtable, then in the immutable memtables, newest first.
+            LookupResult lookupResult = view.getMemTable().get(lookupKey);
+            List<MemTable> immutableMemTables = view.getImmutableMemTables();
+            for (int i = 0; lookupResult == null && i < immutableMemTables.size(); i++) {
+                lookupResult = immutableMemTables.get(i).get(lookupKey);
+            }
+
+            if (lookupResult == null) {
+                // Not in memTables; try live files in level order
+                Version version = view.getVersion();
+                lookupResult = version.get(lookupKey, options);
+
+                // schedule compaction if necessary
+                if (version.needsCompaction()) {
+                    signalCompaction();
                 }
             }
+
+            if (lookupResult != null) {
+                return lookupResult.getValue();
+            }
+            return null;
         }
         finally {
-            mutex.unlock();
+            view.release();
         }
+    }
 
-        // Not in memTables; try live files in level order
-        LookupResult lookupResult = versions.get(lookupKey);
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys)
+            throws DBException
+    {
+        return multiGet(keys, new ReadOptions());
+    }
 
-        // schedule compaction if necessary
-        mutex.lock();
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys, ReadOptions options)
+            throws DBException
+    {
+        Preconditions.checkNotNull(keys, "keys is null");
+        checkBackgroundException();
+        long sequence = getSnapshotSequence(options);
+        ReadView view = acquireReadView();
         try {
-            if (versions.needsCompaction()) {
-                maybeScheduleCompaction();
+            // sort the keys so each table and block is visited once, in order
+            final LookupKey[] lookupKeys = new LookupKey[keys.size()];
+            Integer[] order = new Integer[keys.size()];
+            for (int i = 0; i < lookupKeys.length; i++) {
+                lookupKeys[i] = new LookupKey(Slices.wrappedBuffer(keys.get(i)), sequence);
+                order[i] = i;
+            }
+            final UserComparator userComparator = internalKeyComparator.getUserComparator();
+            Arrays.sort(order, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer left, Integer right)
+                {
+                    return userComparator.compare(lookupKeys[left].getUserKey(), lookupKeys[right].getUserKey());
+                }
+            });
+
+            LookupKey[] sortedKeys = new LookupKey[lookupKeys.length];
+            LookupResult[] results = new LookupResult[lookupKeys.length];
+            List<MemTable> immutableMemTables = view.getImmutableMemTables();
+            boolean searchVersion = false;
+            for (int i = 0; i < sortedKeys.length; i++) {
+                LookupKey lookupKey = lookupKeys[order[i]];
+                sortedKeys[i] = lookupKey;
+
+                // First look in the memtable, then in the immutable memtables, newest first.
+                results[i] = view.getMemTable().get(lookupKey);
+                for (int j = 0; results[i] == null && j < immutableMemTables.size(); j++) {
+                    results[i] = immutableMemTables.get(j).get(lookupKey);
+                }
+                searchVersion |= results[i] == null;
             }
-        }
-        finally {
-            mutex.unlock();
-        }
 
-        if (lookupResult != null) {
-            Slice value = lookupResult.getValue();
-            if (value != null) {
-                return value.getBytes();
+            if (searchVersion) {
+                // Not all in memTables; walk the live files once for the remaining keys
+                Version version = view.getVersion();
+                version.multiGet(sortedKeys, results, options);
+                if (version.needsCompaction()) {
+                    signalCompaction();
+                }
+            }
+
+            byte[][] values = new byte[lookupKeys.length][];
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] != null && results[i].getValue() != null) {
+                    values[order[i]] = results[i].getValue().getBytes();
+                }
             }
+            return Arrays.asList(values);
+        }
+        finally {
+            view.release();
         }
-        return null;
     }
 
     @Override
@@ -679,34 +1012,10 @@ public class DbImpl implements DB
             throws DBException
     {
         checkBackgroundException();
+        Preconditions.checkArgument(!(options.sync() && options.disableWAL()), "sync writes can not skip the log");
         mutex.lock();
         try {
-            long sequenceEnd;
-            if (updates.size() != 0) {
-                makeRoomForWrite(false);
-
-                // Get sequence numbers for this change set
-                final long sequenceBegin = versions.getLastSequence() + 1;
-                sequenceEnd = sequenceBegin + updates.size() - 1;
-
-                // Reserve this sequence in the version set
-                versions.setLastSequence(sequenceEnd);
-
-                // Log write
-                Slice record = writeWriteBatch(updates, sequenceBegin);
-                try {
-                    log.addRecord(record, options.sync());
-                }
-                catch (IOException e) {
-                    throw Throwables.propagate(e);
-                }
-
-                // Update memtable
-                updates.forEach(new InsertIntoHandler(memTable, sequenceBegin));
-            } else {
-                sequenceEnd = versions.getLastSequence();
-            }
-
+            long sequenceEnd = write(new Writer(updates, options.sync(), options.disableWAL(), mutex.newCondition()));
             if(options.snapshot()) {
                 return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
             } else {
@@ -719,95 +1028,542 @@ public class DbImpl implements DB
     }
 
     @Override
-    public WriteBatch createWriteBatch()
-    {
-        checkBackgroundException();
-        return new WriteBatchImpl();
-    }
-
-    @Override
-    public SeekingIteratorAdapter iterator()
-    {
-        return iterator(new ReadOptions());
-    }
-
-    public SeekingIteratorAdapter iterator(ReadOptions options)
+    public ListenableFuture<Snapshot> writeAsync(WriteBatch updates, WriteOptions options)
     {
-        checkBackgroundException();
-        mutex.lock();
+        Preconditions.checkArgument(!options.disableWAL(), "asynchronous writes are made durable through the log");
+        Snapshot snapshot;
         try {
-            DbIterator rawIterator = internalIterator();
-
-
-            // filter any entries not visible in our snapshot
-            SnapshotImpl snapshot = getSnapshot(options);
-            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator());
-            return new SeekingIteratorAdapter(snapshotIterator);
+            // append to the log without forcing it, the sync thread does that for a whole round
+            snapshot = writeInternal((WriteBatchImpl) updates, new WriteOptions().snapshot(options.snapshot()));
         }
-        finally {
-            mutex.unlock();
+        catch (Throwable e) {
+            return Futures.immediateFailedFuture(e);
         }
+        AsyncWrite asyncWrite = new AsyncWrite(snapshot);
+        pendingSyncs.add(asyncWrite);
+        return asyncWrite.future;
     }
 
-    SeekingIterable<InternalKey, Slice> internalIterable()
+    /**
+     * 日志同步线程的主循环: 等到第一个异步写入后再等待一个合并窗口,
+     * 然后取出所有等待中的写入, 刷一次盘后统一完成它们
+     */
+    private void syncAsyncWrites()
     {
-        return new SeekingIterable<InternalKey, Slice>()
-        {
-            @Override
-            public DbIterator iterator()
-            {
-                return internalIterator();
+        long window = options.walSyncWindowMicros();
+        boolean stop = false;
+        while (!stop) {
+            List<AsyncWrite> round = newArrayList();
+            try {
+                round.add(pendingSyncs.take());
+                if (window > 0 && round.get(0) != STOP_SYNC) {
+                    TimeUnit.MICROSECONDS.sleep(window);
+                }
+            }
+            catch (InterruptedException e) {
+                // close() completes whatever is left once the log is closed
+                pendingSyncs.addAll(round);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            pendingSyncs.drainTo(round);
+            stop = round.remove(STOP_SYNC);
+            if (round.isEmpty()) {
+                continue;
             }
-        };
-    }
 
-    DbIterator internalIterator()
+            // every write in the round was appended to the current log, or to an
+            // older one that was forced when it was closed on the log switch
+            Throwable failure = null;
+            try {
+                LogWriter log;
+                mutex.lock();
+                try {
+                    log = this.log;
+                }
+                finally {
+                    mutex.unlock();
+                }
+                log.sync();
+            }
+            catch (Throwable e) {
+                failure = e;
+            }
+            completeAsyncWrites(round, failure);
+        }
+    }
+
+    private static void completeAsyncWrites(List<AsyncWrite> writes, Throwable failure)
     {
-        mutex.lock();
+        for (AsyncWrite write : writes) {
+            if (failure == null) {
+                write.future.set(write.snapshot);
+            }
+            else {
+                write.future.setException(failure);
+            }
+        }
+    }
+
+    /**
+     * 排队写入。队首的写入者作为组长, 把后续写入合并成一条日志记录,
+     * 在释放 mutex 的情况下写日志; 之后组内每个写入者各自并行地把批量插入内存表,
+     * 全部完成后组长才发布序列号并唤醒同组的写入者。
+     *
+     * @param writer 写入者, 批量为 null 时强制切换内存表
+     * @return 该写入者最后一条记录的序列号
+     */
+    private long write(Writer writer)
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        writers.addLast(writer);
+        while (!writer.done && writer.memTable == null && writer != writers.peekFirst()) {
+            writer.condition.awaitUninterruptibly();
+        }
+        if (!writer.done && writer.memTable != null) {
+            // the leader logged our batch, apply it ourselves in parallel with the rest of the group
+            insertIntoMemTable(writer);
+            while (!writer.done) {
+                writer.condition.awaitUninterruptibly();
+            }
+        }
+        if (writer.done) {
+            // a leader wrote our batch as part of its group
+            if (writer.failure != null) {
+                throw Throwables.propagate(writer.failure);
+            }
+            return writer.sequenceEnd;
+        }
+
+        List<Writer> group = Collections.singletonList(writer);
+        boolean pipelined = options.pipelinedWrite();
+        // whether the group still holds the head of the writer queue, and whether it
+        // moved on to the memtable stage, where the next group may already log
+        boolean queued = true;
+        boolean inMemTableStage = false;
+        boolean sequencesAllocated = false;
+        Throwable failure = null;
         try {
-            // merge together the memTable, immutableMemTable, and tables in version set
-            MemTableIterator iterator = null;
-            if (immutableMemTable != null) {
-                iterator = immutableMemTable.iterator();
+            WriteBatchImpl updates = writer.batch;
+            if (updates == null || updates.size() != 0) {
+                makeRoomForWrite(updates == null);
+            }
+
+            if (updates != null) {
+                group = buildBatchGroup(writer);
+                // pace the group as a whole, followers ride on the leader's write
+                int groupBytes = 0;
+                for (Writer member : group) {
+                    if (member.batch.size() != 0) {
+                        groupBytes += member.batch.getApproximateSize();
+                    }
+                }
+                if (groupBytes > 0) {
+                    delayWrite(groupBytes);
+                }
+            }
+
+            // a failed group may have left its sequences in the log and the memtable,
+            // they must not be handed out again
+            checkBackgroundException();
+
+            // groups still inserting have allocated sequences that are not published yet
+            long lastSequence = memTableWriters.isEmpty() ? versions.getLastSequence() : memTableWriters.peekLast().groupSequenceEnd;
+            if (updates == null) {
+                writer.sequenceEnd = lastSequence;
+            }
+            else {
+                long sequenceBegin = lastSequence + 1;
+                for (Writer member : group) {
+                    member.sequenceBegin = lastSequence + 1;
+                    lastSequence += member.batch.size();
+                    member.sequenceEnd = lastSequence;
+                }
+
+                if (lastSequence >= sequenceBegin) {
+                    sequencesAllocated = true;
+                    if (writer.disableWAL) {
+                        unloggedWrites = true;
+                    }
+                    else if (group.size() > 1) {
+                        updates = new WriteBatchImpl();
+                        for (Writer member : group) {
+                            updates.append(member.batch);
+                        }
+                    }
+
+                    // the writer queue keeps the log and memtable stable, so other
+                    // writers can queue up and background work can run meanwhile
+                    LogWriter log = this.log;
+                    MemTable memTable = this.memTable;
+                    Slice record = writer.disableWAL ? null : updates.toRecord(sequenceBegin);
+                    mutex.unlock();
+                    try {
+                        if (record != null) {
+                            log.addRecord(record, writer.sync);
+                        }
+                        if (group.size() == 1 && !pipelined) {
+                            // nobody to share the insert with
+                            updates.forEach(new InsertIntoHandler(memTable, sequenceBegin));
+                        }
+                    }
+                    finally {
+                        mutex.lock();
+                    }
+
+                    if (pipelined) {
+                        // hand the log to the next group while this one fills the memtable
+                        leaveWriters(group);
+                        queued = false;
+                        writer.groupSequenceEnd = lastSequence;
+                        memTableWriters.addLast(writer);
+                        inMemTableStage = true;
+                    }
+
+                    if (group.size() > 1 || pipelined) {
+                        // hand every member its own batch to insert, the memtable takes concurrent inserts
+                        writer.pendingInserts = group.size();
+                        for (Writer member : group) {
+                            member.leader = writer;
+                            member.memTable = memTable;
+                            if (member != writer) {
+                                member.condition.signal();
+                            }
+                        }
+                        insertIntoMemTable(writer);
+                        while (writer.pendingInserts > 0) {
+                            writer.condition.awaitUninterruptibly();
+                        }
+                        if (writer.insertFailure != null) {
+                            throw writer.insertFailure;
+                        }
+                    }
+
+                    // publish the sequence only after the whole group is in the memtable,
+                    // and after every group logged before it
+                    while (inMemTableStage && memTableWriters.peekFirst() != writer) {
+                        writer.condition.awaitUninterruptibly();
+                    }
+                    if (inMemTableStage) {
+                        // publishing past a failed earlier group would expose its partial inserts
+                        checkBackgroundException();
+                    }
+                    versions.setLastSequence(lastSequence);
+                }
             }
-            Version current = versions.getCurrent();
-            return new DbIterator(memTable.iterator(), iterator, current.getLevel0Files(), current.getLevelIterators(), internalKeyComparator);
+        }
+        catch (Throwable e) {
+            failure = e;
+            if (sequencesAllocated && backgroundException == null) {
+                // the group is in the log and maybe partly in the memtable, but its
+                // sequences are not published; stop accepting writes instead of reusing them
+                backgroundException = e;
+            }
+        }
+
+        if (inMemTableStage) {
+            memTableWriters.remove(writer);
+            Writer nextGroup = memTableWriters.peekFirst();
+            if (nextGroup != null) {
+                nextGroup.condition.signal();
+            }
+            else {
+                memTableWritersDrained.signalAll();
+            }
+        }
+        if (queued) {
+            leaveWriters(group);
+        }
+
+        // hand the result to the followers
+        for (Writer member : group) {
+            if (member != writer) {
+                member.failure = failure;
+                member.done = true;
+                member.condition.signal();
+            }
+        }
+
+        if (failure != null) {
+            throw Throwables.propagate(failure);
+        }
+        return writer.sequenceEnd;
+    }
+
+    /**
+     * 把组从写入队列中移除并唤醒下一个组长
+     */
+    private void leaveWriters(List<Writer> group)
+    {
+        for (Writer member : group) {
+            Writer first = writers.pollFirst();
+            Preconditions.checkState(first == member, "writer queue out of order");
+        }
+        Writer next = writers.peekFirst();
+        if (next != null) {
+            next.condition.signal();
+        }
+    }
+
+    /**
+     * 在释放 mutex 的情况下把写入者的批量插入内存表, 完成后通知组长
+     */
+    private void insertIntoMemTable(Writer writer)
+    {
+        Throwable failure = null;
+        mutex.unlock();
+        try {
+            writer.batch.forEach(new InsertIntoHandler(writer.memTable, writer.sequenceBegin));
+        }
+        catch (Throwable e) {
+            failure = e;
         }
         finally {
-            mutex.unlock();
+            mutex.lock();
+        }
+
+        Writer leader = writer.leader;
+        if (failure != null && leader.insertFailure == null) {
+            leader.insertFailure = failure;
+        }
+        if (--leader.pendingInserts == 0 && leader != writer) {
+            leader.condition.signal();
         }
     }
 
+    /**
+     * 从队首开始收集可以合并的写入, 同步写不会并入非同步的组,
+     * 组的大小受限以免拖慢小写入的延迟
+     */
+    private List<Writer> buildBatchGroup(Writer leader)
+    {
+        int size = leader.batch.getApproximateSize();
+        int maxSize = MAX_GROUP_SIZE;
+        if (size <= SMALL_GROUP_SIZE) {
+            maxSize = size + SMALL_GROUP_SIZE;
+        }
+
+        List<Writer> group = newArrayList();
+        for (Writer writer : writers) {
+            if (writer != leader) {
+                if (writer.sync && !leader.sync) {
+                    // do not include a sync write into a batch handled by a non-sync write
+                    break;
+                }
+                if (writer.batch == null) {
+                    // forced memtable switches are handled on their own
+                    break;
+                }
+                if (writer.disableWAL != leader.disableWAL) {
+                    // logged and unlogged writes do not share a log record
+                    break;
+                }
+                size += writer.batch.getApproximateSize();
+                if (size > maxSize) {
+                    break;
+                }
+            }
+            group.add(writer);
+        }
+        return group;
+    }
+
+    @Override
+    public WriteBatch createWriteBatch()
+    {
+        checkBackgroundException();
+        return new WriteBatchImpl();
+    }
+
+    @Override
+    public SeekingIteratorAdapter iterator()
+    {
+        return iterator(new ReadOptions());
+    }
+
+    public SeekingIteratorAdapter iterator(ReadOptions options)
+    {
+        checkBackgroundException();
+        long sequence = getSnapshotSequence(options);
+        ReadView view = acquireReadView();
+        try {
+            DbIterator rawIterator = internalIterator(view, options);
+
+            // filter any entries not visible in our snapshot, the iterator
+            // keeps the version it reads from alive until it is closed
+            SnapshotImpl snapshot = new SnapshotImpl(view.getVersion(), sequence);
+            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator());
+            snapshot.close();
+            return new SeekingIteratorAdapter(snapshotIterator);
+        }
+        finally {
+            view.release();
+        }
+    }
+
+    SeekingIterable<InternalKey, Slice> internalIterable()
+    {
+        return new SeekingIterable<InternalKey, Slice>()
+        {
+            @Override
+            public DbIterator iterator()
+            {
+                return internalIterator();
+            }
+        };
+    }
+
+    DbIterator internalIterator()
+    {
+        return internalIterator(new ReadOptions());
+    }
+
+    DbIterator internalIterator(ReadOptions options)
+    {
+        ReadView view = acquireReadView();
+        try {
+            return internalIterator(view, options);
+        }
+        finally {
+            view.release();
+        }
+    }
+
+    private DbIterator internalIterator(ReadView view, ReadOptions options)
+    {
+        // merge together the memTable, immutable memTables, and tables in version set
+        List<InternalIterator> immutableIterators = newArrayList();
+        for (MemTable immutableMemTable : view.getImmutableMemTables()) {
+            immutableIterators.add(immutableMemTable.iterator());
+        }
+        Version current = view.getVersion();
+        return new DbIterator(view.getMemTable().iterator(), immutableIterators, current.getLevel0Files(options), current.getLevelIterators(options), internalKeyComparator);
+    }
+
     public Snapshot getSnapshot()
     {
         checkBackgroundException();
-        mutex.lock();
+        long sequence = versions.getLastSequence();
+        ReadView view = acquireReadView();
         try {
-            return new SnapshotImpl(versions.getCurrent(), versions.getLastSequence());
+            return new SnapshotImpl(view.getVersion(), sequence);
         }
         finally {
-            mutex.unlock();
+            view.release();
         }
     }
 
-    private SnapshotImpl getSnapshot(ReadOptions options)
+    private long getSnapshotSequence(ReadOptions options)
     {
-        SnapshotImpl snapshot;
         if (options.snapshot() != null) {
-            snapshot = (SnapshotImpl) options.snapshot();
+            return ((SnapshotImpl) options.snapshot()).getLastSequence();
         }
-        else {
-            snapshot = new SnapshotImpl(versions.getCurrent(), versions.getLastSequence());
-            snapshot.close(); // To avoid holding the snapshot active..
+        return versions.getLastSequence();
+    }
+
+    /**
+     * 无锁获取当前读视图, 使用完毕后必须调用 {@link ReadView#release()}
+     */
+    private ReadView acquireReadView()
+    {
+        while (true) {
+            ReadView view = readView.get();
+            if (view == null) {
+                throw new DatabaseShutdownException("Database has been closed");
+            }
+            // a failed retain means the view was just replaced, retry with the new one
+            if (view.tryRetain()) {
+                return view;
+            }
         }
-        return snapshot;
     }
 
-    private void makeRoomForWrite(boolean force)
+    /**
+     * 发布新的读视图, 内存表或当前版本变化后调用
+     */
+    private void installReadView()
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+        ImmutableList.Builder<MemTable> immutables = ImmutableList.builder();
+        for (Iterator<ImmutableMemTable> iterator = immutableMemTables.descendingIterator(); iterator.hasNext(); ) {
+            immutables.add(iterator.next().memTable);
+        }
+        ReadView previous = readView.getAndSet(new ReadView(memTable, immutables.build(), versions.getCurrent()));
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * 读线程无锁地请求调度压缩, 由压缩线程持有 mutex 完成调度
+     */
+    private void signalCompaction()
+    {
+        if (shuttingDown.get() || !compactionSignalled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactionExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    compactionSignalled.set(false);
+                    mutex.lock();
+                    try {
+                        maybeScheduleCompaction();
+                    }
+                    finally {
+                        mutex.unlock();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // executor is shutting down
+            compactionSignalled.set(false);
+        }
+    }
+
+    /**
+     * 按配置创建新的内存表
+     */
+    private MemTable newMemTable()
+    {
+        return memTableFactory.newMemTable(internalKeyComparator, options.writeBufferSize());
+    }
+
+    /**
+     * 组长在写入前按整组的字节数等待令牌桶, 每组最多等待一次
+     */
+    private void delayWrite(int bytes)
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
 
-        boolean allowDelay = !force;
+        // As level 0 fills up or compactions fall behind, pace the writes
+        // at a rate derived from the compaction throughput instead of
+        // running at full speed until the hard limit stops all writes.
+        long delayNanos = writeController.getDelay(versions.numberOfFilesInLevel(0), versions.getCurrent().getPendingCompactionBytes(), bytes);
+        if (delayNanos > 0) {
+            long start = System.nanoTime();
+            try {
+                mutex.unlock();
+                TimeUnit.NANOSECONDS.sleep(delayNanos);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } finally {
+                mutex.lock();
+                writeController.recordStall(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void makeRoomForWrite(boolean force)
+    {
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
 
         while (true) {
             // todo background processing system need work
@@ -816,40 +1572,23 @@ public class DbImpl implements DB
 //              s = bg_error_;
 //              break;
 //            } else
-            if (allowDelay && versions.numberOfFilesInLevel(0) > L0_SLOWDOWN_WRITES_TRIGGER) {
-                // We are getting close to hitting a hard limit on the number of
-                // L0 files.  Rather than delaying a single write by several
-                // seconds when we hit the hard limit, start delaying each
-                // individual write by 1ms to reduce latency variance.  Also,
-                // this delay hands over some CPU to the compaction thread in
-                // case it is sharing the same core as the writer.
-                try {
-                    mutex.unlock();
-                    Thread.sleep(1);
-                }
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new RuntimeException(e);
-                } finally {
-                    mutex.lock();
-                }
-
-                // Do not delay a single write more than once
-                allowDelay = false;
-            }
-            else if (!force && memTable.approximateMemoryUsage() <= options.writeBufferSize()) {
+            if (!force && memTable.approximateMemoryUsage() <= options.writeBufferSize()) {
                 // There is room in current memtable
                 break;
             }
-            else if (immutableMemTable != null) {
-                // We have filled up the current memtable, but the previous
-                // one is still being compacted, so we wait.
-                backgroundCondition.awaitUninterruptibly();
+            else if (!memTableWriters.isEmpty()) {
+                // earlier groups are still inserting into the memtable we want to switch
+                memTableWritersDrained.awaitUninterruptibly();
+            }
+            else if (immutableMemTables.size() >= options.maxWriteBufferNumber() - 1) {
+                // We have filled up the current memtable, but all the other
+                // write buffers are still waiting to be compacted, so we wait.
+                awaitBackgroundWork();
             }
             else if (versions.numberOfFilesInLevel(0) >= L0_STOP_WRITES_TRIGGER) {
                 // There are too many level-0 files.
 //                Log(options_.info_log, "waiting...\n");
-                backgroundCondition.awaitUninterruptibly();
+                awaitBackgroundWork();
             }
             else {
                 // Attempt to switch to a new memtable and trigger compaction of old
@@ -874,9 +1613,10 @@ public class DbImpl implements DB
                             new File(databaseDir, Filename.logFileName(logNumber)).getAbsoluteFile(), e);
                 }
 
-                // create a new mem table
-                immutableMemTable = memTable;
-                memTable = new MemTable(internalKeyComparator);
+                // create a new mem table, the old one queues for compaction
+                immutableMemTables.addLast(new ImmutableMemTable(memTable, logNumber));
+                memTable = newMemTable();
+                installReadView();
 
                 // Do not force another compaction there is space available
                 force = false;
@@ -886,6 +1626,16 @@ public class DbImpl implements DB
         }
     }
 
+    /**
+     * 写入者等待后台工作腾出空间, 等待时间计入写入阻塞统计
+     */
+    private void awaitBackgroundWork()
+    {
+        long start = System.nanoTime();
+        backgroundCondition.awaitUninterruptibly();
+        writeController.recordStall(System.nanoTime() - start);
+    }
+
     public void compactMemTable()
             throws IOException
     {
@@ -902,26 +1652,39 @@ public class DbImpl implements DB
             throws IOException
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
-        if (immutableMemTable == null) {
+        if (immutableMemTables.isEmpty()) {
             return;
         }
 
         try {
-            // Save the contents of the memtable as a new Table
+            // Save the contents of every queued memtable as one new Table, memtables
+            // sealed while the table is written are left for the next round
+            List<ImmutableMemTable> flushing = newArrayList(immutableMemTables);
+            List<MemTable> memTables = newArrayListWithCapacity(flushing.size());
+            for (ImmutableMemTable immutableMemTable : flushing) {
+                memTables.add(immutableMemTable.memTable);
+            }
             VersionEdit edit = new VersionEdit();
             Version base = versions.getCurrent();
-            writeLevel0Table(immutableMemTable, edit, base);
+            writeLevel0Table(memTables, edit, base);
 
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("Database shutdown during memtable compaction");
             }
 
-            // Replace immutable memtable with the generated Table
+            // Replace the immutable memtables with the generated Table
             edit.setPreviousLogNumber(0);
-            edit.setLogNumber(log.getFileNumber());  // Earlier logs no longer needed
-            versions.logAndApply(edit);
+            // Logs older than the one started after the newest flushed memtable are no longer needed
+            edit.setLogNumber(flushing.get(flushing.size() - 1).nextLogNumber);
+            try {
+                versions.logAndApply(edit, mutex);
+            }
+            finally {
+                releasePendingOutputs(edit);
+            }
 
-            immutableMemTable = null;
+            immutableMemTables.removeAll(flushing);
+            installReadView();
 
             deleteObsoleteFiles();
         }
@@ -939,25 +1702,60 @@ public class DbImpl implements DB
      */
     private void writeLevel0Table(MemTable mem, VersionEdit edit, Version base)
             throws IOException
+    {
+        writeLevel0Table(Collections.singletonList(mem), edit, base);
+    }
+
+    /**
+     * 将多个 MemTable 合并写入一个 Level0 table
+     * @param memTables MemTable 列表, 由旧到新
+     * @param edit VersionEdit
+     * @param base Version
+     * @throws IOException
+     */
+    private void writeLevel0Table(List<MemTable> memTables, VersionEdit edit, Version base)
+            throws IOException
     {
         Preconditions.checkState(mutex.isHeldByCurrentThread());
 
-        // skip empty mem table
-        if (mem.isEmpty()) {
+        // skip empty mem tables
+        final List<MemTable> nonEmpty = newArrayListWithCapacity(memTables.size());
+        for (MemTable memTable : memTables) {
+            if (!memTable.isEmpty()) {
+                nonEmpty.add(memTable);
+            }
+        }
+        if (nonEmpty.isEmpty()) {
             return;
         }
 
+        SeekingIterable<InternalKey, Slice> data = nonEmpty.get(0);
+        if (nonEmpty.size() > 1) {
+            // sequence numbers are unique, so the merged entries never collide
+            data = new SeekingIterable<InternalKey, Slice>()
+            {
+                @Override
+                public MergingIterator iterator()
+                {
+                    List<InternalIterator> iterators = newArrayListWithCapacity(nonEmpty.size());
+                    for (MemTable memTable : nonEmpty) {
+                        iterators.add(memTable.iterator());
+                    }
+                    return new MergingIterator(iterators, internalKeyComparator);
+                }
+            };
+        }
+
         // write the memtable to a new sstable
         long fileNumber = versions.getNextFileNumber();
         pendingOutputs.add(fileNumber);
         mutex.unlock();
         FileMetaData meta;
         try {
-            meta = buildTable(mem, fileNumber);
+            meta = buildTable(data, fileNumber);
         } finally {
             mutex.lock();
         }
-        pendingOutputs.remove(fileNumber);
 
         // Note that if file size is zero, the file has been deleted and
         // should not be added to the manifest.
@@ -966,10 +1764,25 @@ public class DbImpl implements DB
             Slice minUserKey = meta.getSmallest().getUserKey();
             Slice maxUserKey = meta.getLargest().getUserKey();
             if (base != null) {
-                level = base.pickLevelForMemTableOutput(minUserKey, maxUserKey);
+                // compactions may have installed files while the table was built, so place
+                // it against the current version rather than the one the flush started from
+                level = versions.getCurrent().pickLevelForMemTableOutput(minUserKey, maxUserKey);
             }
             edit.addFile(level, meta);
         }
+        else {
+            pendingOutputs.remove(fileNumber);
+        }
+    }
+
+    /**
+     * 新表在安装到版本之前一直留在 pendingOutputs 中, 以免被并发的文件清理删除
+     */
+    private void releasePendingOutputs(VersionEdit edit)
+    {
+        for (FileMetaData file : edit.getNewFiles().values()) {
+            pendingOutputs.remove(file.getNumber());
+        }
     }
 
     private FileMetaData buildTable(SeekingIterable<InternalKey, Slice> data, long fileNumber)
@@ -978,7 +1791,7 @@ public class DbImpl implements DB
         File file = new File(databaseDir, Filename.tableFileName(fileNumber));
         try {
             FileChannel channel = new FileOutputStream(file).getChannel();
-            TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator));
+            TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator), internalFilterPolicy);
 
             InternalKey smallest = null;
             InternalKey largest = null;
@@ -1006,8 +1819,7 @@ public class DbImpl implements DB
             // verify table can be opened
             tableCache.newIterator(fileMetaData);
 
-            pendingOutputs.remove(fileNumber);
-
+            // stays in pendingOutputs until the caller installs it while holding the mutex
             return fileMetaData;
         }
         catch (IOException e) {
@@ -1026,103 +1838,237 @@ public class DbImpl implements DB
 
         // todo track snapshots
         compactionState.smallestSnapshot = versions.getLastSequence();
+        List<Slice> boundaries = subcompactionBoundaries(compactionState.compaction, options.maxSubcompactions(), internalKeyComparator.getUserComparator());
 
         // Release mutex while we're actually doing the compaction work
+        long start = System.nanoTime();
         mutex.unlock();
         try {
-            MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+            if (boundaries.isEmpty()) {
+                doSubcompactionWork(compactionState, null, null);
+            }
+            else {
+                doSubcompactionsWork(compactionState, boundaries);
+            }
+        }
+        finally {
+            mutex.lock();
+        }
 
-            Slice currentUserKey = null;
-            boolean hasCurrentUserKey = false;
+        // todo port CompactionStats code
+        writeController.recordCompaction(compactionState.totalBytes, System.nanoTime() - start);
 
-            long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
-            while (iterator.hasNext() && !shuttingDown.get()) {
-                // always give priority to compacting the current mem table
-                mutex.lock();
-                try {
-                    compactMemTableInternal();
+        installCompactionResults(compactionState);
+    }
+
+    /**
+     * 把压缩范围按边界切分, 每个子范围由独立的线程合并并写入自己的输出文件,
+     * 所有输出按 KEY 顺序汇总到 compactionState 中, 由同一个 VersionEdit 安装
+     */
+    private void doSubcompactionsWork(CompactionState compactionState, List<Slice> boundaries)
+            throws IOException
+    {
+        subcompactions.addAndGet(boundaries.size() + 1);
+        List<CompactionState> states = newArrayListWithCapacity(boundaries.size() + 1);
+        for (int i = 0; i <= boundaries.size(); i++) {
+            CompactionState state = new CompactionState(compactionState.compaction.newSubcompaction());
+            state.smallestSnapshot = compactionState.smallestSnapshot;
+            states.add(state);
+        }
+
+        // the first sub-range runs on this thread
+        List<Future<Void>> futures = newArrayListWithCapacity(boundaries.size());
+        for (int i = 1; i < states.size(); i++) {
+            final CompactionState state = states.get(i);
+            final Slice start = boundaries.get(i - 1);
+            final Slice end = i < boundaries.size() ? boundaries.get(i) : null;
+            futures.add(subcompactionExecutor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                        throws IOException
+                {
+                    doSubcompactionWork(state, start, end);
+                    return null;
                 }
-                finally {
-                    mutex.unlock();
+            }));
+        }
+        Throwable failure = null;
+        try {
+            doSubcompactionWork(states.get(0), null, boundaries.get(0));
+        }
+        catch (Throwable e) {
+            failure = e;
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
                 }
-
-                InternalKey key = iterator.peek().getKey();
-                if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
-                    finishCompactionOutputFile(compactionState);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
                 }
+            }
+        }
 
-                // Handle key/value, add to state, etc.
-                boolean drop = false;
-                // todo if key doesn't parse (it is corrupted),
-                if (false /*!ParseInternalKey(key, &ikey)*/) {
-                    // do not hide error keys
-                    currentUserKey = null;
-                    hasCurrentUserKey = false;
+        for (CompactionState state : states) {
+            // outputs of a failed compaction are released by cleanupCompaction
+            compactionState.outputs.addAll(state.outputs);
+            compactionState.totalBytes += state.totalBytes;
+            if (state.builder != null) {
+                state.builder.abandon();
+            }
+        }
+        if (failure != null) {
+            Throwables.propagateIfPossible(failure, IOException.class);
+            throw Throwables.propagate(failure);
+        }
+    }
+
+    /**
+     * 合并并写入用户 KEY 在 [start, end) 中的输入, null 表示不限
+     */
+    private void doSubcompactionWork(CompactionState compactionState, Slice start, Slice end)
+            throws IOException
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+        if (start != null) {
+            iterator.seek(new InternalKey(start, MAX_SEQUENCE_NUMBER, ValueType.VALUE));
+        }
+
+        Slice currentUserKey = null;
+        boolean hasCurrentUserKey = false;
+
+        long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+        // the flush thread keeps compacting memtables while this runs
+        while (iterator.hasNext() && !shuttingDown.get()) {
+            InternalKey key = iterator.peek().getKey();
+            if (end != null && userComparator.compare(key.getUserKey(), end) >= 0) {
+                // the rest belongs to the next sub-range
+                break;
+            }
+            if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
+                finishCompactionOutputFile(compactionState);
+            }
+
+            // Handle key/value, add to state, etc.
+            boolean drop = false;
+            // todo if key doesn't parse (it is corrupted),
+            if (false /*!ParseInternalKey(key, &ikey)*/) {
+                // do not hide error keys
+                currentUserKey = null;
+                hasCurrentUserKey = false;
+                lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+            }
+            else {
+                if (!hasCurrentUserKey || internalKeyComparator.getUserComparator().compare(key.getUserKey(), currentUserKey) != 0) {
+                    // First occurrence of this user key
+                    currentUserKey = key.getUserKey();
+                    hasCurrentUserKey = true;
                     lastSequenceForKey = MAX_SEQUENCE_NUMBER;
                 }
-                else {
-                    if (!hasCurrentUserKey || internalKeyComparator.getUserComparator().compare(key.getUserKey(), currentUserKey) != 0) {
-                        // First occurrence of this user key
-                        currentUserKey = key.getUserKey();
-                        hasCurrentUserKey = true;
-                        lastSequenceForKey = MAX_SEQUENCE_NUMBER;
-                    }
 
-                    if (lastSequenceForKey <= compactionState.smallestSnapshot) {
-                        // Hidden by an newer entry for same user key
-                        drop = true; // (A)
-                    }
-                    else if (key.getValueType() == ValueType.DELETION &&
-                            key.getSequenceNumber() <= compactionState.smallestSnapshot &&
-                            compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
-
-                        // For this user key:
-                        // (1) there is no data in higher levels
-                        // (2) data in lower levels will have larger sequence numbers
-                        // (3) data in layers that are being compacted here and have
-                        //     smaller sequence numbers will be dropped in the next
-                        //     few iterations of this loop (by rule (A) above).
-                        // Therefore this deletion marker is obsolete and can be dropped.
-                        drop = true;
-                    }
-
-                    lastSequenceForKey = key.getSequenceNumber();
+                if (lastSequenceForKey <= compactionState.smallestSnapshot) {
+                    // Hidden by an newer entry for same user key
+                    drop = true; // (A)
+                }
+                else if (key.getValueType() == ValueType.DELETION &&
+                        key.getSequenceNumber() <= compactionState.smallestSnapshot &&
+                        compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
+
+                    // For this user key:
+                    // (1) there is no data in higher levels
+                    // (2) data in lower levels will have larger sequence numbers
+                    // (3) data in layers that are being compacted here and have
+                    //     smaller sequence numbers will be dropped in the next
+                    //     few iterations of this loop (by rule (A) above).
+                    // Therefore this deletion marker is obsolete and can be dropped.
+                    drop = true;
                 }
 
-                if (!drop) {
-                    // Open output file if necessary
-                    if (compactionState.builder == null) {
-                        openCompactionOutputFile(compactionState);
-                    }
-                    if (compactionState.builder.getEntryCount() == 0) {
-                        compactionState.currentSmallest = key;
-                    }
-                    compactionState.currentLargest = key;
-                    compactionState.builder.add(key.encode(), iterator.peek().getValue());
+                lastSequenceForKey = key.getSequenceNumber();
+            }
 
-                    // Close output file if it is big enough
-                    if (compactionState.builder.getFileSize() >=
-                            compactionState.compaction.getMaxOutputFileSize()) {
-                        finishCompactionOutputFile(compactionState);
-                    }
+            if (!drop) {
+                // Open output file if necessary
+                if (compactionState.builder == null) {
+                    openCompactionOutputFile(compactionState);
+                }
+                if (compactionState.builder.getEntryCount() == 0) {
+                    compactionState.currentSmallest = key;
+                }
+                compactionState.currentLargest = key;
+                compactionState.builder.add(key.encode(), iterator.peek().getValue());
+
+                // Close output file if it is big enough
+                if (compactionState.builder.getFileSize() >=
+                        compactionState.compaction.getMaxOutputFileSize()) {
+                    finishCompactionOutputFile(compactionState);
                 }
-                iterator.next();
             }
+            iterator.next();
+        }
 
-            if (shuttingDown.get()) {
-                throw new DatabaseShutdownException("DB shutdown during compaction");
+        if (shuttingDown.get()) {
+            throw new DatabaseShutdownException("DB shutdown during compaction");
+        }
+        if (compactionState.builder != null) {
+            finishCompactionOutputFile(compactionState);
+        }
+    }
+
+    /**
+     * 在输入文件、父层与祖父层文件的边界处把压缩范围切分成若干子范围,
+     * 子范围数量不超过 maxSubcompactions, 且每个子范围大约能写满一个输出文件
+     *
+     * @return 相邻子范围之间的用户 KEY, 为空时不切分
+     */
+    static List<Slice> subcompactionBoundaries(Compaction compaction, int maxSubcompactions, UserComparator userComparator)
+    {
+        long inputBytes = Compaction.totalFileSize(compaction.getLevelInputs()) + Compaction.totalFileSize(compaction.getLevelUpInputs());
+        long parts = Math.min(maxSubcompactions, inputBytes / compaction.getMaxOutputFileSize());
+        if (parts <= 1) {
+            return Collections.emptyList();
+        }
+
+        TreeSet<Slice> candidates = new TreeSet<Slice>(userComparator);
+        Slice smallest = null;
+        Slice largest = null;
+        for (FileMetaData file : Iterables.concat(compaction.getLevelInputs(), compaction.getLevelUpInputs())) {
+            candidates.add(file.getLargest().getUserKey());
+            if (smallest == null || userComparator.compare(file.getSmallest().getUserKey(), smallest) < 0) {
+                smallest = file.getSmallest().getUserKey();
             }
-            if (compactionState.builder != null) {
-                finishCompactionOutputFile(compactionState);
+            if (largest == null || userComparator.compare(file.getLargest().getUserKey(), largest) > 0) {
+                largest = file.getLargest().getUserKey();
             }
         }
-        finally {
-            mutex.lock();
+        if (compaction.getGrandparents() != null) {
+            for (FileMetaData file : compaction.getGrandparents()) {
+                candidates.add(file.getLargest().getUserKey());
+            }
         }
 
-        // todo port CompactionStats code
+        // only keys strictly inside the compaction range split it
+        List<Slice> inside = newArrayList(candidates.subSet(smallest, false, largest, false));
+        parts = Math.min(parts, inside.size() + 1);
 
-        installCompactionResults(compactionState);
+        // spread the boundaries evenly over the candidates
+        List<Slice> boundaries = newArrayList();
+        for (int i = 1; i < parts; i++) {
+            Slice boundary = inside.get((int) (i * inside.size() / parts));
+            if (boundaries.isEmpty() || userComparator.compare(boundaries.get(boundaries.size() - 1), boundary) < 0) {
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries;
     }
 
     private void openCompactionOutputFile(CompactionState compactionState)
@@ -1142,7 +2088,7 @@ public class DbImpl implements DB
 
             File file = new File(databaseDir, Filename.tableFileName(fileNumber));
             compactionState.outfile = new FileOutputStream(file).getChannel();
-            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator));
+            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator), internalFilterPolicy);
         }
         finally {
             mutex.unlock();
@@ -1193,12 +2139,13 @@ public class DbImpl implements DB
         compact.compaction.addInputDeletions(compact.compaction.getEdit());
         int level = compact.compaction.getLevel();
         for (FileMetaData output : compact.outputs) {
+            // the outputs leave pendingOutputs in cleanupCompaction, after they are installed
             compact.compaction.getEdit().addFile(level + 1, output);
-            pendingOutputs.remove(output.getNumber());
         }
 
         try {
-            versions.logAndApply(compact.compaction.getEdit());
+            versions.logAndApply(compact.compaction.getEdit(), mutex);
+            installReadView();
             deleteObsoleteFiles();
         }
         catch (IOException e) {
@@ -1218,6 +2165,27 @@ public class DbImpl implements DB
         return versions.getCurrent().numberOfFilesInLevel(level);
     }
 
+    int numberOfRunningCompactions()
+    {
+        mutex.lock();
+        try {
+            return versions.numberOfRunningCompactions();
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    long getSubcompactionCount()
+    {
+        return subcompactions.get();
+    }
+
+    WriteController getWriteController()
+    {
+        return writeController;
+    }
+
     @Override
     public long[] getApproximateSizes(Range... ranges)
     {
@@ -1285,96 +2253,106 @@ public class DbImpl implements DB
     }
 
     /**
-     * 手工归并
+     * 排队中的写入者
      */
-    private static class ManualCompaction
+    private static final class Writer
     {
-        private final int level;
-        private final Slice begin;
-        private final Slice end;
+        private final WriteBatchImpl batch;
+        private final boolean sync;
+        private final boolean disableWAL;
+        private final Condition condition;
 
-        private ManualCompaction(int level, Slice begin, Slice end)
+        /**
+         * 由组长写入完成后设置, 只在持有 mutex 时访问
+         */
+        private boolean done;
+        private long sequenceEnd;
+        private Throwable failure;
+
+        /**
+         * 由组长在日志写入后设置, 写入者据此把自己的批量插入内存表
+         */
+        private Writer leader;
+        private MemTable memTable;
+        private long sequenceBegin;
+
+        /**
+         * 组长专用: 尚未完成内存表插入的组成员数及第一个插入异常
+         */
+        private int pendingInserts;
+        private Throwable insertFailure;
+        /**
+         * 组长专用: 整组最后一条记录的序列号, 流水线写入时供下一组分配序列号
+         */
+        private long groupSequenceEnd;
+
+        private Writer(WriteBatchImpl batch, boolean sync, boolean disableWAL, Condition condition)
         {
-            this.level = level;
-            this.begin = begin;
-            this.end = end;
+            this.batch = batch;
+            this.sync = sync;
+            this.disableWAL = disableWAL;
+            this.condition = condition;
         }
     }
 
     /**
-     * 从二进制字节记录读取批量更新数据
-     * @param record 记录数据
-     * @param updateSize 更新数量
-     * @return 批量更新对象
-     * @throws IOException
+     * 通知日志同步线程退出的标记
      */
-    private WriteBatchImpl readWriteBatch(SliceInput record, int updateSize)
-            throws IOException
+    private static final AsyncWrite STOP_SYNC = new AsyncWrite(null);
+
+    /**
+     * 已写入日志等待刷盘的异步写入
+     */
+    private static final class AsyncWrite
     {
-        WriteBatchImpl writeBatch = new WriteBatchImpl();
-        int entries = 0;
-        while (record.isReadable()) {
-            entries++;
-            ValueType valueType = ValueType.getValueTypeByPersistentId(record.readByte());
-            if (valueType == VALUE) {
-                Slice key = readLengthPrefixedBytes(record);
-                Slice value = readLengthPrefixedBytes(record);
-                writeBatch.put(key, value);
-            } else if (valueType == DELETION) {
-                Slice key = readLengthPrefixedBytes(record);
-                writeBatch.delete(key);
-            } else {
-                throw new IllegalStateException("Unexpected value type " + valueType);
-            }
-        }
+        private final SettableFuture<Snapshot> future = SettableFuture.create();
+        private final Snapshot snapshot;
 
-        if (entries != updateSize) {
-            throw new IOException(String.format("Expected %d entries in log record but found %s entries", updateSize, entries));
+        private AsyncWrite(Snapshot snapshot)
+        {
+            this.snapshot = snapshot;
         }
-
-        return writeBatch;
     }
 
     /**
-     * 写入批量写操作处理
-     * @param updates 批量更新数据
-     * @param sequenceBegin 开始序列号
-     * @return 批量写入记录
+     * 等待刷盘的不可变内存表
      */
-    private Slice writeWriteBatch(WriteBatchImpl updates, long sequenceBegin)
-    {
-        /*
-         format:
-            sequence  8byte
-            batch size 4byte
-            value type 1byte
-            key length VLQ int encode
-            key data
-            value length VLQ int encode
-            value data
+    private static final class ImmutableMemTable
+    {
+        private final MemTable memTable;
+
+        /**
+         * 切换内存表后新建的日志编号, 该内存表刷盘后更早的日志不再需要
          */
-        Slice record = Slices.allocate(SIZE_OF_LONG + SIZE_OF_INT + updates.getApproximateSize());
-        final SliceOutput sliceOutput = record.output();
-        sliceOutput.writeLong(sequenceBegin);
-        sliceOutput.writeInt(updates.size());
-        updates.forEach(new Handler()
+        private final long nextLogNumber;
+
+        private ImmutableMemTable(MemTable memTable, long nextLogNumber)
         {
-            @Override
-            public void put(Slice key, Slice value)
-            {
-                sliceOutput.writeByte(VALUE.getPersistentId());
-                writeLengthPrefixedBytes(sliceOutput, key);
-                writeLengthPrefixedBytes(sliceOutput, value);
-            }
+            this.memTable = memTable;
+            this.nextLogNumber = nextLogNumber;
+        }
+    }
 
-            @Override
-            public void delete(Slice key)
-            {
-                sliceOutput.writeByte(DELETION.getPersistentId());
-                writeLengthPrefixedBytes(sliceOutput, key);
-            }
-        });
-        return record.slice(0, sliceOutput.size());
+    /**
+     * 手工归并
+     */
+    private static class ManualCompaction
+    {
+        private final int level;
+        private final Slice begin;
+        private final Slice end;
+
+        /**
+         * 是否已经提交给压缩线程
+         */
+        private boolean scheduled;
+
+        private ManualCompaction(int level, Slice begin, Slice end)
+        {
+            this.level = level;
+            this.begin = begin;
+            this.end = end;
+        }
     }
 
     /**
@@ -1432,26 +2410,44 @@ public class DbImpl implements DB
 
     @Override
     public void suspendCompactions() throws InterruptedException {
-        compactionExecutor.execute(new Runnable() {
+        // park all background threads so no table file changes while suspended
+        suspend(true);
+    }
+
+    /**
+     * 只挂起压缩线程, 刷盘线程照常工作, 由 resumeCompactions 恢复
+     */
+    void suspendCompactionThreads() throws InterruptedException {
+        suspend(false);
+    }
+
+    private void suspend(boolean includeFlushThread) throws InterruptedException {
+        int compactionThreads = options.maxBackgroundCompactions();
+        final CountDownLatch parked = new CountDownLatch((includeFlushThread ? 1 : 0) + compactionThreads);
+        Runnable suspension = new Runnable() {
             @Override
             public void run() {
                 try {
                     synchronized (suspensionMutex) {
-                        suspensionCounter ++;
-                        suspensionMutex.notifyAll();
-                        while( suspensionCounter > 0 && !compactionExecutor.isShutdown()) {
+                        parked.countDown();
+                        while( suspensionCounter > 0 && !shuttingDown.get()) {
                             suspensionMutex.wait(500);
                         }
                     }
                 } catch (InterruptedException e) {
                 }
             }
-        });
+        };
         synchronized (suspensionMutex) {
-            while(suspensionCounter < 1) {
-                suspensionMutex.wait();
-            }
+            suspensionCounter ++;
+        }
+        if (includeFlushThread) {
+            flushExecutor.execute(suspension);
+        }
+        for (int i = 0; i < compactionThreads; i++) {
+            compactionExecutor.execute(suspension);
         }
+        parked.await();
     }
 
     @Override
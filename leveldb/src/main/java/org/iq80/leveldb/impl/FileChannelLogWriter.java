@@ -21,14 +21,13 @@ import com.google.common.base.Preconditions;
 import com.google.common.io.Closeables;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceInput;
-import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.SliceOutput;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -37,11 +36,21 @@ import static org.iq80.leveldb.impl.LogConstants.HEADER_SIZE;
 
 public class FileChannelLogWriter implements LogWriter
 {
+    /**
+     * 块尾不足一个头部时用于补齐的零字节
+     */
+    private static final byte[] ZERO_PADDING = new byte[HEADER_SIZE];
+
     private final File file;
     private final long fileNumber;
     private final FileChannel fileChannel;
     private final AtomicBoolean closed = new AtomicBoolean();
 
+    /**
+     * 复用的写缓冲区, 一条记录的所有分片和头部在这里拼好后一次写入文件
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
     /**
      * Current offset in the current block
      */
@@ -127,8 +136,8 @@ public class FileChannelLogWriter implements LogWriter
             if (bytesRemainingInBlock < HEADER_SIZE) {
                 if (bytesRemainingInBlock > 0) {
                     // Fill the rest of the block with zeros
-                    // todo lame... need a better way to write zeros
-                    fileChannel.write(ByteBuffer.allocate(bytesRemainingInBlock));
+                    reserve(bytesRemainingInBlock);
+                    buffer.put(ZERO_PADDING, 0, bytesRemainingInBlock);
                 }
                 blockOffset = 0;
                 bytesRemainingInBlock = BLOCK_SIZE - blockOffset;
@@ -173,38 +182,61 @@ public class FileChannelLogWriter implements LogWriter
             begin = false;
         } while (sliceInput.isReadable());
 
+        flushBuffer();
+
         if (force) {
             fileChannel.force(false);
         }
     }
 
+    @Override
+    public synchronized void sync()
+            throws IOException
+    {
+        if (!closed.get()) {
+            fileChannel.force(false);
+        }
+    }
+
     private void writeChunk(LogChunkType type, Slice slice)
             throws IOException
     {
         Preconditions.checkArgument(slice.length() <= 0xffff, "length %s is larger than two bytes", slice.length());
         Preconditions.checkArgument(blockOffset + HEADER_SIZE <= BLOCK_SIZE);
 
-        // create header
-        Slice header = newLogRecordHeader(type, slice, slice.length());
+        int length = slice.length();
+        reserve(HEADER_SIZE + length);
 
-        // write the header and the payload
-        header.getBytes(0, fileChannel, header.length());
-        slice.getBytes(0, fileChannel, slice.length());
+        // write the header and the payload into the buffer
+        int crc = Logs.getChunkChecksum(type.getPersistentId(), slice.getRawArray(), slice.getRawOffset(), length);
+        buffer.putInt(crc);
+        buffer.put((byte) (length & 0xff));
+        buffer.put((byte) (length >>> 8));
+        buffer.put((byte) (type.getPersistentId()));
+        buffer.put(slice.getRawArray(), slice.getRawOffset(), length);
 
-        blockOffset += HEADER_SIZE + slice.length();
+        blockOffset += HEADER_SIZE + length;
     }
 
-    private Slice newLogRecordHeader(LogChunkType type, Slice slice, int length)
+    /**
+     * 确保缓冲区还能放下 bytes 字节, 放不下时先把已有内容写出
+     * 单个分片连同头部不会超过一个块, 所以缓冲区总能放下
+     */
+    private void reserve(int bytes)
+            throws IOException
     {
-        int crc = Logs.getChunkChecksum(type.getPersistentId(), slice.getRawArray(), slice.getRawOffset(), length);
-
-        // Format the header
-        SliceOutput header = Slices.allocate(HEADER_SIZE).output();
-        header.writeInt(crc);
-        header.writeByte((byte) (length & 0xff));
-        header.writeByte((byte) (length >>> 8));
-        header.writeByte((byte) (type.getPersistentId()));
+        if (buffer.remaining() < bytes) {
+            flushBuffer();
+        }
+    }
 
-        return header.slice();
+    private void flushBuffer()
+            throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+        buffer.clear();
     }
 }
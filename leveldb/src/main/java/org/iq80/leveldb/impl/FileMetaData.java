@@ -64,6 +64,11 @@ public class FileMetaData
     // todo this mutable state should be moved elsewhere
     private final AtomicInteger allowedSeeks = new AtomicInteger(1 << 30);
 
+    /**
+     * 是否正被某个压缩读取, 并发的压缩不会选择同一个文件, 只在持有 mutex 时修改
+     */
+    private volatile boolean beingCompacted;
+
     public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest)
     {
         this.number = number;
@@ -107,6 +112,16 @@ public class FileMetaData
         allowedSeeks.getAndDecrement();
     }
 
+    public boolean isBeingCompacted()
+    {
+        return beingCompacted;
+    }
+
+    public void setBeingCompacted(boolean beingCompacted)
+    {
+        this.beingCompacted = beingCompacted;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.util.InternalIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * 哈希链表内存表
+ * <p/>
+ * 按用户 KEY 的前缀哈希到固定数量的桶, 每个桶是按内部 KEY 排序的单向链表,
+ * 通过 CAS 无锁插入。点查只遍历一个桶, 同一前缀下 KEY 不多时接近 O(1)。
+ * 全表迭代需要收集所有记录并排序。
+ */
+public class HashLinkListMemTable extends MemTable
+{
+    private final InternalKeyComparator internalKeyComparator;
+    private final int prefixLength;
+    private final AtomicReferenceArray<Node> buckets;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+
+    public HashLinkListMemTable(InternalKeyComparator internalKeyComparator, int prefixLength, int bucketCount)
+    {
+        Preconditions.checkNotNull(internalKeyComparator, "internalKeyComparator is null");
+        Preconditions.checkArgument(prefixLength > 0, "prefixLength must be positive");
+        Preconditions.checkArgument(bucketCount > 0, "bucketCount must be positive");
+        this.internalKeyComparator = internalKeyComparator;
+        this.prefixLength = prefixLength;
+        this.buckets = new AtomicReferenceArray<Node>(bucketCount);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size.get() == 0;
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return approximateMemoryUsage.get();
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    {
+        Preconditions.checkNotNull(valueType, "valueType is null");
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(value, "value is null");
+
+        Node node = new Node(new InternalEntry(new InternalKey(key, sequenceNumber, valueType), value));
+        int bucket = bucket(key);
+        while (true) {
+            Node previous = null;
+            Node next = buckets.get(bucket);
+            while (next != null && internalKeyComparator.compare(next.entry.getKey(), node.entry.getKey()) < 0) {
+                previous = next;
+                next = next.next;
+            }
+            node.next = next;
+            if (previous == null ? buckets.compareAndSet(bucket, next, node) : previous.casNext(next, node)) {
+                break;
+            }
+        }
+
+        size.incrementAndGet();
+        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
+    }
+
+    @Override
+    public LookupResult get(LookupKey key)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        InternalKey internalKey = key.getInternalKey();
+        Node node = buckets.get(bucket(key.getUserKey()));
+        while (node != null && internalKeyComparator.compare(node.entry.getKey(), internalKey) < 0) {
+            node = node.next;
+        }
+        if (node == null || !node.entry.getKey().getUserKey().equals(key.getUserKey())) {
+            return null;
+        }
+        if (node.entry.getKey().getValueType() == ValueType.DELETION) {
+            return LookupResult.deleted(key);
+        }
+        return LookupResult.ok(key, node.entry.getValue());
+    }
+
+    @Override
+    public InternalIterator iterator()
+    {
+        // the buckets are not ordered relative to each other, so sort a snapshot of every record
+        InternalEntry[] entries = new InternalEntry[Math.max(16, size.get())];
+        int count = 0;
+        for (int bucket = 0; bucket < buckets.length(); bucket++) {
+            for (Node node = buckets.get(bucket); node != null; node = node.next) {
+                if (count == entries.length) {
+                    entries = Arrays.copyOf(entries, count * 2);
+                }
+                entries[count++] = node.entry;
+            }
+        }
+        entries = Arrays.copyOf(entries, count);
+        Arrays.sort(entries, SortedEntryIterator.entryComparator(internalKeyComparator));
+        return new SortedEntryIterator(entries, internalKeyComparator);
+    }
+
+    /**
+     * 对用户 KEY 的前缀求哈希, 选择桶
+     */
+    private int bucket(Slice userKey)
+    {
+        int length = Math.min(prefixLength, userKey.length());
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + userKey.getByte(i);
+        }
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % buckets.length();
+    }
+
+    private static final class Node
+    {
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        private final InternalEntry entry;
+        private volatile Node next;
+
+        private Node(InternalEntry entry)
+        {
+            this.entry = entry;
+        }
+
+        private boolean casNext(Node expected, Node next)
+        {
+            return NEXT_UPDATER.compareAndSet(this, expected, next);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.table.UserFilterPolicy;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * 内部 KEY 过滤策略, 去掉内部 KEY 末尾的序列号与类型后交给用户过滤策略
+ */
+public class InternalFilterPolicy implements UserFilterPolicy
+{
+    private final UserFilterPolicy userPolicy;
+
+    public InternalFilterPolicy(UserFilterPolicy userPolicy)
+    {
+        this.userPolicy = userPolicy;
+    }
+
+    @Override
+    public String name()
+    {
+        return userPolicy.name();
+    }
+
+    @Override
+    public Slice createFilter(List<Slice> keys)
+    {
+        List<Slice> userKeys = new ArrayList<Slice>(keys.size());
+        for (Slice key : keys) {
+            userKeys.add(extractUserKey(key));
+        }
+        return userPolicy.createFilter(userKeys);
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter)
+    {
+        return userPolicy.keyMayMatch(extractUserKey(key), filter);
+    }
+
+    private static Slice extractUserKey(Slice internalKey)
+    {
+        return internalKey.slice(0, internalKey.length() - SIZE_OF_LONG);
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.MemTableFactory;
+
+/**
+ * 数据库实现使用的内存表工厂, 由 {@link MemTableFactories} 提供
+ */
+public interface InternalMemTableFactory extends MemTableFactory
+{
+    /**
+     * 创建新的空内存表
+     *
+     * @param internalKeyComparator 内部 KEY 比较器
+     * @param writeBufferSize 写缓存大小, 内存表据此确定内部分配的粒度
+     * @return 内存表
+     */
+    MemTable newMemTable(InternalKeyComparator internalKeyComparator, int writeBufferSize);
+}
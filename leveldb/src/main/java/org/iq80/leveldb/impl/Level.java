@@ -18,22 +18,21 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.table.BlockEntry;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.LevelIterator;
 import org.iq80.leveldb.util.Slice;
 
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.Map.Entry;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.Lists.newArrayList;
-import static org.iq80.leveldb.impl.FileMetaData.GET_LARGEST_USER_KEY;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
 
 // todo this class should be immutable
 public class Level implements SeekingIterable<InternalKey, Slice>
@@ -43,6 +42,11 @@ public class Level implements SeekingIterable<InternalKey, Slice>
     private final InternalKeyComparator internalKeyComparator;
     private final List<FileMetaData> files;
 
+    /**
+     * 文件平铺索引, 首次查找时构建
+     */
+    private volatile LevelFiles levelFiles;
+
     public Level(int levelNumber, List<FileMetaData> files, TableCache tableCache, InternalKeyComparator internalKeyComparator)
     {
         Preconditions.checkArgument(levelNumber >= 0, "levelNumber is negative");
@@ -73,94 +77,154 @@ public class Level implements SeekingIterable<InternalKey, Slice>
         return createLevelConcatIterator(tableCache, files, internalKeyComparator);
     }
 
+    public LevelIterator iterator(ReadOptions options)
+    {
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, options);
+    }
+
     public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator)
     {
-        return new LevelIterator(tableCache, files, internalKeyComparator);
+        return createLevelConcatIterator(tableCache, files, internalKeyComparator, new ReadOptions());
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    public static LevelIterator createLevelConcatIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator internalKeyComparator, ReadOptions options)
     {
-        if (files.isEmpty()) {
+        return new LevelIterator(tableCache, files, internalKeyComparator, options);
+    }
+
+    public LookupResult get(LookupKey key, ReadStats readStats, ReadOptions options)
+    {
+        readStats.clear();
+
+        // files in levels above 0 do not overlap, so at most one file can contain the key
+        LevelFiles levelFiles = levelFiles();
+        int index = levelFiles.ceilingIndex(key.getInternalKey(), internalKeyComparator);
+
+        // did we find any files that could contain the key?
+        if (index >= levelFiles.files.length) {
             return null;
         }
 
-        List<FileMetaData> fileMetaDataList = Lists.newArrayListWithCapacity(files.size());
-        if (levelNumber == 0) {
-            for (FileMetaData fileMetaData : files) {
-                if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
-                        internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
-                    fileMetaDataList.add(fileMetaData);
-                }
-            }
+        // check if the smallest user key in the file is less than the target user key
+        if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), levelFiles.smallestUserKeys[index]) < 0) {
+            return null;
+        }
+
+        // the table checks its filter before opening the data block
+        return lookup(tableCache.get(levelFiles.files[index], key.getEncodedInternalKey(), options), key);
+    }
+
+    /**
+     * 批量查找, 落在同一文件的 KEY 共用一个表迭代器
+     *
+     * @param keys 按用户 KEY 排序的查找 KEY
+     * @param results 查找结果, 与 keys 一一对应, 已有结果的 KEY 会被跳过
+     * @param options 读选项
+     */
+    public void multiGet(LookupKey[] keys, LookupResult[] results, ReadOptions options)
+    {
+        if (files.isEmpty()) {
+            return;
         }
-        else {
-            // Binary search to find earliest index whose largest key >= ikey.
-            int index = ceilingEntryIndex(Lists.transform(files, GET_LARGEST_USER_KEY), key.getInternalKey(), internalKeyComparator);
 
-            // did we find any files that could contain the key?
-            if (index >= files.size()) {
-                return null;
+        LevelFiles levelFiles = levelFiles();
+        FileMetaData currentFile = null;
+        InternalTableIterator iterator = null;
+        for (int i = 0; i < keys.length; i++) {
+            if (results[i] != null) {
+                continue;
+            }
+            LookupKey key = keys[i];
+
+            // Binary search to find earliest index whose largest key >= ikey.
+            int index = levelFiles.ceilingIndex(key.getInternalKey(), internalKeyComparator);
+            if (index >= levelFiles.files.length) {
+                // keys are sorted, the rest are past the last file too
+                break;
             }
 
             // check if the smallest user key in the file is less than the target user key
-            FileMetaData fileMetaData = files.get(index);
-            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) < 0) {
-                return null;
+            FileMetaData fileMetaData = levelFiles.files[index];
+            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), levelFiles.smallestUserKeys[index]) < 0) {
+                continue;
+            }
+            if (!tableCache.keyMayMatch(fileMetaData, key.getEncodedInternalKey())) {
+                continue;
             }
 
-            // search this file
-            fileMetaDataList.add(fileMetaData);
+            if (fileMetaData != currentFile) {
+                currentFile = fileMetaData;
+                iterator = tableCache.newIterator(fileMetaData, options);
+            }
+            results[i] = lookup(iterator, key);
         }
+    }
 
-        FileMetaData lastFileRead = null;
-        int lastFileReadLevel = -1;
-        readStats.clear();
-        for (FileMetaData fileMetaData : fileMetaDataList) {
-
-            if (lastFileRead!=null && readStats.getSeekFile() == null) {
-                // We have had more than one seek for this read.  Charge the first file.
-                readStats.setSeekFile(lastFileRead);
-                readStats.setSeekFileLevel(lastFileReadLevel);
+    /**
+     * 在已打开的表中查找 KEY
+     */
+    private static LookupResult lookup(InternalTableIterator iterator, LookupKey key)
+    {
+        // seek to the key
+        iterator.seek(key.getInternalKey());
+
+        if (iterator.hasNext()) {
+            // parse the key in the block
+            Entry<InternalKey, Slice> entry = iterator.next();
+            InternalKey internalKey = entry.getKey();
+            if (internalKey == null) {
+                throw new IllegalStateException("Corrupt key for " + key.getUserKey().toString(UTF_8));
             }
 
-            lastFileRead = fileMetaData;
-            lastFileReadLevel = levelNumber;
-
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
-
-            if (iterator.hasNext()) {
-                // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                Preconditions.checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
-
-                // if this is a value key (not a delete) and the keys match, return the value
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
-                    }
+            // if this is a value key (not a delete) and the keys match, return the value
+            if (key.getUserKey().equals(internalKey.getUserKey())) {
+                if (internalKey.getValueType() == ValueType.DELETION) {
+                    return LookupResult.deleted(key);
+                }
+                else if (internalKey.getValueType() == VALUE) {
+                    return LookupResult.ok(key, entry.getValue());
                 }
             }
+        }
+        return null;
+    }
+
+    /**
+     * 根据点查得到的实体生成查找结果, 直接解析编码后的内部 KEY
+     */
+    static LookupResult lookup(BlockEntry entry, LookupKey key)
+    {
+        if (entry == null) {
+            return null;
+        }
 
+        Slice encodedKey = entry.getKey();
+        int userKeyLength = encodedKey.length() - SIZE_OF_LONG;
+        if (userKeyLength < 0) {
+            throw new IllegalStateException("Corrupt key for " + key.getUserKey().toString(UTF_8));
         }
 
+        // if this is a value key (not a delete) and the keys match, return the value
+        if (key.getUserKey().equals(encodedKey.slice(0, userKeyLength))) {
+            ValueType valueType = SequenceNumber.unpackValueType(encodedKey.getLong(userKeyLength));
+            if (valueType == ValueType.DELETION) {
+                return LookupResult.deleted(key);
+            }
+            else if (valueType == VALUE) {
+                return LookupResult.ok(key, entry.getValue());
+            }
+        }
         return null;
     }
 
-    private static <T> int ceilingEntryIndex(List<T> list, T key, Comparator<T> comparator)
+    private LevelFiles levelFiles()
     {
-        int insertionPoint = Collections.binarySearch(list, key, comparator);
-        if (insertionPoint < 0) {
-            insertionPoint = -(insertionPoint + 1);
+        LevelFiles levelFiles = this.levelFiles;
+        if (levelFiles == null) {
+            levelFiles = new LevelFiles(files);
+            this.levelFiles = levelFiles;
         }
-        return insertionPoint;
+        return levelFiles;
     }
 
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
@@ -205,6 +269,7 @@ public class Level implements SeekingIterable<InternalKey, Slice>
     {
         // todo remove mutation
         files.add(fileMetaData);
+        levelFiles = null;
     }
 
     @Override
@@ -18,7 +18,7 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.Level0Iterator;
@@ -41,6 +41,11 @@ public class Level0 implements SeekingIterable<InternalKey, Slice>
     private final InternalKeyComparator internalKeyComparator;
     private final List<FileMetaData> files;
 
+    /**
+     * 按新到旧排序的文件平铺索引
+     */
+    private volatile LevelFiles newestFirst;
+
     public static final Comparator<FileMetaData> NEWEST_FIRST = new Comparator<FileMetaData>() {
         @Override
         public int compare(FileMetaData fileMetaData, FileMetaData fileMetaData1) {
@@ -75,45 +80,29 @@ public class Level0 implements SeekingIterable<InternalKey, Slice>
         return new Level0Iterator(tableCache, files, internalKeyComparator);
     }
 
-    public LookupResult get(LookupKey key, ReadStats readStats)
+    public Level0Iterator iterator(ReadOptions options)
     {
-        if (files.isEmpty()) {
-            return null;
-        }
+        return new Level0Iterator(tableCache, files, internalKeyComparator, options);
+    }
 
-        List<FileMetaData> fileMetaDataList = Lists.newArrayListWithCapacity(files.size());
-        for (FileMetaData fileMetaData : files) {
-            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
-                    internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
-                fileMetaDataList.add(fileMetaData);
-            }
-        }
+    public LookupResult get(LookupKey key, ReadStats readStats, ReadOptions options)
+    {
+        readStats.clear();
 
-        Collections.sort(fileMetaDataList, NEWEST_FIRST);
+        // files are already ordered newest first, so the first hit is the latest
+        LevelFiles newestFirst = newestFirst();
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        for (int i = 0; i < newestFirst.files.length; i++) {
+            if (userComparator.compare(key.getUserKey(), newestFirst.smallestUserKeys[i]) < 0 ||
+                    userComparator.compare(key.getUserKey(), newestFirst.largestUserKeys[i]) > 0) {
+                continue;
+            }
 
-        readStats.clear();
-        for (FileMetaData fileMetaData : fileMetaDataList) {
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
-
-            if (iterator.hasNext()) {
-                // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
-                InternalKey internalKey = entry.getKey();
-                Preconditions.checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
-
-                // if this is a value key (not a delete) and the keys match, return the value
-                if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    }
-                    else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
-                    }
-                }
+            // the table checks its filter before opening the data block
+            FileMetaData fileMetaData = newestFirst.files[i];
+            LookupResult lookupResult = Level.lookup(tableCache.get(fileMetaData, key.getEncodedInternalKey(), options), key);
+            if (lookupResult != null) {
+                return lookupResult;
             }
 
             if (readStats.getSeekFile() == null) {
@@ -126,6 +115,88 @@ public class Level0 implements SeekingIterable<InternalKey, Slice>
         return null;
     }
 
+    /**
+     * 批量查找, 每个文件只打开一次
+     *
+     * @param keys 按用户 KEY 排序的查找 KEY
+     * @param results 查找结果, 与 keys 一一对应, 已有结果的 KEY 会被跳过
+     * @param options 读选项
+     */
+    public void multiGet(LookupKey[] keys, LookupResult[] results, ReadOptions options)
+    {
+        LevelFiles newestFirst = newestFirst();
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        for (int file = 0; file < newestFirst.files.length; file++) {
+            FileMetaData fileMetaData = newestFirst.files[file];
+            InternalTableIterator iterator = null;
+            for (int i = 0; i < keys.length; i++) {
+                if (results[i] != null) {
+                    continue;
+                }
+                LookupKey key = keys[i];
+                if (userComparator.compare(key.getUserKey(), newestFirst.smallestUserKeys[file]) < 0) {
+                    continue;
+                }
+                if (userComparator.compare(key.getUserKey(), newestFirst.largestUserKeys[file]) > 0) {
+                    // keys are sorted, the rest are past this file too
+                    break;
+                }
+                if (!tableCache.keyMayMatch(fileMetaData, key.getEncodedInternalKey())) {
+                    continue;
+                }
+
+                if (iterator == null) {
+                    iterator = tableCache.newIterator(fileMetaData, options);
+                }
+                results[i] = lookup(iterator, key);
+            }
+        }
+    }
+
+    /**
+     * 在已打开的表中查找 KEY
+     */
+    private static LookupResult lookup(InternalTableIterator iterator, LookupKey key)
+    {
+        // seek to the key
+        iterator.seek(key.getInternalKey());
+
+        if (iterator.hasNext()) {
+            // parse the key in the block
+            Entry<InternalKey, Slice> entry = iterator.next();
+            InternalKey internalKey = entry.getKey();
+            if (internalKey == null) {
+                throw new IllegalStateException("Corrupt key for " + key.getUserKey().toString(UTF_8));
+            }
+
+            // if this is a value key (not a delete) and the keys match, return the value
+            if (key.getUserKey().equals(internalKey.getUserKey())) {
+                if (internalKey.getValueType() == ValueType.DELETION) {
+                    return LookupResult.deleted(key);
+                }
+                else if (internalKey.getValueType() == VALUE) {
+                    return LookupResult.ok(key, entry.getValue());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 按新到旧排序的文件索引, 首次查找时构建
+     */
+    private LevelFiles newestFirst()
+    {
+        LevelFiles newestFirst = this.newestFirst;
+        if (newestFirst == null) {
+            List<FileMetaData> sorted = newArrayList(files);
+            Collections.sort(sorted, NEWEST_FIRST);
+            newestFirst = new LevelFiles(sorted);
+            this.newestFirst = newestFirst;
+        }
+        return newestFirst;
+    }
+
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey)
     {
         InternalKey smallestInternalKey = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, VALUE);
@@ -168,6 +239,7 @@ public class Level0 implements SeekingIterable<InternalKey, Slice>
     {
         // todo remove mutation
         files.add(fileMetaData);
+        newestFirst = null;
     }
 
     @Override
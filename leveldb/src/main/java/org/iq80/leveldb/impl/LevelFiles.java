@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 层级文件索引
+ * <p/>
+ * 将一个层级的文件及其边界 KEY 展开为平铺数组, 点查时直接二分或顺序扫描数组, 不产生任何分配。
+ * 版本发布后层级文件不再变化, 索引在首次查找时构建。
+ */
+final class LevelFiles
+{
+    final FileMetaData[] files;
+
+    /**
+     * 各文件最大的内部 KEY
+     */
+    final InternalKey[] largestKeys;
+
+    /**
+     * 各文件最小的用户 KEY
+     */
+    final Slice[] smallestUserKeys;
+
+    /**
+     * 各文件最大的用户 KEY
+     */
+    final Slice[] largestUserKeys;
+
+    LevelFiles(List<FileMetaData> files)
+    {
+        int size = files.size();
+        this.files = files.toArray(new FileMetaData[size]);
+        largestKeys = new InternalKey[size];
+        smallestUserKeys = new Slice[size];
+        largestUserKeys = new Slice[size];
+        for (int i = 0; i < size; i++) {
+            FileMetaData file = this.files[i];
+            largestKeys[i] = file.getLargest();
+            smallestUserKeys[i] = file.getSmallest().getUserKey();
+            largestUserKeys[i] = file.getLargest().getUserKey();
+        }
+    }
+
+    /**
+     * 二分查找最大 KEY 大于等于给定 KEY 的第一个文件
+     *
+     * @return 文件下标, 没有则返回文件数
+     */
+    int ceilingIndex(InternalKey key, Comparator<InternalKey> comparator)
+    {
+        int left = 0;
+        int right = largestKeys.length;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (comparator.compare(largestKeys[mid], key) < 0) {
+                left = mid + 1;
+            }
+            else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+}
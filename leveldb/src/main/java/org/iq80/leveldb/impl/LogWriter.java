@@ -22,4 +22,10 @@ public interface LogWriter
     // Writes a stream of chunks such that no chunk is split across a block boundary
     void addRecord(Slice record, boolean force)
             throws IOException;
+
+    /**
+     * 把已写入的记录刷到磁盘, 日志已关闭时直接返回, 关闭时已经刷过盘
+     */
+    void sync()
+            throws IOException;
 }
@@ -22,6 +22,7 @@ import org.iq80.leveldb.util.Slice;
 public class LookupKey
 {
     private final InternalKey key;
+    private Slice encodedKey;
 
     public LookupKey(Slice userKey, long sequenceNumber)
     {
@@ -33,6 +34,17 @@ public class LookupKey
         return key;
     }
 
+    /**
+     * 返回编码后的内部 KEY, 首次调用时编码
+     */
+    public Slice getEncodedInternalKey()
+    {
+        if (encodedKey == null) {
+            encodedKey = key.encode();
+        }
+        return encodedKey;
+    }
+
     public Slice getUserKey()
     {
         return key.getUserKey();
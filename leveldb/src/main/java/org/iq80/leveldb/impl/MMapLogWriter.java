@@ -77,6 +77,8 @@ public class MMapLogWriter implements LogWriter
 
         if (fileChannel.isOpen()) {
             fileChannel.truncate(fileOffset);
+            // force the log to disk, asynchronous writes rely on close making it durable
+            fileChannel.force(true);
         }
 
         // close the channel
@@ -185,6 +187,16 @@ public class MMapLogWriter implements LogWriter
         }
     }
 
+    public synchronized void sync()
+            throws IOException
+    {
+        if (!closed.get()) {
+            mappedByteBuffer.force();
+            // earlier regions were unmapped without being forced
+            fileChannel.force(false);
+        }
+    }
+
     private void writeChunk(LogChunkType type, Slice slice)
             throws IOException
     {
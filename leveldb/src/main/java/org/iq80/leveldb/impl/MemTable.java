@@ -17,123 +17,31 @@
  */
 package org.iq80.leveldb.impl;
 
-import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Slice;
 
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicLong;
-
-import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
-
-public class MemTable implements SeekingIterable<InternalKey, Slice>
+/**
+ * 内存表, 按内部 KEY 排序保存最近的写入。
+ * 实现必须支持多个线程同时插入, 以及与插入并发的无锁读取。
+ */
+public abstract class MemTable implements SeekingIterable<InternalKey, Slice>
 {
-    private final ConcurrentSkipListMap<InternalKey, Slice> table;
-    private final AtomicLong approximateMemoryUsage = new AtomicLong();
-
-    public MemTable(InternalKeyComparator internalKeyComparator)
-    {
-        table = new ConcurrentSkipListMap<InternalKey, Slice>(internalKeyComparator);
-    }
-
-    public boolean isEmpty()
-    {
-        return table.isEmpty();
-    }
-
-    public long approximateMemoryUsage()
-    {
-        return approximateMemoryUsage.get();
-    }
-
-    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
-    {
-        Preconditions.checkNotNull(valueType, "valueType is null");
-        Preconditions.checkNotNull(key, "key is null");
-        Preconditions.checkNotNull(valueType, "valueType is null");
-
-        InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
-        table.put(internalKey, value);
-
-        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
-    }
+    public abstract boolean isEmpty();
 
-    public LookupResult get(LookupKey key)
-    {
-        Preconditions.checkNotNull(key, "key is null");
+    /**
+     * 内存表占用的内存, 用于判断是否需要切换内存表
+     */
+    public abstract long approximateMemoryUsage();
 
-        InternalKey internalKey = key.getInternalKey();
-        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
-            return null;
-        }
+    public abstract void add(long sequenceNumber, ValueType valueType, Slice key, Slice value);
 
-        InternalKey entryKey = entry.getKey();
-        if (entryKey.getUserKey().equals(key.getUserKey())) {
-            if (entryKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
-            } else {
-                return LookupResult.ok(key, entry.getValue());
-            }
-        }
-        return null;
-    }
+    /**
+     * 查找用户 KEY 在给定序列号下的最新记录
+     *
+     * @return 查找结果, 内存表中没有该 KEY 时返回 null
+     */
+    public abstract LookupResult get(LookupKey key);
 
     @Override
-    public MemTableIterator iterator()
-    {
-        return new MemTableIterator();
-    }
-
-    public class MemTableIterator implements InternalIterator
-    {
-
-        private PeekingIterator<Entry<InternalKey, Slice>> iterator;
-
-        public MemTableIterator()
-        {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
-        }
-
-        @Override
-        public boolean hasNext()
-        {
-            return iterator.hasNext();
-        }
-
-        @Override
-        public void seekToFirst()
-        {
-            iterator = Iterators.peekingIterator(table.entrySet().iterator());
-        }
-
-        @Override
-        public void seek(InternalKey targetKey)
-        {
-            iterator = Iterators.peekingIterator(table.tailMap(targetKey).entrySet().iterator());
-        }
-
-        @Override
-        public InternalEntry peek()
-        {
-            Entry<InternalKey, Slice> entry = iterator.peek();
-            return new InternalEntry(entry.getKey(), entry.getValue());
-        }
-
-        @Override
-        public InternalEntry next()
-        {
-            Entry<InternalKey, Slice> entry = iterator.next();
-            return new InternalEntry(entry.getKey(), entry.getValue());
-        }
-
-        @Override
-        public void remove()
-        {
-            throw new UnsupportedOperationException();
-        }
-    }
+    public abstract InternalIterator iterator();
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.MemTableFactory;
+
+/**
+ * 内置的内存表工厂
+ */
+public final class MemTableFactories
+{
+    private static final MemTableFactory SKIP_LIST = new InternalMemTableFactory()
+    {
+        @Override
+        public String name()
+        {
+            return "skip-list";
+        }
+
+        @Override
+        public MemTable newMemTable(InternalKeyComparator internalKeyComparator, int writeBufferSize)
+        {
+            return new SkipListMemTable(internalKeyComparator);
+        }
+    };
+
+    private static final MemTableFactory ARENA = new InternalMemTableFactory()
+    {
+        @Override
+        public String name()
+        {
+            return "arena";
+        }
+
+        @Override
+        public MemTable newMemTable(InternalKeyComparator internalKeyComparator, int writeBufferSize)
+        {
+            return new ArenaMemTable(internalKeyComparator, writeBufferSize);
+        }
+    };
+
+    private static final MemTableFactory VECTOR = new InternalMemTableFactory()
+    {
+        @Override
+        public String name()
+        {
+            return "vector";
+        }
+
+        @Override
+        public MemTable newMemTable(InternalKeyComparator internalKeyComparator, int writeBufferSize)
+        {
+            return new VectorMemTable(internalKeyComparator);
+        }
+    };
+
+    private MemTableFactories()
+    {
+    }
+
+    /**
+     * 并发跳表, 默认的内存表
+     */
+    public static MemTableFactory skipList()
+    {
+        return SKIP_LIST;
+    }
+
+    /**
+     * 记录编码后存放在按块分配的大数组中的跳表, 不为每条记录创建对象
+     */
+    public static MemTableFactory arena()
+    {
+        return ARENA;
+    }
+
+    /**
+     * 只追加的数组, 写入不排序, 迭代 (例如刷盘) 时才整体排序一次, 适合批量导入。
+     * 点查需要扫描未排序的部分, 迭代器每次创建时都可能重新排序。
+     */
+    public static MemTableFactory vector()
+    {
+        return VECTOR;
+    }
+
+    /**
+     * 按用户 KEY 前缀哈希分桶, 桶内为有序链表, 点查只访问一个桶, 适合按前缀分区的 KEY。
+     * 全表迭代需要把所有记录排序。
+     *
+     * @param prefixLength 参与哈希的 KEY 前缀长度, 较短的 KEY 使用整个 KEY
+     * @param bucketCount 桶数量
+     */
+    public static MemTableFactory hashLinkList(final int prefixLength, final int bucketCount)
+    {
+        Preconditions.checkArgument(prefixLength > 0, "prefixLength must be positive");
+        Preconditions.checkArgument(bucketCount > 0, "bucketCount must be positive");
+        return new InternalMemTableFactory()
+        {
+            @Override
+            public String name()
+            {
+                return "hash-link-list";
+            }
+
+            @Override
+            public MemTable newMemTable(InternalKeyComparator internalKeyComparator, int writeBufferSize)
+            {
+                return new HashLinkListMemTable(internalKeyComparator, prefixLength, bucketCount);
+            }
+        };
+    }
+}
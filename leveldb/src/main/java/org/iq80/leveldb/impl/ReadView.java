@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读视图
+ * <p/>
+ * 不可变地绑定内存表、不可变内存表与当前版本。写线程持有 mutex 时发布新的视图,
+ * 读线程通过原子引用获取视图, 无需加锁。视图持有版本的一个引用,
+ * 视图引用计数归零时释放该版本。
+ */
+final class ReadView
+{
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final MemTable memTable;
+    private final List<MemTable> immutableMemTables;
+    private final Version version;
+
+    ReadView(MemTable memTable, List<MemTable> immutableMemTables, Version version)
+    {
+        this.memTable = memTable;
+        this.immutableMemTables = immutableMemTables;
+        this.version = version;
+        version.retain();
+    }
+
+    /**
+     * 尝试增加引用计数, 视图已被释放时返回 false
+     */
+    boolean tryRetain()
+    {
+        while (true) {
+            int current = references.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release()
+    {
+        int now = references.decrementAndGet();
+        assert now >= 0 : "ReadView was released after it was disposed.";
+        if (now == 0) {
+            version.release();
+        }
+    }
+
+    MemTable getMemTable()
+    {
+        return memTable;
+    }
+
+    /**
+     * @return 等待刷盘的不可变内存表, 由新到旧
+     */
+    List<MemTable> getImmutableMemTables()
+    {
+        return immutableMemTables;
+    }
+
+    Version getVersion()
+    {
+        return version;
+    }
+}
@@ -37,4 +37,24 @@ public interface SeekingIterator<K,V> extends PeekingIterator<Entry<K, V>>
      * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
      */
     void seek(K targetKey);
+
+    /**
+     * Repositions the iterator so it is at the end of this block; the next call to prev() returns the last element.
+     */
+    void seekToLast();
+
+    /**
+     * Returns true if there is an element before the current position.
+     */
+    boolean hasPrev();
+
+    /**
+     * Returns the element before the current position and moves the position back over it.
+     */
+    Entry<K, V> prev();
+
+    /**
+     * Returns the element before the current position without moving the position.
+     */
+    Entry<K, V> peekPrev();
 }
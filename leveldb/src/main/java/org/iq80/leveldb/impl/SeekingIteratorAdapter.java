@@ -5,6 +5,7 @@ import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 
+import java.nio.ByteBuffer;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -69,33 +70,28 @@ public class SeekingIteratorAdapter implements DBIterator
         return new DbEntry(entry.getKey(), entry.getValue());
     }
 
-    //
-    // todo Implement reverse iterator
-    //
-
-
     @Override
     public void seekToLast()
     {
-        throw new UnsupportedOperationException();
+        seekingIterator.seekToLast();
     }
 
     @Override
     public boolean hasPrev()
     {
-        throw new UnsupportedOperationException();
+        return seekingIterator.hasPrev();
     }
 
     @Override
     public DbEntry prev()
     {
-        throw new UnsupportedOperationException();
+        return adapt(seekingIterator.prev());
     }
 
     @Override
     public DbEntry peekPrev()
     {
-        throw new UnsupportedOperationException();
+        return adapt(seekingIterator.peekPrev());
     }
 
     public static class DbEntry implements Entry<byte[], byte[]>
@@ -133,6 +129,26 @@ public class SeekingIteratorAdapter implements DBIterator
             return value;
         }
 
+        /**
+         * Returns a read-only view of the key without copying.  The view shares
+         * the memory of the data block or memtable entry, which is never reused,
+         * so it stays valid after the iterator moves on or is closed; holding on
+         * to it keeps the whole block reachable.
+         */
+        public ByteBuffer getKeyBuffer()
+        {
+            return key.toReadOnlyByteBuffer();
+        }
+
+        /**
+         * Returns a read-only view of the value without copying, with the same
+         * lifetime rules as {@link #getKeyBuffer()}.
+         */
+        public ByteBuffer getValueBuffer()
+        {
+            return value.toReadOnlyByteBuffer();
+        }
+
         @Override
         public byte[] setValue(byte[] value)
         {
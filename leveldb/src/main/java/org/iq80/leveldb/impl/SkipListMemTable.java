@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import org.iq80.leveldb.util.AbstractSeekingIterator;
+import org.iq80.leveldb.util.InternalIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * 基于 {@link ConcurrentSkipListMap} 的内存表, 每条记录是一个 {@link InternalKey} 对象
+ */
+public class SkipListMemTable extends MemTable
+{
+    private final ConcurrentSkipListMap<InternalKey, Slice> table;
+    private final AtomicLong approximateMemoryUsage = new AtomicLong();
+
+    public SkipListMemTable(InternalKeyComparator internalKeyComparator)
+    {
+        table = new ConcurrentSkipListMap<InternalKey, Slice>(internalKeyComparator);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return table.isEmpty();
+    }
+
+    @Override
+    public long approximateMemoryUsage()
+    {
+        return approximateMemoryUsage.get();
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    {
+        Preconditions.checkNotNull(valueType, "valueType is null");
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(valueType, "valueType is null");
+
+        InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
+        table.put(internalKey, value);
+
+        approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
+    }
+
+    @Override
+    public LookupResult get(LookupKey key)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        InternalKey internalKey = key.getInternalKey();
+        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
+        if (entry == null) {
+            return null;
+        }
+
+        InternalKey entryKey = entry.getKey();
+        if (entryKey.getUserKey().equals(key.getUserKey())) {
+            if (entryKey.getValueType() == ValueType.DELETION) {
+                return LookupResult.deleted(key);
+            } else {
+                return LookupResult.ok(key, entry.getValue());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public InternalIterator iterator()
+    {
+        return new MemTableIterator();
+    }
+
+    private class MemTableIterator extends AbstractSeekingIterator<InternalKey, Slice> implements InternalIterator
+    {
+        /**
+         * 当前方向的跳表迭代器, 为 null 时在下次移动时按游标位置重建
+         */
+        private Iterator<Entry<InternalKey, Slice>> iterator;
+        private boolean reverse;
+
+        /**
+         * 游标紧邻的键, null 表示位于表头或表尾
+         */
+        private InternalKey position;
+
+        /**
+         * 游标是否位于 position 之后 (position 为 null 时表示位于表尾)
+         */
+        private boolean afterPosition;
+
+        public MemTableIterator()
+        {
+            iterator = table.entrySet().iterator();
+        }
+
+        @Override
+        protected void seekToFirstInternal()
+        {
+            position = null;
+            afterPosition = false;
+            reverse = false;
+            iterator = table.entrySet().iterator();
+        }
+
+        @Override
+        protected void seekInternal(InternalKey targetKey)
+        {
+            position = targetKey;
+            afterPosition = false;
+            reverse = false;
+            iterator = table.tailMap(targetKey).entrySet().iterator();
+        }
+
+        @Override
+        protected void seekToLastInternal()
+        {
+            position = null;
+            afterPosition = true;
+            reverse = true;
+            iterator = table.descendingMap().entrySet().iterator();
+        }
+
+        @Override
+        protected Entry<InternalKey, Slice> getNextElement()
+        {
+            if (reverse || iterator == null) {
+                reverse = false;
+                if (position == null) {
+                    iterator = afterPosition ? Iterators.<Entry<InternalKey, Slice>>emptyIterator() : table.entrySet().iterator();
+                }
+                else {
+                    iterator = table.tailMap(position, !afterPosition).entrySet().iterator();
+                }
+            }
+            if (!iterator.hasNext()) {
+                position = null;
+                afterPosition = true;
+                return null;
+            }
+            Entry<InternalKey, Slice> entry = iterator.next();
+            position = entry.getKey();
+            afterPosition = true;
+            return new InternalEntry(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        protected Entry<InternalKey, Slice> getPreviousElement()
+        {
+            if (!reverse || iterator == null) {
+                reverse = true;
+                if (position == null) {
+                    iterator = afterPosition ? table.descendingMap().entrySet().iterator() : Iterators.<Entry<InternalKey, Slice>>emptyIterator();
+                }
+                else {
+                    iterator = table.headMap(position, afterPosition).descendingMap().entrySet().iterator();
+                }
+            }
+            if (!iterator.hasNext()) {
+                position = null;
+                afterPosition = false;
+                return null;
+            }
+            Entry<InternalKey, Slice> entry = iterator.next();
+            position = entry.getKey();
+            afterPosition = false;
+            return new InternalEntry(entry.getKey(), entry.getValue());
+        }
+    }
+}
@@ -57,9 +57,17 @@ public final class SnapshotSeekingIterator extends AbstractSeekingIterator<Slice
         findNextUserEntry(null);
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        iterator.seekToLast();
+    }
+
     @Override
     protected Entry<Slice, Slice> getNextElement()
     {
+        // after a backward step the position is at the start of a user key, skip any hidden entries
+        findNextUserEntry(null);
         if (!iterator.hasNext()) {
             return null;
         }
@@ -72,6 +80,36 @@ public final class SnapshotSeekingIterator extends AbstractSeekingIterator<Slice
         return Maps.immutableEntry(next.getKey().getUserKey(), next.getValue());
     }
 
+    @Override
+    protected Entry<Slice, Slice> getPreviousElement()
+    {
+        // walking backwards the entries of a user key come oldest first, so the last
+        // visible entry seen before the user key changes is the one the snapshot sees
+        Slice userKey = null;
+        Entry<InternalKey, Slice> visible = null;
+        while (iterator.hasPrev()) {
+            InternalKey internalKey = iterator.peekPrev().getKey();
+            if (userKey != null && userComparator.compare(internalKey.getUserKey(), userKey) != 0) {
+                if (visible != null && visible.getKey().getValueType() == ValueType.VALUE) {
+                    break;
+                }
+                // the previous user key was deleted or is not visible in this snapshot
+                visible = null;
+            }
+            userKey = internalKey.getUserKey();
+
+            Entry<InternalKey, Slice> entry = iterator.prev();
+            if (internalKey.getSequenceNumber() <= snapshot.getLastSequence()) {
+                visible = entry;
+            }
+        }
+
+        if (visible == null || visible.getKey().getValueType() != ValueType.VALUE) {
+            return null;
+        }
+        return Maps.immutableEntry(visible.getKey().getUserKey(), visible.getValue());
+    }
+
     private void findNextUserEntry(Slice deletedKey)
     {
         // if there are no more entries, we are done
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.AbstractSeekingIterator;
+import org.iq80.leveldb.util.InternalIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+/**
+ * 已按内部 KEY 排好序的实体数组上的迭代器, 游标位于两个元素之间
+ */
+final class SortedEntryIterator extends AbstractSeekingIterator<InternalKey, Slice> implements InternalIterator
+{
+    private final InternalEntry[] entries;
+    private final InternalKeyComparator comparator;
+    private int index;
+
+    SortedEntryIterator(InternalEntry[] entries, InternalKeyComparator comparator)
+    {
+        this.entries = entries;
+        this.comparator = comparator;
+    }
+
+    @Override
+    protected void seekToFirstInternal()
+    {
+        index = 0;
+    }
+
+    @Override
+    protected void seekInternal(InternalKey targetKey)
+    {
+        index = ceiling(entries, entries.length, targetKey, comparator);
+    }
+
+    @Override
+    protected void seekToLastInternal()
+    {
+        index = entries.length;
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getNextElement()
+    {
+        return index < entries.length ? entries[index++] : null;
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPreviousElement()
+    {
+        return index > 0 ? entries[--index] : null;
+    }
+
+    /**
+     * 二分查找第一个大于等于给定 KEY 的实体
+     *
+     * @return 实体下标, 没有则返回 length
+     */
+    static int ceiling(InternalEntry[] entries, int length, InternalKey key, InternalKeyComparator comparator)
+    {
+        int left = 0;
+        int right = length;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (comparator.compare(entries[mid].getKey(), key) < 0) {
+                left = mid + 1;
+            }
+            else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * 按内部 KEY 排序实体的比较器
+     */
+    static Comparator<InternalEntry> entryComparator(final InternalKeyComparator comparator)
+    {
+        return new Comparator<InternalEntry>()
+        {
+            @Override
+            public int compare(InternalEntry left, InternalEntry right)
+            {
+                return comparator.compare(left.getKey(), right.getKey());
+            }
+        };
+    }
+}
@@ -20,10 +20,14 @@ package org.iq80.leveldb.impl;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.*;
 import com.google.common.io.Closeables;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.table.BlockCache;
+import org.iq80.leveldb.table.BlockEntry;
 import org.iq80.leveldb.table.FileChannelTable;
 import org.iq80.leveldb.table.MMapTable;
 import org.iq80.leveldb.table.Table;
 import org.iq80.leveldb.table.UserComparator;
+import org.iq80.leveldb.table.UserFilterPolicy;
 import org.iq80.leveldb.util.Finalizer;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.Slice;
@@ -47,11 +51,22 @@ public class TableCache
      * 表析构处理器
      */
     private final Finalizer<Table> finalizer = new Finalizer<Table>(1);
+    /**
+     * 数据块缓存, 可以为 null
+     */
+    private final BlockCache blockCache;
 
     public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums)
+    {
+        this(databaseDir, tableCacheSize, userComparator, verifyChecksums, null, null);
+    }
+
+    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums, final BlockCache blockCache, final UserFilterPolicy filterPolicy)
     {
         Preconditions.checkNotNull(databaseDir, "databaseName is null");
 
+        this.blockCache = blockCache;
+
         cache = CacheBuilder.newBuilder()
                 .maximumSize(tableCacheSize)
                 .removalListener(new RemovalListener<Long, TableAndFile>() {
@@ -64,7 +79,7 @@ public class TableCache
                     public TableAndFile load(Long fileNumber)
                             throws IOException {
                         //根据文件号，创建表文件
-                        return new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums);
+                        return new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums, blockCache, filterPolicy);
                     }
                 });
     }
@@ -79,6 +94,10 @@ public class TableCache
         return newIterator(file.getNumber());
     }
 
+    public InternalTableIterator newIterator(FileMetaData file, ReadOptions options) {
+        return newIterator(file.getNumber(), options);
+    }
+
     /**
      * 给定文件号创建文件内部表遍历迭代器
      *
@@ -86,7 +105,41 @@ public class TableCache
      * @return 文件号对应 内部表遍历迭代器 {@code InternalTableIterator}
      */
     public InternalTableIterator newIterator(long number) {
-        return new InternalTableIterator(getTable(number).iterator());
+        return newIterator(number, new ReadOptions());
+    }
+
+    /**
+     * 给定文件号与读选项创建文件内部表遍历迭代器
+     *
+     * @param number 文件号
+     * @param options 读选项, 控制是否填充块缓存
+     * @return 文件号对应 内部表遍历迭代器 {@code InternalTableIterator}
+     */
+    public InternalTableIterator newIterator(long number, ReadOptions options) {
+        return new InternalTableIterator(getTable(number).iterator(options));
+    }
+
+    /**
+     * 根据表的过滤块判断内部 KEY 是否可能存在于文件中
+     *
+     * @param file 文件元信息
+     * @param internalKey 编码后的内部 KEY
+     * @return false 表示 KEY 一定不在文件中
+     */
+    public boolean keyMayMatch(FileMetaData file, Slice internalKey) {
+        return getTable(file.getNumber()).keyMayMatch(internalKey);
+    }
+
+    /**
+     * 在文件中点查内部 KEY, 不创建表迭代器
+     *
+     * @param file 文件元信息
+     * @param internalKey 编码后的内部 KEY
+     * @param options 读选项
+     * @return 第一个内部 KEY 大于等于目标的实体, 没有则返回 null
+     */
+    public BlockEntry get(FileMetaData file, Slice internalKey, ReadOptions options) {
+        return getTable(file.getNumber()).get(internalKey, options);
     }
 
     public long getApproximateOffsetOf(FileMetaData file, Slice key) {
@@ -120,6 +173,9 @@ public class TableCache
     public void close() {
         //无效所有缓存数据
         cache.invalidateAll();
+        if (blockCache != null) {
+            blockCache.invalidateAll();
+        }
         //销毁表析构器
         finalizer.destroy();
     }
@@ -143,7 +199,7 @@ public class TableCache
         private final Table table;
         private final FileChannel fileChannel;
 
-        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums)
+        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums, BlockCache blockCache, UserFilterPolicy filterPolicy)
                 throws IOException
         {
             String tableFileName = Filename.tableFileName(fileNumber);
@@ -152,9 +208,9 @@ public class TableCache
             try {
                 //使用内存映射文件
                 if( Iq80DBFactory.USE_MMAP ) {
-                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new MMapTable(tableFile.getAbsolutePath(), fileNumber, fileChannel, userComparator, verifyChecksums, blockCache, filterPolicy);
                 } else {
-                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileNumber, fileChannel, userComparator, verifyChecksums, blockCache, filterPolicy);
                 }
             }
             catch (IOException e) {
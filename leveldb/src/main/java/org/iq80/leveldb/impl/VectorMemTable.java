@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Preconditions;
+import org.iq80.leveldb.util.InternalIterator;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * 只追加的数组内存表
+ * <p/>
+ * 写入只是追加到数组末尾, 不维护顺序; 创建迭代器 (例如刷盘) 时把新写入的记录
+ * 与已排序的部分一起排序一次。点查对已排序的部分二分, 对之后追加的部分顺序扫描。
+ * 适合以写入为主的批量导入。
+ */
+public class VectorMemTable extends MemTable
+{
+    private static final InternalEntry[] EMPTY = new InternalEntry[0];
+
+    private final InternalKeyComparator internalKeyComparator;
+    private final Comparator<InternalEntry> entryComparator;
+
+    /**
+     * 按写入顺序追加的记录, 只在持有对象锁时访问
+     */
+    private InternalEntry[] entries = new InternalEntry[1024];
+    private int size;
+    private long approximateMemoryUsage;
+
+    /**
+     * 最近一次排序的结果, 包含 entries 的前 sorted.length 条记录, 排序后不再修改
+     */
+    private InternalEntry[] sorted = EMPTY;
+
+    public VectorMemTable(InternalKeyComparator internalKeyComparator)
+    {
+        Preconditions.checkNotNull(internalKeyComparator, "internalKeyComparator is null");
+        this.internalKeyComparator = internalKeyComparator;
+        this.entryComparator = SortedEntryIterator.entryComparator(internalKeyComparator);
+    }
+
+    @Override
+    public synchronized boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @Override
+    public synchronized long approximateMemoryUsage()
+    {
+        return approximateMemoryUsage;
+    }
+
+    @Override
+    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+    {
+        Preconditions.checkNotNull(valueType, "valueType is null");
+        Preconditions.checkNotNull(key, "key is null");
+        Preconditions.checkNotNull(value, "value is null");
+
+        InternalEntry entry = new InternalEntry(new InternalKey(key, sequenceNumber, valueType), value);
+        synchronized (this) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+            approximateMemoryUsage += key.length() + SIZE_OF_LONG + value.length();
+        }
+    }
+
+    @Override
+    public synchronized LookupResult get(LookupKey key)
+    {
+        Preconditions.checkNotNull(key, "key is null");
+
+        InternalKey internalKey = key.getInternalKey();
+        InternalKey newest = null;
+        Slice newestValue = null;
+
+        // the sorted part holds the newest visible version first
+        int index = SortedEntryIterator.ceiling(sorted, sorted.length, internalKey, internalKeyComparator);
+        if (index < sorted.length && sorted[index].getKey().getUserKey().equals(key.getUserKey())) {
+            newest = sorted[index].getKey();
+            newestValue = sorted[index].getValue();
+        }
+
+        // scan what was appended since the last sort
+        for (int i = sorted.length; i < size; i++) {
+            InternalKey entryKey = entries[i].getKey();
+            if (entryKey.getSequenceNumber() <= internalKey.getSequenceNumber() &&
+                    entryKey.getUserKey().equals(key.getUserKey()) &&
+                    (newest == null || entryKey.getSequenceNumber() > newest.getSequenceNumber())) {
+                newest = entryKey;
+                newestValue = entries[i].getValue();
+            }
+        }
+
+        if (newest == null) {
+            return null;
+        }
+        if (newest.getValueType() == ValueType.DELETION) {
+            return LookupResult.deleted(key);
+        }
+        return LookupResult.ok(key, newestValue);
+    }
+
+    @Override
+    public InternalIterator iterator()
+    {
+        InternalEntry[] sorted;
+        synchronized (this) {
+            if (this.sorted.length != size) {
+                // sort everything once, later iterators reuse the result until more records are appended
+                InternalEntry[] copy = Arrays.copyOf(entries, size);
+                Arrays.sort(copy, entryComparator);
+                this.sorted = copy;
+            }
+            sorted = this.sorted;
+        }
+        return new SortedEntryIterator(sorted, internalKeyComparator);
+    }
+}
@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.util.*;
 
 import java.util.Collection;
@@ -39,16 +40,36 @@ import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 // todo this class should be immutable
 public class Version implements SeekingIterable<InternalKey, Slice>
 {
+    /**
+     * 每个线程复用一个读统计, 点查时不再分配
+     */
+    private static final ThreadLocal<ReadStats> READ_STATS = new ThreadLocal<ReadStats>() {
+        @Override
+        protected ReadStats initialValue()
+        {
+            return new ReadStats();
+        }
+    };
+
     private final AtomicInteger retained = new AtomicInteger(1);
     private final VersionSet versionSet;
     private final Level0 level0;
     private final List<Level> levels;
 
     // move these mutable fields somewhere else
-    private int compactionLevel;
-    private double compactionScore;
-    private FileMetaData fileToCompact;
-    private int fileToCompactLevel;
+    // volatile so readers can check for pending compactions without locking
+    private volatile int compactionLevel;
+    private volatile double compactionScore;
+    /**
+     * 每层的压缩分数, 下标为层号, 用于在最佳层被占用时选择其他层
+     */
+    private volatile double[] compactionScores = new double[0];
+    /**
+     * 估算的待压缩字节数, 用于延迟写入
+     */
+    private volatile long pendingCompactionBytes;
+    private volatile FileMetaData fileToCompact;
+    private volatile int fileToCompactLevel;
 
     public Version(VersionSet versionSet)
     {
@@ -104,26 +125,52 @@ public class Version implements SeekingIterable<InternalKey, Slice>
         return versionSet.getInternalKeyComparator();
     }
 
-    public synchronized int getCompactionLevel()
+    public int getCompactionLevel()
     {
         return compactionLevel;
     }
 
-    public synchronized void setCompactionLevel(int compactionLevel)
+    public void setCompactionLevel(int compactionLevel)
     {
         this.compactionLevel = compactionLevel;
     }
 
-    public synchronized double getCompactionScore()
+    public double getCompactionScore()
     {
         return compactionScore;
     }
 
-    public synchronized void setCompactionScore(double compactionScore)
+    public void setCompactionScore(double compactionScore)
     {
         this.compactionScore = compactionScore;
     }
 
+    public double getCompactionScore(int level)
+    {
+        double[] scores = compactionScores;
+        return level < scores.length ? scores[level] : 0;
+    }
+
+    public void setCompactionScores(double[] compactionScores)
+    {
+        this.compactionScores = compactionScores;
+    }
+
+    public long getPendingCompactionBytes()
+    {
+        return pendingCompactionBytes;
+    }
+
+    public void setPendingCompactionBytes(long pendingCompactionBytes)
+    {
+        this.pendingCompactionBytes = pendingCompactionBytes;
+    }
+
+    public boolean needsCompaction()
+    {
+        return compactionScore >= 1 || fileToCompact != null;
+    }
+
     @Override
     public MergingIterator iterator() {
         Builder<InternalIterator> builder = ImmutableList.builder();
@@ -133,44 +180,78 @@ public class Version implements SeekingIterable<InternalKey, Slice>
     }
 
     List<InternalTableIterator> getLevel0Files()
+    {
+        return getLevel0Files(new ReadOptions());
+    }
+
+    List<InternalTableIterator> getLevel0Files(ReadOptions options)
     {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : level0.getFiles()) {
-            builder.add(getTableCache().newIterator(file));
+            builder.add(getTableCache().newIterator(file, options));
         }
         return builder.build();
     }
 
     List<LevelIterator> getLevelIterators()
+    {
+        return getLevelIterators(new ReadOptions());
+    }
+
+    List<LevelIterator> getLevelIterators(ReadOptions options)
     {
         Builder<LevelIterator> builder = ImmutableList.builder();
         for (Level level : levels) {
             if (level.getFiles().size() > 0) {
-                builder.add(level.iterator());
+                builder.add(level.iterator(options));
             }
         }
         return builder.build();
     }
 
     public LookupResult get(LookupKey key)
+    {
+        return get(key, new ReadOptions());
+    }
+
+    public LookupResult get(LookupKey key, ReadOptions options)
     {
         // We can search level-by-level since entries never hop across
         // levels.  Therefore we are guaranteed that if we find data
         // in an smaller level, later levels are irrelevant.
-        ReadStats readStats = new ReadStats();
-        LookupResult lookupResult = level0.get(key, readStats);
+        ReadStats readStats = READ_STATS.get();
+        LookupResult lookupResult = level0.get(key, readStats, options);
         if (lookupResult == null) {
-            for (Level level : levels) {
-                lookupResult = level.get(key, readStats);
+            for (int i = 0; i < levels.size(); i++) {
+                lookupResult = levels.get(i).get(key, readStats, options);
                 if (lookupResult != null) {
                     break;
                 }
             }
         }
         updateStats(readStats.getSeekFileLevel(), readStats.getSeekFile());
+        // do not keep the file reachable from the thread
+        readStats.clear();
         return lookupResult;
     }
 
+    /**
+     * 批量查找, 逐层遍历一次
+     *
+     * @param keys 按用户 KEY 排序的查找 KEY
+     * @param results 查找结果, 与 keys 一一对应, 已有结果的 KEY 会被跳过
+     * @param options 读选项
+     */
+    public void multiGet(LookupKey[] keys, LookupResult[] results, ReadOptions options)
+    {
+        // Entries never hop across levels, so a key resolved in a smaller
+        // level is skipped by all later levels.
+        level0.multiGet(keys, results, options);
+        for (Level level : levels) {
+            level.multiGet(keys, results, options);
+        }
+    }
+
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey)
     {
         int level = 0;
@@ -183,6 +264,10 @@ public class Version implements SeekingIterable<InternalKey, Slice>
                 if (overlapInLevel(level + 1, smallestUserKey, largestUserKey)) {
                     break;
                 }
+                // a running compaction may be about to write this range into the next level
+                if (versionSet.isCompactingInto(level + 1, smallestUserKey, largestUserKey)) {
+                    break;
+                }
                 long sum = Compaction.totalFileSize(versionSet.getOverlappingInputs(level + 2, start, limit));
                 if (sum > MAX_GRAND_PARENT_OVERLAP_BYTES) {
                     break;
@@ -258,8 +343,10 @@ public class Version implements SeekingIterable<InternalKey, Slice>
 
         seekFile.decrementAllowedSeeks();
         if (seekFile.getAllowedSeeks() <= 0 && fileToCompact == null) {
-            fileToCompact = seekFile;
+            // racing readers may both pick a file, either choice is fine;
+            // publish the level before the file since readers test fileToCompact
             fileToCompactLevel = seekFileLevel;
+            fileToCompact = seekFile;
             return true;
         }
         return false;
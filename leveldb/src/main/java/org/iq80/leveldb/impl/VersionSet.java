@@ -20,12 +20,14 @@ package org.iq80.leveldb.impl;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.io.Files;
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Level0Iterator;
@@ -36,10 +38,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -48,6 +52,8 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Lists.newArrayListWithCapacity;
@@ -68,7 +74,8 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
     private final AtomicLong nextFileNumber = new AtomicLong(2);
     private long manifestFileNumber = 1;
     private Version current;
-    private long lastSequence;
+    // volatile so readers can take a snapshot without holding the db mutex
+    private volatile long lastSequence;
     private long logNumber;
     private long prevLogNumber;
 
@@ -78,8 +85,17 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
     private final InternalKeyComparator internalKeyComparator;
 
     private LogWriter descriptorLog;
+    /**
+     * 等待写入 MANIFEST 的版本变更, 队首为当前组长, 只在持有 mutex 时访问
+     */
+    private final Deque<ManifestWriter> manifestWriters = new ArrayDeque<ManifestWriter>();
     private final Map<Integer, InternalKey> compactPointers = Maps.newTreeMap();
 
+    /**
+     * 正在执行的压缩, 只在持有 mutex 时访问
+     */
+    private final List<Compaction> runningCompactions = newArrayList();
+
     public VersionSet(File databaseDir, TableCache tableCache, InternalKeyComparator internalKeyComparator)
             throws IOException
     {
@@ -197,15 +213,17 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
         // Level-0 files have to be merged together.  For other levels,
         // we will make a concatenating iterator per level.
         // TODO(opt): use concatenating iterator for level-0 if there is no overlap
+        // compaction reads every block once, keep them out of the block cache
+        ReadOptions options = new ReadOptions().fillCache(false);
         List<InternalIterator> list = newArrayList();
         for (int which = 0; which < 2; which++) {
           if (!c.getInputs()[which].isEmpty()) {
             if (c.getLevel() + which == 0) {
                 List<FileMetaData> files = c.getInputs()[which];
-                list.add(new Level0Iterator(tableCache, files, internalKeyComparator));
+                list.add(new Level0Iterator(tableCache, files, internalKeyComparator, options));
             } else {
               // Create concatenating iterator for the files from this level
-              list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator));
+              list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator, options));
             }
           }
         }
@@ -217,6 +235,11 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
         return current.get(key);
     }
 
+    public LookupResult get(LookupKey key, ReadOptions options)
+    {
+        return current.get(key, options);
+    }
+
     public boolean overlapInLevel(int level, Slice smallestUserKey, Slice largestUserKey)
     {
         return current.overlapInLevel(level, smallestUserKey, largestUserKey);
@@ -243,67 +266,148 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
         this.lastSequence = newLastSequence;
     }
 
-    public void logAndApply(VersionEdit edit)
+    /**
+     * 把 edit 写入 MANIFEST 并安装新版本。
+     * 同时到达的 edit 排队, 由队首的线程一起应用, 连续写入后只刷一次盘;
+     * 写盘期间释放 mutex, 其他线程可以继续排队。
+     *
+     * @param edit 版本变更
+     * @param mutex 数据库 mutex, 调用时必须持有
+     */
+    public void logAndApply(VersionEdit edit, ReentrantLock mutex)
             throws IOException
     {
-        if (edit.getLogNumber() != null) {
-            Preconditions.checkArgument(edit.getLogNumber() >= logNumber);
-            Preconditions.checkArgument(edit.getLogNumber() < nextFileNumber.get());
+        Preconditions.checkState(mutex.isHeldByCurrentThread());
+
+        ManifestWriter writer = new ManifestWriter(edit, mutex.newCondition());
+        manifestWriters.addLast(writer);
+        while (!writer.done && writer != manifestWriters.peekFirst()) {
+            writer.condition.awaitUninterruptibly();
         }
-        else {
-            edit.setLogNumber(logNumber);
+        if (writer.done) {
+            // an earlier writer applied our edit as part of its group
+            if (writer.failure != null) {
+                Throwables.propagateIfPossible(writer.failure, IOException.class);
+                throw Throwables.propagate(writer.failure);
+            }
+            return;
         }
 
-        if (edit.getPreviousLogNumber() == null) {
-            edit.setPreviousLogNumber(prevLogNumber);
+        List<ManifestWriter> group = newArrayList(manifestWriters);
+        Throwable failure = null;
+        try {
+            applyGroup(group, mutex);
+        }
+        catch (Throwable e) {
+            failure = e;
         }
 
-        edit.setNextFileNumber(nextFileNumber.get());
-        edit.setLastSequenceNumber(lastSequence);
+        for (ManifestWriter member : group) {
+            ManifestWriter first = manifestWriters.pollFirst();
+            Preconditions.checkState(first == member, "manifest writer queue out of order");
+            if (member != writer) {
+                member.failure = failure;
+                member.done = true;
+                member.condition.signal();
+            }
+        }
+        ManifestWriter next = manifestWriters.peekFirst();
+        if (next != null) {
+            next.condition.signal();
+        }
 
-        Version version = new Version(this);
+        if (failure != null) {
+            Throwables.propagateIfPossible(failure, IOException.class);
+            throw Throwables.propagate(failure);
+        }
+    }
+
+    private void applyGroup(List<ManifestWriter> group, ReentrantLock mutex)
+            throws IOException
+    {
+        // each edit builds on the ones queued before it
+        long logNumber = this.logNumber;
+        long prevLogNumber = this.prevLogNumber;
         Builder builder = new Builder(this, current);
-        builder.apply(edit);
-        builder.saveTo(version);
+        List<Slice> records = newArrayListWithCapacity(group.size());
+        for (ManifestWriter member : group) {
+            VersionEdit edit = member.edit;
+            if (edit.getLogNumber() != null) {
+                Preconditions.checkArgument(edit.getLogNumber() >= logNumber);
+                Preconditions.checkArgument(edit.getLogNumber() < nextFileNumber.get());
+            }
+            else {
+                edit.setLogNumber(logNumber);
+            }
+
+            if (edit.getPreviousLogNumber() == null) {
+                edit.setPreviousLogNumber(prevLogNumber);
+            }
+
+            edit.setNextFileNumber(nextFileNumber.get());
+            edit.setLastSequenceNumber(lastSequence);
 
+            builder.apply(edit);
+            records.add(edit.encode());
+            logNumber = edit.getLogNumber();
+            prevLogNumber = edit.getPreviousLogNumber();
+        }
+
+        Version version = new Version(this);
+        builder.saveTo(version);
         finalizeVersion(version);
 
-        boolean createdNewManifest = false;
-        try {
-            // Initialize new descriptor log file if necessary by creating
-            // a temporary file that contains a snapshot of the current version.
-            if (descriptorLog == null) {
-                edit.setNextFileNumber(nextFileNumber.get());
-                descriptorLog = Logs.createLogWriter(new File(databaseDir, Filename.descriptorFileName(manifestFileNumber)), manifestFileNumber);
-                writeSnapshot(descriptorLog);
-                createdNewManifest = true;
+        if (descriptorLog == null) {
+            // a new manifest snapshots the current state, keep the mutex for this rare case
+            writeNewManifest(records);
+        }
+        else {
+            // Write the new records to the MANIFEST log with a single sync, other
+            // threads may queue more edits meanwhile
+            LogWriter log = descriptorLog;
+            mutex.unlock();
+            try {
+                for (int i = 0; i < records.size(); i++) {
+                    log.addRecord(records.get(i), i == records.size() - 1);
+                }
+            }
+            finally {
+                mutex.lock();
             }
+        }
 
-            // Write new record to MANIFEST log
-            Slice record = edit.encode();
-            descriptorLog.addRecord(record, true);
+        // Install the new version
+        appendVersion(version);
+        this.logNumber = logNumber;
+        this.prevLogNumber = prevLogNumber;
+    }
 
-            // If we just created a new descriptor file, install it by writing a
-            // new CURRENT file that points to it.
-            if (createdNewManifest) {
-                Filename.setCurrentFile(databaseDir, descriptorLog.getFileNumber());
+    private void writeNewManifest(List<Slice> records)
+            throws IOException
+    {
+        // Initialize new descriptor log file by creating a temporary
+        // file that contains a snapshot of the current version.
+        descriptorLog = Logs.createLogWriter(new File(databaseDir, Filename.descriptorFileName(manifestFileNumber)), manifestFileNumber);
+        try {
+            writeSnapshot(descriptorLog);
+
+            // Write new records to MANIFEST log
+            for (int i = 0; i < records.size(); i++) {
+                descriptorLog.addRecord(records.get(i), i == records.size() - 1);
             }
+
+            // We just created a new descriptor file, install it by writing a
+            // new CURRENT file that points to it.
+            Filename.setCurrentFile(databaseDir, descriptorLog.getFileNumber());
         }
         catch (IOException e) {
             // New manifest file was not installed, so clean up state and delete the file
-            if (createdNewManifest) {
-                descriptorLog.close();
-                // todo add delete method to LogWriter
-                new File(databaseDir, Filename.logFileName(descriptorLog.getFileNumber())).delete();
-                descriptorLog = null;
-            }
+            descriptorLog.close();
+            // todo add delete method to LogWriter
+            new File(databaseDir, Filename.logFileName(descriptorLog.getFileNumber())).delete();
+            descriptorLog = null;
             throw e;
         }
-
-        // Install the new version
-        appendVersion(version);
-        logNumber = edit.getLogNumber();
-        prevLogNumber = edit.getPreviousLogNumber();
     }
 
     private void writeSnapshot(LogWriter log)
@@ -406,6 +510,8 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
         // Precomputed best level for next compaction
         int bestLevel = -1;
         double bestScore = -1;
+        double[] scores = new double[version.numberOfLevels() - 1];
+        long pendingBytes = 0;
 
         for (int level = 0; level < version.numberOfLevels() - 1; level++) {
             double score;
@@ -422,6 +528,9 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
                 // setting, or very high compression ratios, or lots of
                 // overwrites/deletions).
                 score = 1.0 * version.numberOfFilesInLevel(level) / L0_COMPACTION_TRIGGER;
+                if (score >= 1) {
+                    pendingBytes += Compaction.totalFileSize(version.getFiles(level));
+                }
             }
             else {
                 // Compute the ratio of current size to size limit.
@@ -430,7 +539,10 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
                     levelBytes += fileMetaData.getFileSize();
                 }
                 score = 1.0 * levelBytes / maxBytesForLevel(level);
+                // bytes above the level limit still have to be pushed down
+                pendingBytes += Math.max(0, levelBytes - (long) maxBytesForLevel(level));
             }
+            scores[level] = score;
 
             if (score > bestScore) {
                 bestLevel = level;
@@ -440,6 +552,8 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
 
         version.setCompactionLevel(bestLevel);
         version.setCompactionScore(bestScore);
+        version.setCompactionScores(scores);
+        version.setPendingCompactionBytes(pendingBytes);
     }
 
     private static <V> V coalesce(V... values)
@@ -481,7 +595,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
 
     public boolean needsCompaction()
     {
-        return current.getCompactionScore() >= 1 || current.getFileToCompact() != null;
+        return current.needsCompaction();
     }
 
     public Compaction compactRange(int level, InternalKey begin, InternalKey end)
@@ -491,60 +605,226 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
             return null;
         }
 
-        return setupOtherInputs(level, levelInputs);
+        Compaction compaction = setupOtherInputs(level, levelInputs);
+        if (isConflicting(compaction)) {
+            return null;
+        }
+        return startCompaction(compaction);
     }
 
+    /**
+     * 选择一个压缩, 它的输入文件和输出范围不与正在执行的压缩冲突。
+     * 选中的压缩在 {@link #finishCompaction(Compaction)} 之前占有它的输入文件。
+     *
+     * @return 压缩, 没有需要或可以执行的压缩时返回 null
+     */
     public Compaction pickCompaction()
     {
         // We prefer compactions triggered by too much data in a level over
-        // the compactions triggered by seeks.
-        boolean sizeCompaction = (current.getCompactionScore() >= 1);
-        boolean seekCompaction = (current.getFileToCompact() != null);
-
-        int level;
-        List<FileMetaData> levelInputs;
-        if (sizeCompaction) {
-            level = current.getCompactionLevel();
-            Preconditions.checkState(level >= 0);
-            Preconditions.checkState(level + 1 < NUM_LEVELS);
-
-            // Pick the first file that comes after compact_pointer_[level]
-            levelInputs = newArrayList();
-            for (FileMetaData fileMetaData : current.getFiles(level)) {
-                if (!compactPointers.containsKey(level) ||
-                        internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
-                    levelInputs.add(fileMetaData);
-                    break;
-                }
+        // the compactions triggered by seeks.  Levels are tried from the
+        // highest score down so a level whose files are all being compacted
+        // does not hold up the others.
+        List<Integer> levels = newArrayList();
+        for (int level = 0; level + 1 < NUM_LEVELS; level++) {
+            if (current.getCompactionScore(level) >= 1) {
+                levels.add(level);
             }
-            if (levelInputs.isEmpty()) {
-                // Wrap-around to the beginning of the key space
-                levelInputs.add(current.getFiles(level).get(0));
+        }
+        Collections.sort(levels, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer left, Integer right)
+            {
+                return Double.compare(current.getCompactionScore(right), current.getCompactionScore(left));
+            }
+        });
+        for (int level : levels) {
+            Compaction compaction = pickSizeCompaction(level);
+            if (compaction != null) {
+                return startCompaction(compaction);
             }
         }
-        else if (seekCompaction) {
-            level = current.getFileToCompactLevel();
-            levelInputs = ImmutableList.of(current.getFileToCompact());
+
+        FileMetaData fileToCompact = current.getFileToCompact();
+        if (fileToCompact != null && !fileToCompact.isBeingCompacted()) {
+            int level = current.getFileToCompactLevel();
+            List<FileMetaData> levelInputs = ImmutableList.of(fileToCompact);
+            if (level == 0) {
+                levelInputs = expandLevel0Inputs(levelInputs);
+            }
+            Compaction compaction = setupOtherInputs(level, levelInputs);
+            if (!isConflicting(compaction)) {
+                return startCompaction(compaction);
+            }
         }
-        else {
+        return null;
+    }
+
+    private Compaction pickSizeCompaction(int level)
+    {
+        List<FileMetaData> files = current.getFiles(level);
+        if (files.isEmpty()) {
             return null;
         }
 
+        // Pick the first file that comes after compact_pointer_[level]
+        int first = 0;
+        InternalKey compactPointer = compactPointers.get(level);
+        if (compactPointer != null) {
+            while (first < files.size() && internalKeyComparator.compare(files.get(first).getLargest(), compactPointer) <= 0) {
+                first++;
+            }
+        }
+
+        // Files in level 0 may overlap each other and all of them end up in
+        // a single compaction, so only one candidate is tried there.
+        int candidates = level == 0 ? 1 : files.size();
+        for (int i = 0; i < candidates; i++) {
+            // Wrap-around to the beginning of the key space
+            FileMetaData file = files.get((first + i) % files.size());
+            if (file.isBeingCompacted()) {
+                continue;
+            }
+            List<FileMetaData> levelInputs = ImmutableList.of(file);
+            if (level == 0) {
+                levelInputs = expandLevel0Inputs(levelInputs);
+            }
+            Compaction compaction = setupOtherInputs(level, levelInputs);
+            if (!isConflicting(compaction)) {
+                return compaction;
+            }
+        }
+        return null;
+    }
+
+    private List<FileMetaData> expandLevel0Inputs(List<FileMetaData> levelInputs)
+    {
         // Files in level 0 may overlap each other, so pick up all overlapping ones
-        if (level == 0) {
-            Entry<InternalKey, InternalKey> range = getRange(levelInputs);
-            // Note that the next call will discard the file we placed in
-            // c->inputs_[0] earlier and replace it with an overlapping set
-            // which will include the picked file.
-            levelInputs = getOverlappingInputs(0, range.getKey(), range.getValue());
+        Entry<InternalKey, InternalKey> range = getRange(levelInputs);
+        // Note that the next call will discard the file we placed in
+        // c->inputs_[0] earlier and replace it with an overlapping set
+        // which will include the picked file.
+        levelInputs = getOverlappingInputs(0, range.getKey(), range.getValue());
 
-            Preconditions.checkState(!levelInputs.isEmpty());
+        Preconditions.checkState(!levelInputs.isEmpty());
+        return levelInputs;
+    }
+
+    /**
+     * 压缩是否与正在执行的压缩冲突: 共享输入文件, 同时压缩 level 0,
+     * 或者向同一层输出重叠的 KEY 范围
+     */
+    private boolean isConflicting(Compaction compaction)
+    {
+        if (isAnyBeingCompacted(compaction.getLevelInputs()) || isAnyBeingCompacted(compaction.getLevelUpInputs())) {
+            return true;
         }
 
-        Compaction compaction = setupOtherInputs(level, levelInputs);
+        Entry<InternalKey, InternalKey> range = getRange(compaction.getLevelInputs(), compaction.getLevelUpInputs());
+        for (Compaction running : runningCompactions) {
+            if (compaction.getLevel() == 0 && running.getLevel() == 0) {
+                return true;
+            }
+            if (running.getLevel() == compaction.getLevel()) {
+                Entry<InternalKey, InternalKey> runningRange = getRange(running.getLevelInputs(), running.getLevelUpInputs());
+                if (userRangesOverlap(range.getKey().getUserKey(), range.getValue().getUserKey(),
+                        runningRange.getKey().getUserKey(), runningRange.getValue().getUserKey())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 是否有正在执行的压缩向给定层输出与 KEY 范围重叠的文件
+     */
+    boolean isCompactingInto(int level, Slice smallestUserKey, Slice largestUserKey)
+    {
+        for (Compaction running : runningCompactions) {
+            if (running.getLevel() + 1 == level) {
+                Entry<InternalKey, InternalKey> range = getRange(running.getLevelInputs(), running.getLevelUpInputs());
+                if (userRangesOverlap(smallestUserKey, largestUserKey, range.getKey().getUserKey(), range.getValue().getUserKey())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean userRangesOverlap(Slice smallest, Slice largest, Slice otherSmallest, Slice otherLargest)
+    {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        return userComparator.compare(smallest, otherLargest) <= 0 && userComparator.compare(otherSmallest, largest) <= 0;
+    }
+
+    private static boolean isAnyBeingCompacted(List<FileMetaData> files)
+    {
+        for (FileMetaData file : files) {
+            if (file.isBeingCompacted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Compaction startCompaction(Compaction compaction)
+    {
+        // Update the place where we will do the next compaction for this level.
+        // We update this immediately instead of waiting for the VersionEdit
+        // to be applied so that if the compaction fails, we will try a different
+        // key range next time.
+        InternalKey largest = getRange(compaction.getLevelInputs()).getValue();
+        compactPointers.put(compaction.getLevel(), largest);
+        compaction.getEdit().setCompactPointer(compaction.getLevel(), largest);
+
+        for (FileMetaData file : compaction.getLevelInputs()) {
+            file.setBeingCompacted(true);
+        }
+        for (FileMetaData file : compaction.getLevelUpInputs()) {
+            file.setBeingCompacted(true);
+        }
+        runningCompactions.add(compaction);
         return compaction;
     }
 
+    /**
+     * 压缩完成或失败后释放它的输入文件
+     */
+    public void finishCompaction(Compaction compaction)
+    {
+        if (!runningCompactions.remove(compaction)) {
+            return;
+        }
+        for (FileMetaData file : compaction.getLevelInputs()) {
+            file.setBeingCompacted(false);
+        }
+        for (FileMetaData file : compaction.getLevelUpInputs()) {
+            file.setBeingCompacted(false);
+        }
+    }
+
+    public int numberOfRunningCompactions()
+    {
+        return runningCompactions.size();
+    }
+
+    /**
+     * 当前的 MANIFEST 日志, 还没有写过 edit 时为 null
+     */
+    LogWriter getDescriptorLog()
+    {
+        return descriptorLog;
+    }
+
+    /**
+     * 测试用: 替换 MANIFEST 日志, 以便拦截组提交的写盘
+     */
+    void setDescriptorLog(LogWriter descriptorLog)
+    {
+        this.descriptorLog = descriptorLog;
+    }
+
     private Compaction setupOtherInputs(int level, List<FileMetaData> levelInputs)
     {
         Entry<InternalKey, InternalKey> range = getRange(levelInputs);
@@ -564,7 +844,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
 
             List<FileMetaData> expanded0 = getOverlappingInputs(level, allStart, allLimit);
 
-            if (expanded0.size() > levelInputs.size()) {
+            if (expanded0.size() > levelInputs.size() && !isAnyBeingCompacted(expanded0)) {
                 range = getRange(expanded0);
                 InternalKey newStart = range.getKey();
                 InternalKey newLimit = range.getValue();
@@ -605,16 +885,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
 //                    EscapeString(largest.Encode()).c_str());
 //        }
 
-        Compaction compaction = new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
-
-        // Update the place where we will do the next compaction for this level.
-        // We update this immediately instead of waiting for the VersionEdit
-        // to be applied so that if the compaction fails, we will try a different
-        // key range next time.
-        compactPointers.put(level, largest);
-        compaction.getEdit().setCompactPointer(level, largest);
-
-        return compaction;
+        return new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
     }
 
     List<FileMetaData> getOverlappingInputs(int level, InternalKey begin, InternalKey end)
@@ -674,6 +945,27 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice>
         return result;
     }
 
+    /**
+     * 等待写入 MANIFEST 的版本变更
+     */
+    private static final class ManifestWriter
+    {
+        private final VersionEdit edit;
+        private final Condition condition;
+
+        /**
+         * 由组长写入完成后设置, 只在持有 mutex 时访问
+         */
+        private boolean done;
+        private Throwable failure;
+
+        private ManifestWriter(VersionEdit edit, Condition condition)
+        {
+            this.edit = edit;
+            this.condition = condition;
+        }
+    }
+
     /**
      * A helper class so we can efficiently apply a whole sequence
      * of edits to a particular state without creating intermediate
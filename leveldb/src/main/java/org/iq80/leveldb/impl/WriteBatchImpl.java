@@ -18,33 +18,89 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
 import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.util.DynamicSliceOutput;
 import org.iq80.leveldb.util.Slice;
-import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.SliceInput;
+import org.iq80.leveldb.util.VariableLengthQuantity;
 
-import java.util.List;
-import java.util.Map.Entry;
-
-import static com.google.common.collect.Lists.newArrayList;
+import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+import static org.iq80.leveldb.util.Slices.readLengthPrefixedBytes;
+import static org.iq80.leveldb.util.Slices.writeLengthPrefixedBytes;
 
 /**
  * 批量写入实现
+ * 批量直接以日志记录的格式保存在一块可增长的缓冲区中, 写日志时不需要再序列化,
+ * 遍历时在缓冲区上原地解码
+ * <pre>
+ *  sequence   8byte
+ *  count      4byte
+ *  entries:
+ *    value type 1byte
+ *    key length VLQ int encode
+ *    key data
+ *    value length VLQ int encode (只有 VALUE)
+ *    value data (只有 VALUE)
+ * </pre>
  */
 public class WriteBatchImpl implements WriteBatch
 {
     /**
-     * 批量写入实体
+     * 记录头大小, 序列号和操作数
      */
-    private List<Entry<Slice, Slice>> batch = newArrayList();
+    public static final int HEADER_SIZE = SIZE_OF_LONG + SIZE_OF_INT;
+
     /**
-     *批量写入数据总大小
+     * 日志记录格式的批量数据
      */
-    private int approximateSize;
+    private final DynamicSliceOutput rep;
+    /**
+     * 批量中的操作数
+     */
+    private int count;
+
+    public WriteBatchImpl()
+    {
+        rep = new DynamicSliceOutput(HEADER_SIZE + 64);
+        rep.writeZero(HEADER_SIZE);
+    }
+
+    private WriteBatchImpl(Slice record, int count)
+    {
+        this.rep = new DynamicSliceOutput(record);
+        this.count = count;
+    }
 
+    /**
+     * 在日志记录上原地构造批量, 不复制数据
+     *
+     * @param record 日志记录
+     * @return 批量更新对象
+     * @throws IllegalArgumentException 记录不完整
+     */
+    public static WriteBatchImpl fromRecord(Slice record)
+    {
+        Preconditions.checkArgument(record.length() >= HEADER_SIZE, "log record too small");
+        return new WriteBatchImpl(record, record.getInt(SIZE_OF_LONG));
+    }
+
+    /**
+     * 记录的起始序列号, 只对日志中读出的批量有意义
+     */
+    public long getSequence()
+    {
+        return rep.slice().getLong(0);
+    }
+
+    /**
+     * 批量编码后的准确大小, 包括记录头
+     */
     public int getApproximateSize()
     {
-        return approximateSize;
+        return rep.size();
     }
 
     /**
@@ -53,7 +109,7 @@ public class WriteBatchImpl implements WriteBatch
      */
     public int size()
     {
-        return batch.size();
+        return count;
     }
 
     /**
@@ -67,8 +123,12 @@ public class WriteBatchImpl implements WriteBatch
     {
         Preconditions.checkNotNull(key, "key is null");
         Preconditions.checkNotNull(value, "value is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
-        approximateSize += 12 + key.length + value.length;
+        rep.writeByte(VALUE.getPersistentId());
+        VariableLengthQuantity.writeVariableLengthInt(key.length, rep);
+        rep.writeBytes(key);
+        VariableLengthQuantity.writeVariableLengthInt(value.length, rep);
+        rep.writeBytes(value);
+        count++;
         return this;
     }
 
@@ -82,8 +142,10 @@ public class WriteBatchImpl implements WriteBatch
     {
         Preconditions.checkNotNull(key, "key is null");
         Preconditions.checkNotNull(value, "value is null");
-        batch.add(Maps.immutableEntry(key, value));
-        approximateSize += 12 + key.length() + value.length();
+        rep.writeByte(VALUE.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        writeLengthPrefixedBytes(rep, value);
+        count++;
         return this;
     }
 
@@ -96,8 +158,10 @@ public class WriteBatchImpl implements WriteBatch
     public WriteBatchImpl delete(byte[] key)
     {
         Preconditions.checkNotNull(key, "key is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), (Slice) null));
-        approximateSize += 6 + key.length;
+        rep.writeByte(DELETION.getPersistentId());
+        VariableLengthQuantity.writeVariableLengthInt(key.length, rep);
+        rep.writeBytes(key);
+        count++;
         return this;
     }
 
@@ -109,28 +173,68 @@ public class WriteBatchImpl implements WriteBatch
     public WriteBatchImpl delete(Slice key)
     {
         Preconditions.checkNotNull(key, "key is null");
-        batch.add(Maps.immutableEntry(key, (Slice) null));
-        approximateSize += 6 + key.length();
+        rep.writeByte(DELETION.getPersistentId());
+        writeLengthPrefixedBytes(rep, key);
+        count++;
         return this;
     }
 
+    /**
+     * 追加另一个批量的全部操作, 用于合并组提交
+     * @param batch 被追加的批量
+     */
+    public void append(WriteBatchImpl batch)
+    {
+        rep.writeBytes(batch.rep.slice(), HEADER_SIZE, batch.rep.size() - HEADER_SIZE);
+        count += batch.count;
+    }
+
+    /**
+     * 写入记录头并返回日志记录, 记录与批量共用缓冲区
+     *
+     * @param sequenceBegin 起始序列号
+     * @return 日志记录
+     */
+    public Slice toRecord(long sequenceBegin)
+    {
+        Slice record = rep.slice();
+        record.setLong(0, sequenceBegin);
+        record.setInt(SIZE_OF_LONG, count);
+        return record;
+    }
+
     @Override
     public void close()
     {
     }
 
+    /**
+     * 按写入顺序遍历所有操作, KEY 和 VALUE 直接引用批量的缓冲区
+     *
+     * @throws IllegalStateException 记录中的操作类型或数量不正确
+     */
     public void forEach(Handler handler)
     {
-        for (Entry<Slice, Slice> entry : batch) {
-            Slice key = entry.getKey();
-            Slice value = entry.getValue();
-            if (value != null) {
+        SliceInput input = rep.slice().input();
+        input.setPosition(HEADER_SIZE);
+        int entries = 0;
+        while (input.isReadable()) {
+            entries++;
+            ValueType valueType = ValueType.getValueTypeByPersistentId(input.readByte());
+            if (valueType == VALUE) {
+                Slice key = readLengthPrefixedBytes(input);
+                Slice value = readLengthPrefixedBytes(input);
                 handler.put(key, value);
             }
-            else {
+            else if (valueType == DELETION) {
+                Slice key = readLengthPrefixedBytes(input);
                 handler.delete(key);
             }
+            else {
+                throw new IllegalStateException("Unexpected value type " + valueType);
+            }
         }
+        Preconditions.checkState(entries == count, "Expected %s entries in write batch but found %s entries", count, entries);
     }
 
     public static interface Handler
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+
+/**
+ * 写入限速控制器
+ * 根据 level-0 文件数, 待压缩字节数和实测的压缩吞吐计算延迟写入速率,
+ * 以令牌桶的方式平滑地拖慢写入者, 而不是在硬限制处突然停写
+ * 除统计外的方法都需要持有数据库 mutex 调用
+ */
+public class WriteController
+{
+    /**
+     * 尚未测得压缩吞吐时使用的延迟写入速率, 字节每秒
+     */
+    static final long DEFAULT_DELAYED_WRITE_RATE = 16 * 1048576;
+
+    /**
+     * 延迟写入速率的下限, 字节每秒
+     */
+    static final long MIN_DELAYED_WRITE_RATE = 16 * 1024;
+
+    /**
+     * 待压缩字节数超过该值时开始延迟写入
+     */
+    static final long SOFT_PENDING_COMPACTION_BYTES_LIMIT = 64 * 1048576;
+
+    /**
+     * 实测的压缩写出速率, 字节每秒, 0 表示尚未测得
+     */
+    private long compactionRate;
+
+    /**
+     * 令牌桶中下一次写入可以开始的时间
+     */
+    private long nextWriteNanos;
+
+    /**
+     * 当前延迟写入速率, 0 表示不限速
+     */
+    private volatile long delayedWriteRate;
+
+    /**
+     * 写入者累计被延迟和阻塞的时间
+     */
+    private final AtomicLong stallNanos = new AtomicLong();
+
+    /**
+     * 经过控制器计费的累计写入字节数
+     */
+    private final AtomicLong chargedBytes = new AtomicLong();
+
+    /**
+     * 计算一次写入需要等待的时间, 并从令牌桶中扣除本次写入的字节
+     *
+     * @param level0Files level-0 文件数
+     * @param pendingCompactionBytes 待压缩字节数
+     * @param bytes 本次写入的字节数
+     * @return 需要等待的纳秒数, 0 表示无需等待
+     */
+    public long getDelay(int level0Files, long pendingCompactionBytes, long bytes)
+    {
+        chargedBytes.addAndGet(bytes);
+        long rate = computeDelayedWriteRate(level0Files, pendingCompactionBytes);
+        long now = System.nanoTime();
+        if (rate == 0) {
+            delayedWriteRate = 0;
+            return 0;
+        }
+        if (delayedWriteRate == 0) {
+            // just started delaying, do not charge for writes done at full speed
+            nextWriteNanos = now;
+        }
+        delayedWriteRate = rate;
+
+        long start = Math.max(nextWriteNanos, now);
+        nextWriteNanos = start + (long) (SECONDS.toNanos(1) * (double) bytes / rate);
+        return start - now;
+    }
+
+    private long computeDelayedWriteRate(int level0Files, long pendingCompactionBytes)
+    {
+        boolean level0Slowdown = level0Files > L0_SLOWDOWN_WRITES_TRIGGER;
+        boolean pendingSlowdown = pendingCompactionBytes >= SOFT_PENDING_COMPACTION_BYTES_LIMIT;
+        if (!level0Slowdown && !pendingSlowdown) {
+            return 0;
+        }
+
+        // writers may go about as fast as compactions drain level 0
+        double rate = compactionRate > 0 ? compactionRate : DEFAULT_DELAYED_WRITE_RATE;
+        if (level0Slowdown) {
+            // slow down linearly as level 0 approaches the stop trigger
+            rate *= 1.0 * (L0_STOP_WRITES_TRIGGER - level0Files) / (L0_STOP_WRITES_TRIGGER - L0_SLOWDOWN_WRITES_TRIGGER);
+        }
+        if (pendingSlowdown) {
+            rate *= 1.0 * SOFT_PENDING_COMPACTION_BYTES_LIMIT / pendingCompactionBytes;
+        }
+        return Math.max((long) rate, MIN_DELAYED_WRITE_RATE);
+    }
+
+    /**
+     * 记录一次压缩的写出字节数和耗时, 用于估算压缩吞吐
+     */
+    public void recordCompaction(long bytes, long nanos)
+    {
+        if (bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        long rate = (long) (SECONDS.toNanos(1) * (double) bytes / nanos);
+        // smooth out single small or slow compactions
+        compactionRate = compactionRate == 0 ? rate : (3 * compactionRate + rate) / 4;
+    }
+
+    /**
+     * 记录写入者被延迟或阻塞的时间
+     */
+    public void recordStall(long nanos)
+    {
+        stallNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return 当前延迟写入速率, 字节每秒, 0 表示不限速
+     */
+    public long getDelayedWriteRate()
+    {
+        return delayedWriteRate;
+    }
+
+    /**
+     * @return 写入者累计被延迟和阻塞的纳秒数
+     */
+    public long getStallNanos()
+    {
+        return stallNanos.get();
+    }
+
+    /**
+     * @return 经过控制器计费的累计写入字节数, 无论当时是否限速
+     */
+    public long getChargedBytes()
+    {
+        return chargedBytes.get();
+    }
+}
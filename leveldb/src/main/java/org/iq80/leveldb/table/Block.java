@@ -20,8 +20,11 @@ package org.iq80.leveldb.table;
 import com.google.common.base.Preconditions;
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
+import org.iq80.leveldb.util.VariableLengthQuantity;
 import org.iq80.leveldb.util.Slices;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
@@ -111,4 +114,64 @@ public class Block implements SeekingIterable<Slice, Slice>
         return new BlockIterator(data, restartPositions, comparator);
     }
 
+    /**
+     * 点查, 返回第一个 KEY 大于等于目标 KEY 的实体, 不创建迭代器。
+     * 重启点的 KEY 没有共享前缀, 二分时直接在块数据上比较。
+     *
+     * @param targetKey 目标 KEY
+     * @return 实体, 块中所有 KEY 都小于目标 KEY 时返回 null
+     */
+    public BlockEntry seek(Slice targetKey)
+    {
+        int restartCount = restartPositions.length() / SIZE_OF_INT;
+        if (restartCount == 0) {
+            return null;
+        }
+
+        SliceInput input = data.input();
+
+        // binary search restart positions to find the restart position immediately before the targetKey
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+
+            input.setPosition(restartPositions.getInt(mid * SIZE_OF_INT));
+            int sharedKeyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            Preconditions.checkState(sharedKeyLength == 0, "Block is corrupt: restart entry has a shared key");
+            int keyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            VariableLengthQuantity.readVariableLengthInt(input);
+
+            if (comparator.compare(data.slice(input.position(), keyLength), targetKey) < 0) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        // linear search (within restart block) for first key greater than or equal to targetKey,
+        // rebuilding prefix compressed keys in a single buffer
+        input.setPosition(restartPositions.getInt(left * SIZE_OF_INT));
+        byte[] keyBuffer = new byte[32];
+        while (input.isReadable()) {
+            int sharedKeyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            int nonSharedKeyLength = VariableLengthQuantity.readVariableLengthInt(input);
+            int valueLength = VariableLengthQuantity.readVariableLengthInt(input);
+
+            int keyLength = sharedKeyLength + nonSharedKeyLength;
+            if (keyLength > keyBuffer.length) {
+                keyBuffer = Arrays.copyOf(keyBuffer, Math.max(keyLength, keyBuffer.length * 2));
+            }
+            input.readBytes(keyBuffer, sharedKeyLength, nonSharedKeyLength);
+
+            Slice key = new Slice(keyBuffer, 0, keyLength);
+            if (comparator.compare(key, targetKey) >= 0) {
+                return new BlockEntry(key, input.readSlice(valueLength));
+            }
+            input.skipBytes(valueLength);
+        }
+        return null;
+    }
+
 }
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.primitives.Ints;
+
+/**
+ * 数据块缓存
+ * <p/>
+ * 缓存解压后的数据块, 键为 (文件号, 块偏移)。容量按块字节数计算,
+ * 内部分为多个独立加锁的 LRU 分段, 并发读取时互不阻塞。
+ * 表文件号不会重用, 已删除文件的块不再被访问, 由 LRU 自然淘汰。
+ */
+public class BlockCache
+{
+    /**
+     * 缓存分段数
+     */
+    private static final int SHARD_COUNT = 16;
+
+    private final Cache<BlockKey, Block> cache;
+
+    /**
+     * @param capacity 缓存容量 (字节)
+     */
+    public BlockCache(long capacity)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+
+        cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(SHARD_COUNT)
+                .maximumWeight(capacity)
+                .weigher(new Weigher<BlockKey, Block>()
+                {
+                    public int weigh(BlockKey key, Block block)
+                    {
+                        return Ints.saturatedCast(block.size());
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 查找缓存块
+     *
+     * @param fileNumber 表文件号
+     * @param blockOffset 块在文件中的偏移
+     * @return 缓存的数据块, 未命中返回 null
+     */
+    public Block get(long fileNumber, long blockOffset)
+    {
+        return cache.getIfPresent(new BlockKey(fileNumber, blockOffset));
+    }
+
+    /**
+     * 放入缓存块
+     */
+    public void put(long fileNumber, long blockOffset, Block block)
+    {
+        cache.put(new BlockKey(fileNumber, blockOffset), block);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll()
+    {
+        cache.invalidateAll();
+    }
+
+    public long size()
+    {
+        return cache.size();
+    }
+
+    private static final class BlockKey
+    {
+        private final long fileNumber;
+        private final long blockOffset;
+
+        private BlockKey(long fileNumber, long blockOffset)
+        {
+            this.fileNumber = fileNumber;
+            this.blockOffset = blockOffset;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            BlockKey blockKey = (BlockKey) o;
+            return fileNumber == blockKey.fileNumber && blockOffset == blockKey.blockOffset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = (int) (fileNumber ^ (fileNumber >>> 32));
+            result = 31 * result + (int) (blockOffset ^ (blockOffset >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return fileNumber + ":" + blockOffset;
+        }
+    }
+}
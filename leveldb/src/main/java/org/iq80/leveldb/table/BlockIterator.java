@@ -25,6 +25,7 @@ import org.iq80.leveldb.util.Slices;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 import org.iq80.leveldb.util.SliceOutput;
 
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.NoSuchElementException;
 
@@ -60,6 +61,23 @@ public class BlockIterator implements SeekingIterator<Slice, Slice>
      */
     private BlockEntry nextEntry;
 
+    /**
+     * 下个块实体在数据中的偏移, 没有下个实体时为数据长度
+     */
+    private int nextEntryOffset;
+
+    /**
+     * 数据长度
+     */
+    private final int dataLength;
+
+    /**
+     * 反向遍历时缓存的当前重启区间内已解码的实体及其偏移
+     */
+    private BlockEntry[] runEntries = new BlockEntry[16];
+    private int[] runOffsets = new int[17];
+    private int runPosition;
+
     public BlockIterator(Slice data, Slice restartPositions, Comparator<Slice> comparator)
     {
         Preconditions.checkNotNull(data, "data is null");
@@ -68,6 +86,7 @@ public class BlockIterator implements SeekingIterator<Slice, Slice>
         Preconditions.checkNotNull(comparator, "comparator is null");
 
         this.data = data.input();
+        this.dataLength = data.length();
 
         this.restartPositions = restartPositions.slice();
         restartCount = this.restartPositions.length() / SIZE_OF_INT;
@@ -113,6 +132,7 @@ public class BlockIterator implements SeekingIterator<Slice, Slice>
 
         BlockEntry entry = nextEntry;
 
+        nextEntryOffset = data.position();
         if (!data.isReadable()) {
             nextEntry = null;
         }
@@ -124,6 +144,56 @@ public class BlockIterator implements SeekingIterator<Slice, Slice>
         return entry;
     }
 
+    /**
+     * 是否还有上一个块实体
+     * @return true 有/ false 没有
+     */
+    @Override
+    public boolean hasPrev()
+    {
+        return nextEntryOffset > 0;
+    }
+
+    /**
+     * 获取上一个块实体，不改变块状态
+     * @return 上一个块实体
+     */
+    @Override
+    public BlockEntry peekPrev()
+    {
+        BlockEntry entry = prev();
+        // step forward again, the decoded run makes this cheap
+        next();
+        return entry;
+    }
+
+    /**
+     * 获取上一个块实体, 游标后退
+     * @return 上一个块实体
+     */
+    @Override
+    public BlockEntry prev()
+    {
+        if (!hasPrev()) {
+            throw new NoSuchElementException();
+        }
+
+        int index;
+        if (runPosition > 0 && runOffsets[runPosition] == nextEntryOffset) {
+            // the previous entry is still in the decoded run
+            index = runPosition - 1;
+        }
+        else {
+            index = decodeRun(nextEntryOffset) - 1;
+        }
+
+        runPosition = index;
+        nextEntry = runEntries[index];
+        nextEntryOffset = runOffsets[index];
+        data.setPosition(runOffsets[index + 1]);
+        return nextEntry;
+    }
+
     @Override
     public void remove()
     {
@@ -141,6 +211,17 @@ public class BlockIterator implements SeekingIterator<Slice, Slice>
         }
     }
 
+    /**
+     * Repositions the iterator so it is at the end of this block.
+     */
+    @Override
+    public void seekToLast()
+    {
+        data.setPosition(dataLength);
+        nextEntry = null;
+        nextEntryOffset = dataLength;
+    }
+
     /**
      * Repositions the iterator so the key of the next BlockElement returned greater than or equal to the specified targetKey.
      */
@@ -193,6 +274,7 @@ public class BlockIterator implements SeekingIterator<Slice, Slice>
         // seek data readIndex to the beginning of the restart block
         int offset = restartPositions.getInt(restartPosition * SIZE_OF_INT);
         data.setPosition(offset);
+        nextEntryOffset = offset;
 
         // clear the entries to assure key is not prefixed
         nextEntry = null;
@@ -201,6 +283,45 @@ public class BlockIterator implements SeekingIterator<Slice, Slice>
         nextEntry = readEntry(data, null);
     }
 
+    /**
+     * Decodes all entries of the restart block that precede the specified offset.
+     * <p/>
+     * After this method, runEntries and runOffsets hold the decoded entries and runOffsets[count] is the end offset.
+     *
+     * @return the number of decoded entries
+     */
+    private int decodeRun(int endOffset)
+    {
+        // binary search for the last restart position before the end offset
+        int left = 0;
+        int right = restartCount - 1;
+        while (left < right) {
+            int mid = (left + right + 1) / 2;
+            if (restartPositions.getInt(mid * SIZE_OF_INT) < endOffset) {
+                left = mid;
+            }
+            else {
+                right = mid - 1;
+            }
+        }
+
+        data.setPosition(restartPositions.getInt(left * SIZE_OF_INT));
+        int count = 0;
+        BlockEntry entry = null;
+        while (data.position() < endOffset) {
+            if (count == runEntries.length) {
+                runEntries = Arrays.copyOf(runEntries, count * 2);
+                runOffsets = Arrays.copyOf(runOffsets, count * 2 + 1);
+            }
+            runOffsets[count] = data.position();
+            entry = readEntry(data, entry);
+            runEntries[count] = entry;
+            count++;
+        }
+        runOffsets[count] = endOffset;
+        return count;
+    }
+
     /**
      * Reads the entry at the current data readIndex.
      * After this method, data readIndex is positioned at the beginning of the next entry
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 内置布隆过滤策略
+ * <p/>
+ * 使用示例: {@code options.filterPolicy(new BloomFilterPolicy(10))}
+ *
+ * @see BloomFilter
+ */
+public class BloomFilterPolicy
+        implements FilterPolicy
+{
+    private final BloomFilter bloomFilter;
+
+    /**
+     * @param bitsPerKey 每个 KEY 使用的位数, 10 是较好的取值
+     */
+    public BloomFilterPolicy(int bitsPerKey)
+    {
+        this.bloomFilter = new BloomFilter(bitsPerKey);
+    }
+
+    @Override
+    public String name()
+    {
+        return bloomFilter.name();
+    }
+
+    @Override
+    public byte[] createFilter(List<byte[]> keys)
+    {
+        List<Slice> slices = new ArrayList<Slice>(keys.size());
+        for (byte[] key : keys) {
+            slices.add(Slices.wrappedBuffer(key));
+        }
+        return bloomFilter.createFilter(slices).getBytes();
+    }
+
+    @Override
+    public boolean keyMayMatch(byte[] key, byte[] filter)
+    {
+        return bloomFilter.keyMayMatch(Slices.wrappedBuffer(key), Slices.wrappedBuffer(filter));
+    }
+
+    /**
+     * 返回基于 {@link Slice} 的实现, 避免读写表时复制 KEY
+     */
+    public UserFilterPolicy getUserFilterPolicy()
+    {
+        return bloomFilter;
+    }
+
+    @Override
+    public String toString()
+    {
+        return bloomFilter.toString();
+    }
+}
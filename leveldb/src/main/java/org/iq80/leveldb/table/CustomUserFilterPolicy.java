@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.FilterPolicy;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CustomUserFilterPolicy
+        implements UserFilterPolicy
+{
+    private final FilterPolicy filterPolicy;
+
+    public CustomUserFilterPolicy(FilterPolicy filterPolicy)
+    {
+        this.filterPolicy = filterPolicy;
+    }
+
+    @Override
+    public String name()
+    {
+        return filterPolicy.name();
+    }
+
+    @Override
+    public Slice createFilter(List<Slice> keys)
+    {
+        List<byte[]> keyBytes = new ArrayList<byte[]>(keys.size());
+        for (Slice key : keys) {
+            keyBytes.add(key.getBytes());
+        }
+        return new Slice(filterPolicy.createFilter(keyBytes));
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter)
+    {
+        return filterPolicy.keyMayMatch(key.getBytes(), filter.getBytes());
+    }
+}
@@ -37,6 +37,12 @@ public class FileChannelTable extends Table
         super(name, fileChannel, comparator, verifyChecksums);
     }
 
+    public FileChannelTable(String name, long fileNumber, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, UserFilterPolicy filterPolicy)
+            throws IOException
+    {
+        super(name, fileNumber, fileChannel, comparator, verifyChecksums, blockCache, filterPolicy);
+    }
+
     @Override
     protected Footer init() throws IOException {
         long size = fileChannel.size();
@@ -44,45 +50,32 @@ public class FileChannelTable extends Table
         return Footer.readFooter(Slices.copiedBuffer(footerData));
     }
 
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readBlockContents(BlockHandle blockHandle, boolean verifyChecksums)
             throws IOException
     {
-        // read block trailer
-        ByteBuffer trailerData = read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH);
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(trailerData));
+        // read the block and its trailer with a single read
+        int dataSize = blockHandle.getDataSize();
+        ByteBuffer blockData = read(blockHandle.getOffset(), dataSize + BlockTrailer.ENCODED_LENGTH);
+        Slice block = Slices.wrappedBuffer(blockData.array());
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(block.slice(dataSize, BlockTrailer.ENCODED_LENGTH));
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        // only verify check sums if explicitly asked by the user
+        if (verifyChecksums) {
+            // checksum data and the compression type in the trailer
+            verifyChecksum((ByteBuffer) blockData.duplicate().limit(dataSize + 1), blockTrailer);
+        }
 
         // decompress data
-
-        ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
         Slice uncompressedData;
         if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+            uncompressedData = uncompress((ByteBuffer) blockData.duplicate().limit(dataSize));
         }
         else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
+            // the buffer was freshly read for this block, so it can be used as is
+            uncompressedData = block.slice(0, dataSize);
         }
 
-        return new Block(uncompressedData, comparator);
+        return uncompressedData;
     }
 
     private ByteBuffer read(long offset, int length) throws IOException {
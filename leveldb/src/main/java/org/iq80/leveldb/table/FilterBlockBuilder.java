@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.IntVector;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 过滤块构建器
+ * <p/>
+ * 每 2KB 的数据块偏移生成一个过滤器, 块格式:
+ * <pre>
+ *  [filter 0] ... [filter N-1]
+ *  [offset of filter 0 : 4 bytes] ... [offset of filter N-1 : 4 bytes]
+ *  [offset of beginning of offset array : 4 bytes]
+ *  [lg(base) : 1 byte]
+ * </pre>
+ */
+public class FilterBlockBuilder
+{
+    // Generate new filter every 2KB of data
+    static final int FILTER_BASE_LG = 11;
+    static final int FILTER_BASE = 1 << FILTER_BASE_LG;
+
+    private final UserFilterPolicy policy;
+    private final List<Slice> keys = new ArrayList<Slice>();
+    private final DynamicSliceOutput result = new DynamicSliceOutput(1024);
+    private final IntVector filterOffsets = new IntVector(32);
+
+    public FilterBlockBuilder(UserFilterPolicy policy)
+    {
+        this.policy = policy;
+    }
+
+    /**
+     * 开始一个新的数据块
+     *
+     * @param blockOffset 数据块在文件中的偏移
+     */
+    public void startBlock(long blockOffset)
+    {
+        long filterIndex = blockOffset / FILTER_BASE;
+        while (filterIndex > filterOffsets.size()) {
+            generateFilter();
+        }
+    }
+
+    public void addKey(Slice key)
+    {
+        keys.add(key);
+    }
+
+    public Slice finish()
+    {
+        if (!keys.isEmpty()) {
+            generateFilter();
+        }
+
+        // Append array of per-filter offsets
+        int arrayOffset = result.size();
+        filterOffsets.write(result);
+
+        result.writeInt(arrayOffset);
+        // Save encoding parameter in result
+        result.writeByte(FILTER_BASE_LG);
+        return result.slice();
+    }
+
+    private void generateFilter()
+    {
+        filterOffsets.add(result.size());
+        if (keys.isEmpty()) {
+            // Fast path if there are no keys for this filter
+            return;
+        }
+
+        result.writeBytes(policy.createFilter(keys));
+        keys.clear();
+    }
+}
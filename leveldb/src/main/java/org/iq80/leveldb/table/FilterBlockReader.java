@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+
+/**
+ * 过滤块读取器
+ *
+ * @see FilterBlockBuilder
+ */
+public class FilterBlockReader
+{
+    private final UserFilterPolicy policy;
+    private final Slice data;
+    /**
+     * 过滤器偏移数组的起始位置
+     */
+    private final int offsetArrayStart;
+    /**
+     * 过滤器个数
+     */
+    private final int filterCount;
+    private final int baseLg;
+
+    public FilterBlockReader(UserFilterPolicy policy, Slice contents)
+    {
+        this.policy = policy;
+        this.data = contents;
+
+        int length = contents.length();
+        if (length < 5) {
+            // 1 byte for base_lg and 4 for start of offset array
+            offsetArrayStart = 0;
+            filterCount = 0;
+            baseLg = 0;
+            return;
+        }
+
+        baseLg = contents.getUnsignedByte(length - 1);
+        int lastWord = contents.getInt(length - 5);
+        if (lastWord < 0 || lastWord > length - 5) {
+            offsetArrayStart = 0;
+            filterCount = 0;
+            return;
+        }
+        offsetArrayStart = lastWord;
+        filterCount = (length - 5 - lastWord) / 4;
+    }
+
+    /**
+     * 判断 KEY 是否可能在给定偏移的数据块中
+     *
+     * @param blockOffset 数据块偏移
+     * @param key 数据 KEY
+     * @return false 表示 KEY 一定不存在
+     */
+    public boolean keyMayMatch(long blockOffset, Slice key)
+    {
+        long index = blockOffset >> baseLg;
+        if (index < filterCount) {
+            int start = data.getInt(offsetArrayStart + (int) index * 4);
+            int limit = data.getInt(offsetArrayStart + (int) index * 4 + 4);
+            if (start <= limit && limit <= offsetArrayStart) {
+                return policy.keyMayMatch(key, data.slice(start, limit - start));
+            }
+            else if (start == limit) {
+                // Empty filters do not match any keys
+                return false;
+            }
+        }
+        // Errors are treated as potential matches
+        return true;
+    }
+}
@@ -47,6 +47,12 @@ public class MMapTable extends Table
         super(name, fileChannel, comparator, verifyChecksums);
     }
 
+    public MMapTable(String name, long fileNumber, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, UserFilterPolicy filterPolicy)
+            throws IOException
+    {
+        super(name, fileNumber, fileChannel, comparator, verifyChecksums, blockCache, filterPolicy);
+    }
+
     @Override
     protected Footer init() throws IOException {
         long size = fileChannel.size();
@@ -83,7 +89,7 @@ public class MMapTable extends Table
 
 
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readBlockContents(BlockHandle blockHandle, boolean verifyChecksums)
             throws IOException
     {
         // read block trailer
@@ -91,37 +97,23 @@ public class MMapTable extends Table
                 (int) blockHandle.getOffset() + blockHandle.getDataSize(),
                 BlockTrailer.ENCODED_LENGTH));
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        // only verify check sums if explicitly asked by the user
+        if (verifyChecksums) {
+            // checksum data and the compression type in the trailer, straight from the mapped file
+            verifyChecksum(read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize() + 1), blockTrailer);
+        }
 
         // decompress data
         Slice uncompressedData;
         ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
         if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
+            uncompressedData = uncompress(uncompressedBuffer);
         }
         else {
             uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
         }
 
-        return new Block(uncompressedData, comparator);
+        return uncompressedData;
     }
 
     public static ByteBuffer read(MappedByteBuffer data, int offset, int length)
@@ -20,6 +20,7 @@ package org.iq80.leveldb.table;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.io.Closeables;
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.impl.SeekingIterable;
 import org.iq80.leveldb.util.*;
 
@@ -32,6 +33,8 @@ import java.nio.channels.FileChannel;
 import java.util.Comparator;
 import java.util.concurrent.Callable;
 
+import static com.google.common.base.Charsets.UTF_8;
+
 /**
  *
  */
@@ -43,9 +46,27 @@ abstract public class Table implements SeekingIterable<Slice, Slice>
     protected final boolean verifyChecksums;
     protected final Block indexBlock;
     protected final BlockHandle metaindexBlockHandle;
+    /**
+     * 文件号, 作为块缓存键的一部分
+     */
+    protected final long fileNumber;
+    /**
+     * 数据块缓存, 可以为 null
+     */
+    protected final BlockCache blockCache;
+    /**
+     * 过滤块读取器, 表没有过滤块或未配置过滤策略时为 null
+     */
+    protected final FilterBlockReader filter;
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException
+    {
+        this(name, 0, fileChannel, comparator, verifyChecksums, null, null);
+    }
+
+    public Table(String name, long fileNumber, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, UserFilterPolicy filterPolicy)
+            throws IOException
     {
         Preconditions.checkNotNull(name, "name is null");
         Preconditions.checkNotNull(fileChannel, "fileChannel is null");
@@ -58,10 +79,39 @@ abstract public class Table implements SeekingIterable<Slice, Slice>
         this.fileChannel = fileChannel;
         this.verifyChecksums = verifyChecksums;
         this.comparator = comparator;
+        this.fileNumber = fileNumber;
+        this.blockCache = blockCache;
 
         Footer footer = init();
         indexBlock = readBlock(footer.getIndexBlockHandle());
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+        filter = readFilter(filterPolicy);
+    }
+
+    /**
+     * 从元索引块中查找并读取过滤块, 旧的表文件可能没有过滤块
+     */
+    private FilterBlockReader readFilter(UserFilterPolicy filterPolicy)
+            throws IOException
+    {
+        if (filterPolicy == null) {
+            return null;
+        }
+
+        Block metaindexBlock = new Block(readBlockContents(metaindexBlockHandle), new BytewiseComparator());
+        BlockIterator iterator = metaindexBlock.iterator();
+        Slice filterKey = Slices.copiedBuffer(TableBuilder.FILTER_BLOCK_PREFIX + filterPolicy.name(), UTF_8);
+        iterator.seek(filterKey);
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        BlockEntry entry = iterator.next();
+        if (!entry.getKey().equals(filterKey)) {
+            return null;
+        }
+
+        BlockHandle filterHandle = BlockHandle.readBlockHandle(entry.getValue().input());
+        return new FilterBlockReader(filterPolicy, readBlockContents(filterHandle));
     }
 
     abstract protected Footer init() throws IOException;
@@ -69,27 +119,141 @@ abstract public class Table implements SeekingIterable<Slice, Slice>
     @Override
     public TableIterator iterator()
     {
-        return new TableIterator(this, indexBlock.iterator());
+        return iterator(new ReadOptions());
+    }
+
+    public TableIterator iterator(ReadOptions options)
+    {
+        return new TableIterator(this, indexBlock.iterator(), options);
+    }
+
+    /**
+     * 根据过滤块判断 KEY 是否可能存在于表中
+     *
+     * @param key 数据 KEY
+     * @return false 表示 KEY 一定不在表中
+     */
+    public boolean keyMayMatch(Slice key)
+    {
+        if (filter == null) {
+            return true;
+        }
+
+        BlockEntry indexEntry = indexBlock.seek(key);
+        if (indexEntry == null) {
+            // key is past the last key in the file
+            return false;
+        }
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        return filter.keyMayMatch(blockHandle.getOffset(), key);
+    }
+
+    /**
+     * 点查, 二分索引块后只打开一个数据块, 不创建迭代器
+     *
+     * @param key 目标 KEY
+     * @param options 读选项
+     * @return 第一个 KEY 大于等于目标 KEY 的实体; 过滤块判定不存在或 KEY 超出表范围时返回 null
+     */
+    public BlockEntry get(Slice key, ReadOptions options)
+    {
+        BlockEntry indexEntry = indexBlock.seek(key);
+        if (indexEntry == null) {
+            // key is past the last key in the file
+            return null;
+        }
+
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        if (filter != null && !filter.keyMayMatch(blockHandle.getOffset(), key)) {
+            return null;
+        }
+
+        // the index key of a block is below the first key of the next block,
+        // so no later block can hold an entry for the same user key
+        return openBlock(blockHandle, options).seek(key);
     }
 
     public Block openBlock(Slice blockEntry)
     {
-        BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+        return openBlock(blockEntry, new ReadOptions());
+    }
+
+    /**
+     * 打开数据块, 优先从块缓存中读取。
+     * 当 {@link ReadOptions#fillCache()} 为 false 时, 未命中的块不会放入缓存。
+     *
+     * @param blockEntry 索引块中的块句柄
+     * @param options 读选项
+     * @return 数据块
+     */
+    public Block openBlock(Slice blockEntry, ReadOptions options)
+    {
+        return openBlock(BlockHandle.readBlockHandle(blockEntry.input()), options);
+    }
+
+    private Block openBlock(BlockHandle blockHandle, ReadOptions options)
+    {
+        if (blockCache != null) {
+            Block cached = blockCache.get(fileNumber, blockHandle.getOffset());
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         Block dataBlock;
         try {
-            dataBlock = readBlock(blockHandle);
+            dataBlock = readBlock(blockHandle, verifyChecksums || options.verifyChecksums());
         }
         catch (IOException e) {
             throw Throwables.propagate(e);
         }
+
+        if (blockCache != null && options.fillCache()) {
+            blockCache.put(fileNumber, blockHandle.getOffset(), dataBlock);
+        }
         return dataBlock;
     }
 
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    protected Block readBlock(BlockHandle blockHandle)
+            throws IOException
+    {
+        return readBlock(blockHandle, verifyChecksums);
+    }
+
+    protected Block readBlock(BlockHandle blockHandle, boolean verifyChecksums)
+            throws IOException
+    {
+        return new Block(readBlockContents(blockHandle, verifyChecksums), comparator);
+    }
 
-    abstract protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readBlockContents(BlockHandle blockHandle)
+            throws IOException
+    {
+        return readBlockContents(blockHandle, verifyChecksums);
+    }
+
+    /**
+     * 读取块数据, 返回解压后的内容
+     *
+     * @param verifyChecksums 是否校验块的 CRC
+     */
+    abstract protected Slice readBlockContents(BlockHandle blockHandle, boolean verifyChecksums)
             throws IOException;
 
+    /**
+     * 校验块数据的 CRC
+     *
+     * @param blockData 块数据及紧随其后的压缩类型字节
+     */
+    protected static void verifyChecksum(ByteBuffer blockData, BlockTrailer blockTrailer)
+    {
+        PureJavaCrc32C checksum = new PureJavaCrc32C();
+        checksum.update(blockData);
+        int actualCrc32c = checksum.getMaskedValue();
+
+        Preconditions.checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
+    }
+
     protected int uncompressedLength(ByteBuffer data)
             throws IOException
     {
@@ -97,6 +261,17 @@ abstract public class Table implements SeekingIterable<Slice, Slice>
         return length;
     }
 
+    /**
+     * 解压 Snappy 压缩的块数据, 直接解压到新分配的分片中
+     */
+    protected Slice uncompress(ByteBuffer compressedData)
+            throws IOException
+    {
+        Slice uncompressedData = Slices.allocate(uncompressedLength(compressedData));
+        Snappy.uncompress(compressedData, uncompressedData.getRawArray(), uncompressedData.getRawOffset());
+        return uncompressedData;
+    }
+
     /**
      * Given a key, return an approximate byte offset in the file where
      * the data for that key begins (or would begin if the key were
@@ -127,6 +302,7 @@ abstract public class Table implements SeekingIterable<Slice, Slice>
         final StringBuilder sb = new StringBuilder();
         sb.append("Table");
         sb.append("{name='").append(name).append('\'');
+        sb.append(", fileNumber=").append(fileNumber);
         sb.append(", comparator=").append(comparator);
         sb.append(", verifyChecksums=").append(verifyChecksums);
         sb.append('}');
@@ -20,6 +20,7 @@ package org.iq80.leveldb.table;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.FilterPolicy;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.util.PureJavaCrc32C;
 import org.iq80.leveldb.util.Slice;
@@ -30,6 +31,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static org.iq80.leveldb.impl.VersionSet.TARGET_FILE_SIZE;
 
 public class TableBuilder
@@ -41,6 +43,11 @@ public class TableBuilder
      */
     public static final long TABLE_MAGIC_NUMBER = 0xdb4775248b80fb57L;
 
+    /**
+     * 元索引块中过滤块的 KEY 前缀, 后接过滤策略名称
+     */
+    public static final String FILTER_BLOCK_PREFIX = "filter.";
+
     private final int blockRestartInterval;
     private final int blockSize;
     private final CompressionType compressionType;
@@ -48,6 +55,8 @@ public class TableBuilder
     private final FileChannel fileChannel;
     private final BlockBuilder dataBlockBuilder;
     private final BlockBuilder indexBlockBuilder;
+    private final UserFilterPolicy filterPolicy;
+    private final FilterBlockBuilder filterBlockBuilder;
     private Slice lastKey;
     private final UserComparator userComparator;
 
@@ -71,6 +80,11 @@ public class TableBuilder
     private long position;
 
     public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator)
+    {
+        this(options, fileChannel, userComparator, toUserFilterPolicy(options.filterPolicy()));
+    }
+
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, UserFilterPolicy filterPolicy)
     {
         Preconditions.checkNotNull(options, "options is null");
         Preconditions.checkNotNull(fileChannel, "fileChannel is null");
@@ -94,9 +108,32 @@ public class TableBuilder
         int expectedNumberOfBlocks = 1024;
         indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
 
+        this.filterPolicy = filterPolicy;
+        if (filterPolicy != null) {
+            filterBlockBuilder = new FilterBlockBuilder(filterPolicy);
+            filterBlockBuilder.startBlock(0);
+        }
+        else {
+            filterBlockBuilder = null;
+        }
+
         lastKey = Slices.EMPTY_SLICE;
     }
 
+    /**
+     * 将用户配置的过滤策略转换为表使用的过滤策略
+     */
+    public static UserFilterPolicy toUserFilterPolicy(FilterPolicy filterPolicy)
+    {
+        if (filterPolicy == null) {
+            return null;
+        }
+        if (filterPolicy instanceof BloomFilterPolicy) {
+            return ((BloomFilterPolicy) filterPolicy).getUserFilterPolicy();
+        }
+        return new CustomUserFilterPolicy(filterPolicy);
+    }
+
     public long getEntryCount()
     {
         return entryCount;
@@ -138,6 +175,10 @@ public class TableBuilder
             pendingIndexEntry = false;
         }
 
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.addKey(key);
+        }
+
         lastKey = key;
         entryCount++;
         dataBlockBuilder.add(key, value);
@@ -160,6 +201,9 @@ public class TableBuilder
 
         pendingHandle = writeBlock(dataBlockBuilder);
         pendingIndexEntry = true;
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.startBlock(position);
+        }
     }
 
     private BlockHandle writeBlock(BlockBuilder blockBuilder)
@@ -187,6 +231,17 @@ public class TableBuilder
             }
         }
 
+        BlockHandle blockHandle = writeRawBlock(blockContents, blockCompressionType);
+
+        // clean up state
+        blockBuilder.reset();
+
+        return blockHandle;
+    }
+
+    private BlockHandle writeRawBlock(Slice blockContents, CompressionType blockCompressionType)
+            throws IOException
+    {
         // create block trailer
         BlockTrailer blockTrailer = new BlockTrailer(blockCompressionType, crc32c(blockContents, blockCompressionType));
         Slice trailer = BlockTrailer.writeBlockTrailer(blockTrailer);
@@ -197,9 +252,6 @@ public class TableBuilder
         // write data and trailer
         position += fileChannel.write(new ByteBuffer[]{blockContents.toByteBuffer(), trailer.toByteBuffer()});
 
-        // clean up state
-        blockBuilder.reset();
-
         return blockHandle;
     }
 
@@ -239,8 +291,18 @@ public class TableBuilder
         // mark table as closed
         closed = true;
 
-        // write (empty) meta index block
+        // write filter block, filters are not compressed
+        BlockHandle filterBlockHandle = null;
+        if (filterBlockBuilder != null) {
+            filterBlockHandle = writeRawBlock(filterBlockBuilder.finish(), CompressionType.NONE);
+        }
+
+        // write meta index block
         BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        if (filterBlockHandle != null) {
+            Slice key = Slices.copiedBuffer(FILTER_BLOCK_PREFIX + filterPolicy.name(), UTF_8);
+            metaIndexBlockBuilder.add(key, BlockHandle.writeBlockHandle(filterBlockHandle));
+        }
         // TODO(postrelease): Add stats and other meta blocks
         BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
 
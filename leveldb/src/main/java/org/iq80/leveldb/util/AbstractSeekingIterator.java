@@ -13,16 +13,22 @@ import java.util.NoSuchElementException;
  */
 public abstract class AbstractSeekingIterator<K, V> implements SeekingIterator<K, V> {
     /**
-     * 下一个实体元素
+     * 下一个实体元素, 子类游标已越过该元素
      */
     private Entry<K, V> nextElement;
 
+    /**
+     * 上一个实体元素, 子类游标已退到该元素之前
+     */
+    private Entry<K, V> prevElement;
+
     /**
      * 将查找游标移动到开始查找位置
      */
     @Override
     public final void seekToFirst() {
         nextElement = null;
+        prevElement = null;
         seekToFirstInternal();
     }
 
@@ -34,9 +40,20 @@ public abstract class AbstractSeekingIterator<K, V> implements SeekingIterator<K
     @Override
     public final void seek(K targetKey) {
         nextElement = null;
+        prevElement = null;
         seekInternal(targetKey);
     }
 
+    /**
+     * 将查找游标移动到最后一个元素之后
+     */
+    @Override
+    public final void seekToLast() {
+        nextElement = null;
+        prevElement = null;
+        seekToLastInternal();
+    }
+
     /**
      * 返回是否有下一元素
      *
@@ -44,10 +61,7 @@ public abstract class AbstractSeekingIterator<K, V> implements SeekingIterator<K
      */
     @Override
     public final boolean hasNext() {
-        if (nextElement == null) {
-            nextElement = getNextElement();
-        }
-        return nextElement != null;
+        return fillNext() != null;
     }
 
     /**
@@ -57,14 +71,10 @@ public abstract class AbstractSeekingIterator<K, V> implements SeekingIterator<K
      */
     @Override
     public final Entry<K, V> next() {
-        if (nextElement == null) {
-            nextElement = getNextElement();
-            if (nextElement == null) {
-                throw new NoSuchElementException();
-            }
+        Entry<K, V> result = fillNext();
+        if (result == null) {
+            throw new NoSuchElementException();
         }
-
-        Entry<K, V> result = nextElement;
         nextElement = null;
         return result;
     }
@@ -76,16 +86,75 @@ public abstract class AbstractSeekingIterator<K, V> implements SeekingIterator<K
      */
     @Override
     public final Entry<K, V> peek() {
+        Entry<K, V> result = fillNext();
+        if (result == null) {
+            throw new NoSuchElementException();
+        }
+        return result;
+    }
+
+    /**
+     * 返回是否有上一元素
+     *
+     * @return true 还有上一个元素/false 已经到第一个元素
+     */
+    @Override
+    public final boolean hasPrev() {
+        return fillPrev() != null;
+    }
+
+    /**
+     * 获取上一个元素实体, 游标后退
+     *
+     * @return {@code Entry<K, V> } 上一个元素实体
+     */
+    @Override
+    public final Entry<K, V> prev() {
+        Entry<K, V> result = fillPrev();
+        if (result == null) {
+            throw new NoSuchElementException();
+        }
+        prevElement = null;
+        return result;
+    }
+
+    /**
+     * 获取上一个元素实体，但是不改变迭代器状态
+     *
+     * @return {@code Entry<K, V> } 上一个元素实体
+     */
+    @Override
+    public final Entry<K, V> peekPrev() {
+        Entry<K, V> result = fillPrev();
+        if (result == null) {
+            throw new NoSuchElementException();
+        }
+        return result;
+    }
+
+    private Entry<K, V> fillNext() {
         if (nextElement == null) {
-            nextElement = getNextElement();
-            if (nextElement == null) {
-                throw new NoSuchElementException();
+            if (prevElement != null) {
+                // the subclass is parked before the peeked previous element, step back over it
+                getNextElement();
+                prevElement = null;
             }
+            nextElement = getNextElement();
         }
-
         return nextElement;
     }
 
+    private Entry<K, V> fillPrev() {
+        if (prevElement == null) {
+            if (nextElement != null) {
+                // the subclass is parked after the peeked next element, step back over it
+                getPreviousElement();
+                nextElement = null;
+            }
+            prevElement = getPreviousElement();
+        }
+        return prevElement;
+    }
 
     @SuppressWarnings("not support remove operation")
     @Override
@@ -105,10 +174,22 @@ public abstract class AbstractSeekingIterator<K, V> implements SeekingIterator<K
      */
     protected abstract void seekInternal(K targetKey);
 
+    /**
+     * 子类内部实现 移动游标到最后一个元素之后
+     */
+    protected abstract void seekToLastInternal();
+
     /**
      * 获取迭代器下一个元素实体对象
      *
      * @return 下一个实体元素 {@code Entry<K, V> }
      */
     protected abstract Entry<K, V> getNextElement();
+
+    /**
+     * 获取迭代器上一个元素实体对象, 游标退到该元素之前
+     *
+     * @return 上一个实体元素 {@code Entry<K, V> }, 没有则返回 null
+     */
+    protected abstract Entry<K, V> getPreviousElement();
 }
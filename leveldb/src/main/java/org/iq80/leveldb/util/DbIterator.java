@@ -3,7 +3,6 @@ package org.iq80.leveldb.util;
 import com.google.common.base.Preconditions;
 import com.google.common.primitives.Ints;
 import org.iq80.leveldb.impl.InternalKey;
-import org.iq80.leveldb.impl.MemTable.MemTableIterator;
 import org.iq80.leveldb.impl.SeekingIterator;
 
 import java.util.Comparator;
@@ -32,8 +31,11 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
      */
 
 
-    private final MemTableIterator memTableIterator;
-    private final MemTableIterator immutableMemTableIterator;
+    private final InternalIterator memTableIterator;
+    /**
+     * 不可变内存表迭代器, 由新到旧
+     */
+    private final List<InternalIterator> immutableMemTableIterators;
     private final List<InternalTableIterator> level0Files;
     private final List<LevelIterator> levels;
 
@@ -42,19 +44,24 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
     private final ComparableIterator[] heap;
     private int heapSize = 0;
 
-    public DbIterator(MemTableIterator memTableIterator,
-            MemTableIterator immutableMemTableIterator,
+    /**
+     * 是否处于反向遍历模式, 反向时堆按大顶堆排列
+     */
+    private boolean reverse;
+
+    public DbIterator(InternalIterator memTableIterator,
+            List<InternalIterator> immutableMemTableIterators,
             List<InternalTableIterator> level0Files,
             List<LevelIterator> levels,
             Comparator<InternalKey> comparator)
     {
         this.memTableIterator = memTableIterator;
-        this.immutableMemTableIterator = immutableMemTableIterator;
+        this.immutableMemTableIterators = immutableMemTableIterators;
         this.level0Files = level0Files;
         this.levels = levels;
         this.comparator = comparator;
 
-        this.heap = new ComparableIterator[3 + level0Files.size() + levels.size()];
+        this.heap = new ComparableIterator[1 + immutableMemTableIterators.size() + level0Files.size() + levels.size()];
         resetPriorityQueue();
     }
 
@@ -64,7 +71,7 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
         if (memTableIterator != null) {
             memTableIterator.seekToFirst();
         }
-        if (immutableMemTableIterator != null) {
+        for (InternalIterator immutableMemTableIterator : immutableMemTableIterators) {
             immutableMemTableIterator.seekToFirst();
         }
         for (InternalTableIterator level0File : level0Files) {
@@ -82,7 +89,7 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
         if (memTableIterator != null) {
             memTableIterator.seek(targetKey);
         }
-        if (immutableMemTableIterator != null) {
+        for (InternalIterator immutableMemTableIterator : immutableMemTableIterators) {
             immutableMemTableIterator.seek(targetKey);
         }
         for (InternalTableIterator level0File : level0Files) {
@@ -94,8 +101,51 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
         resetPriorityQueue();
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        if (memTableIterator != null) {
+            memTableIterator.seekToLast();
+        }
+        for (InternalIterator immutableMemTableIterator : immutableMemTableIterators) {
+            immutableMemTableIterator.seekToLast();
+        }
+        for (InternalTableIterator level0File : level0Files) {
+            level0File.seekToLast();
+        }
+        for (LevelIterator level : levels) {
+            level.seekToLast();
+        }
+        resetReversePriorityQueue();
+    }
+
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
+    {
+        if (reverse) {
+            // hand the buffered heads back so every input sits at the merged position
+            for (int i = 0; i < heapSize; i++) {
+                heap[i].iterator.next();
+            }
+            resetPriorityQueue();
+        }
+        return pollHeap();
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPreviousElement()
+    {
+        if (!reverse) {
+            // hand the buffered heads back so every input sits at the merged position
+            for (int i = 0; i < heapSize; i++) {
+                heap[i].iterator.prev();
+            }
+            resetReversePriorityQueue();
+        }
+        return pollHeap();
+    }
+
+    private Entry<InternalKey, Slice> pollHeap()
     {
         if (heapSize == 0) {
             return null;
@@ -127,25 +177,61 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
     private void resetPriorityQueue()
     {
         int i = 0;
-        heapSize = 0;
+        clearHeap();
+        reverse = false;
         if (memTableIterator != null && memTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(memTableIterator, comparator, i++, memTableIterator.next()));
+            heapAdd(new ComparableIterator(memTableIterator, comparator, i++, memTableIterator.next(), false));
         }
-        if (immutableMemTableIterator != null && immutableMemTableIterator.hasNext()) {
-            heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, immutableMemTableIterator.next()));
+        for (InternalIterator immutableMemTableIterator : immutableMemTableIterators) {
+            if (immutableMemTableIterator.hasNext()) {
+                heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, immutableMemTableIterator.next(), false));
+            }
         }
         for (InternalTableIterator level0File : level0Files) {
             if (level0File.hasNext()) {
-                heapAdd(new ComparableIterator(level0File, comparator, i++, level0File.next()));
+                heapAdd(new ComparableIterator(level0File, comparator, i++, level0File.next(), false));
             }
         }
         for (LevelIterator level : levels) {
             if (level.hasNext()) {
-                heapAdd(new ComparableIterator(level, comparator, i++, level.next()));
+                heapAdd(new ComparableIterator(level, comparator, i++, level.next(), false));
             }
         }
     }
 
+    private void resetReversePriorityQueue()
+    {
+        int i = 0;
+        clearHeap();
+        reverse = true;
+        if (memTableIterator != null && memTableIterator.hasPrev()) {
+            heapAdd(new ComparableIterator(memTableIterator, comparator, i++, memTableIterator.prev(), true));
+        }
+        for (InternalIterator immutableMemTableIterator : immutableMemTableIterators) {
+            if (immutableMemTableIterator.hasPrev()) {
+                heapAdd(new ComparableIterator(immutableMemTableIterator, comparator, i++, immutableMemTableIterator.prev(), true));
+            }
+        }
+        for (InternalTableIterator level0File : level0Files) {
+            if (level0File.hasPrev()) {
+                heapAdd(new ComparableIterator(level0File, comparator, i++, level0File.prev(), true));
+            }
+        }
+        for (LevelIterator level : levels) {
+            if (level.hasPrev()) {
+                heapAdd(new ComparableIterator(level, comparator, i++, level.prev(), true));
+            }
+        }
+    }
+
+    private void clearHeap()
+    {
+        for (int i = 0; i < heapSize; i++) {
+            heap[i] = null;
+        }
+        heapSize = 0;
+    }
+
     private boolean heapAdd(ComparableIterator newElement)
     {
         Preconditions.checkNotNull(newElement, "newElement is null");
@@ -195,7 +281,7 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
         final StringBuilder sb = new StringBuilder();
         sb.append("DbIterator");
         sb.append("{memTableIterator=").append(memTableIterator);
-        sb.append(", immutableMemTableIterator=").append(immutableMemTableIterator);
+        sb.append(", immutableMemTableIterators=").append(immutableMemTableIterators);
         sb.append(", level0Files=").append(level0Files);
         sb.append(", levels=").append(levels);
         sb.append(", comparator=").append(comparator);
@@ -208,10 +294,12 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
         private final SeekingIterator<InternalKey, Slice> iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
+        private final boolean reverse;
         private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement, boolean reverse)
         {
+            this.reverse = reverse;
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
@@ -231,7 +319,10 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
+            if (reverse) {
+                nextElement = iterator.hasPrev() ? iterator.prev() : null;
+            }
+            else if (iterator.hasNext()) {
                 nextElement = iterator.next();
             }
             else {
@@ -283,7 +374,7 @@ public final class DbIterator extends AbstractSeekingIterator<InternalKey, Slice
             if (result == 0) {
                 result = Ints.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            return reverse ? -result : result;
         }
     }
 }
@@ -32,6 +32,15 @@ public class DynamicSliceOutput extends SliceOutput
         this.slice = new Slice(estimatedSize);
     }
 
+    /**
+     * 以已有数据为初始内容, 之后追加的数据写入新分配的空间, 不会修改原数据
+     */
+    public DynamicSliceOutput(Slice initial)
+    {
+        this.slice = initial;
+        this.size = initial.length();
+    }
+
     @Override
     public void reset()
     {
@@ -28,6 +28,11 @@ public class InternalTableIterator extends AbstractSeekingIterator<InternalKey,
         tableIterator.seek(targetKey.encode());
     }
 
+    @Override
+    protected void seekToLastInternal() {
+        tableIterator.seekToLast();
+    }
+
     @Override
     protected Entry<InternalKey, Slice> getNextElement() {
         if (tableIterator.hasNext()) {
@@ -37,6 +42,15 @@ public class InternalTableIterator extends AbstractSeekingIterator<InternalKey,
         return null;
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPreviousElement() {
+        if (tableIterator.hasPrev()) {
+            Entry<Slice, Slice> prev = tableIterator.prev();
+            return Maps.immutableEntry(new InternalKey(prev.getKey()), prev.getValue());
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
@@ -4,6 +4,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.Iterables;
 import com.google.common.primitives.Ints;
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.impl.FileMetaData;
 import org.iq80.leveldb.impl.InternalKey;
 import org.iq80.leveldb.impl.SeekingIterator;
@@ -22,11 +23,21 @@ public final class Level0Iterator extends AbstractSeekingIterator<InternalKey, S
     private final PriorityQueue<ComparableIterator> priorityQueue;
     private final Comparator<InternalKey> comparator;
 
+    /**
+     * 是否处于反向遍历模式, 反向时优先队列按大顶堆排列
+     */
+    private boolean reverse;
+
     public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator)
+    {
+        this(tableCache, files, comparator, new ReadOptions());
+    }
+
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, ReadOptions options)
     {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : files) {
-            builder.add(tableCache.newIterator(file));
+            builder.add(tableCache.newIterator(file, options));
         }
         this.inputs = builder.build();
         this.comparator = comparator;
@@ -62,12 +73,35 @@ public final class Level0Iterator extends AbstractSeekingIterator<InternalKey, S
         resetPriorityQueue(comparator);
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        for (InternalTableIterator input : inputs) {
+            input.seekToLast();
+        }
+        resetReversePriorityQueue(comparator);
+    }
+
     private void resetPriorityQueue(Comparator<InternalKey> comparator)
     {
+        reverse = false;
+        priorityQueue.clear();
         int i = 0;
         for (InternalTableIterator input : inputs) {
             if (input.hasNext()) {
-                priorityQueue.add(new ComparableIterator(input, comparator, i++, input.next()));
+                priorityQueue.add(new ComparableIterator(input, comparator, i++, input.next(), false));
+            }
+        }
+    }
+
+    private void resetReversePriorityQueue(Comparator<InternalKey> comparator)
+    {
+        reverse = true;
+        priorityQueue.clear();
+        int i = 0;
+        for (InternalTableIterator input : inputs) {
+            if (input.hasPrev()) {
+                priorityQueue.add(new ComparableIterator(input, comparator, i++, input.prev(), true));
             }
         }
     }
@@ -75,6 +109,36 @@ public final class Level0Iterator extends AbstractSeekingIterator<InternalKey, S
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
     {
+        if (reverse) {
+            // hand the buffered heads back so every input sits at the merged position
+            for (ComparableIterator iterator : priorityQueue) {
+                iterator.iterator.next();
+            }
+            resetPriorityQueue(comparator);
+        }
+
+        Entry<InternalKey, Slice> result = null;
+        ComparableIterator nextIterator = priorityQueue.poll();
+        if (nextIterator != null) {
+            result = nextIterator.next();
+            if (nextIterator.hasNext()) {
+                priorityQueue.add(nextIterator);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPreviousElement()
+    {
+        if (!reverse) {
+            // hand the buffered heads back so every input sits at the merged position
+            for (ComparableIterator iterator : priorityQueue) {
+                iterator.iterator.prev();
+            }
+            resetReversePriorityQueue(comparator);
+        }
+
         Entry<InternalKey, Slice> result = null;
         ComparableIterator nextIterator = priorityQueue.poll();
         if (nextIterator != null) {
@@ -101,10 +165,12 @@ public final class Level0Iterator extends AbstractSeekingIterator<InternalKey, S
         private final SeekingIterator<InternalKey, Slice> iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
-        private Entry<InternalKey,Slice> nextElement;
+        private final boolean reverse;
+        private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(SeekingIterator<InternalKey, Slice> iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement, boolean reverse)
         {
+            this.reverse = reverse;
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
@@ -124,7 +190,10 @@ public final class Level0Iterator extends AbstractSeekingIterator<InternalKey, S
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
+            if (reverse) {
+                nextElement = iterator.hasPrev() ? iterator.prev() : null;
+            }
+            else if (iterator.hasNext()) {
                 nextElement = iterator.next();
             } else {
                 nextElement = null;
@@ -175,7 +244,7 @@ public final class Level0Iterator extends AbstractSeekingIterator<InternalKey, S
             if (result == 0) {
                 result = Ints.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            return reverse ? -result : result;
         }
     }
 }
@@ -1,5 +1,6 @@
 package org.iq80.leveldb.util;
 
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.impl.FileMetaData;
 import org.iq80.leveldb.impl.InternalKey;
 import org.iq80.leveldb.impl.InternalKeyComparator;
@@ -13,14 +14,21 @@ public final class LevelIterator extends AbstractSeekingIterator<InternalKey, Sl
     private final TableCache tableCache;
     private final List<FileMetaData> files;
     private final InternalKeyComparator comparator;
+    private final ReadOptions options;
     private InternalTableIterator current;
     private int index;
 
     public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator)
+    {
+        this(tableCache, files, comparator, new ReadOptions());
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, ReadOptions options)
     {
         this.tableCache = tableCache;
         this.files = files;
         this.comparator = comparator;
+        this.options = options;
     }
 
     @Override
@@ -31,6 +39,14 @@ public final class LevelIterator extends AbstractSeekingIterator<InternalKey, Sl
         current = null;
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        // park the index after the last file and clear the data iterator
+        index = files.size();
+        current = null;
+    }
+
     @Override
     protected void seekInternal(InternalKey targetKey)
     {
@@ -111,11 +127,29 @@ public final class LevelIterator extends AbstractSeekingIterator<InternalKey, Sl
         }
     }
 
+    @Override
+    protected Entry<InternalKey, Slice> getPreviousElement()
+    {
+        // while a file is open it is files[index - 1], otherwise the position is just before files[index]
+        while (current == null || !current.hasPrev()) {
+            int previous = current == null ? index - 1 : index - 2;
+            if (previous < 0) {
+                index = 0;
+                current = null;
+                return null;
+            }
+            index = previous;
+            current = openNextFile();
+            current.seekToLast();
+        }
+        return current.prev();
+    }
+
     private InternalTableIterator openNextFile()
     {
         FileMetaData fileMetaData = files.get(index);
         index++;
-        return tableCache.newIterator(fileMetaData);
+        return tableCache.newIterator(fileMetaData, options);
     }
 
     @Override
@@ -12,6 +12,11 @@ public final class MergingIterator extends AbstractSeekingIterator<InternalKey,
     private final PriorityQueue<ComparableIterator> priorityQueue;
     private final Comparator<InternalKey> comparator;
 
+    /**
+     * 是否处于反向遍历模式, 反向时优先队列按大顶堆排列
+     */
+    private boolean reverse;
+
     public MergingIterator(List<? extends InternalIterator> levels, Comparator<InternalKey> comparator)
     {
         this.levels = levels;
@@ -39,12 +44,35 @@ public final class MergingIterator extends AbstractSeekingIterator<InternalKey,
         resetPriorityQueue(comparator);
     }
 
+    @Override
+    protected void seekToLastInternal()
+    {
+        for (InternalIterator level : levels) {
+            level.seekToLast();
+        }
+        resetReversePriorityQueue(comparator);
+    }
+
     private void resetPriorityQueue(Comparator<InternalKey> comparator)
     {
+        reverse = false;
+        priorityQueue.clear();
         int i = 1;
         for (InternalIterator level : levels) {
             if (level.hasNext()) {
-                priorityQueue.add(new ComparableIterator(level, comparator, i++, level.next()));
+                priorityQueue.add(new ComparableIterator(level, comparator, i++, level.next(), false));
+            }
+        }
+    }
+
+    private void resetReversePriorityQueue(Comparator<InternalKey> comparator)
+    {
+        reverse = true;
+        priorityQueue.clear();
+        int i = 1;
+        for (InternalIterator level : levels) {
+            if (level.hasPrev()) {
+                priorityQueue.add(new ComparableIterator(level, comparator, i++, level.prev(), true));
             }
         }
     }
@@ -52,6 +80,36 @@ public final class MergingIterator extends AbstractSeekingIterator<InternalKey,
     @Override
     protected Entry<InternalKey, Slice> getNextElement()
     {
+        if (reverse) {
+            // hand the buffered heads back so every input sits at the merged position
+            for (ComparableIterator iterator : priorityQueue) {
+                iterator.iterator.next();
+            }
+            resetPriorityQueue(comparator);
+        }
+
+        Entry<InternalKey, Slice> result = null;
+        ComparableIterator nextIterator = priorityQueue.poll();
+        if (nextIterator != null) {
+            result = nextIterator.next();
+            if (nextIterator.hasNext()) {
+                priorityQueue.add(nextIterator);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected Entry<InternalKey, Slice> getPreviousElement()
+    {
+        if (!reverse) {
+            // hand the buffered heads back so every input sits at the merged position
+            for (ComparableIterator iterator : priorityQueue) {
+                iterator.iterator.prev();
+            }
+            resetReversePriorityQueue(comparator);
+        }
+
         Entry<InternalKey, Slice> result = null;
         ComparableIterator nextIterator = priorityQueue.poll();
         if (nextIterator != null) {
@@ -79,10 +137,12 @@ public final class MergingIterator extends AbstractSeekingIterator<InternalKey,
         private final InternalIterator iterator;
         private final Comparator<InternalKey> comparator;
         private final int ordinal;
+        private final boolean reverse;
         private Entry<InternalKey, Slice> nextElement;
 
-        private ComparableIterator(InternalIterator iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement)
+        private ComparableIterator(InternalIterator iterator, Comparator<InternalKey> comparator, int ordinal, Entry<InternalKey, Slice> nextElement, boolean reverse)
         {
+            this.reverse = reverse;
             this.iterator = iterator;
             this.comparator = comparator;
             this.ordinal = ordinal;
@@ -102,7 +162,10 @@ public final class MergingIterator extends AbstractSeekingIterator<InternalKey,
             }
 
             Entry<InternalKey, Slice> result = nextElement;
-            if (iterator.hasNext()) {
+            if (reverse) {
+                nextElement = iterator.hasPrev() ? iterator.prev() : null;
+            }
+            else if (iterator.hasNext()) {
                 nextElement = iterator.next();
             }
             else {
@@ -154,7 +217,7 @@ public final class MergingIterator extends AbstractSeekingIterator<InternalKey,
             if (result == 0) {
                 result = Ints.compare(this.ordinal, that.ordinal);
             }
-            return result;
+            return reverse ? -result : result;
         }
     }
 }
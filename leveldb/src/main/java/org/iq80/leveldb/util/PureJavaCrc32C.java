@@ -17,6 +17,8 @@
  */
 package org.iq80.leveldb.util;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.zip.Checksum;
 
 
@@ -26,7 +28,6 @@ import java.util.zip.Checksum;
  * and implemented on many Intel chipsets supporting SSE4.2.
  */
 // this code was taken from Apache Hadoop
-// todo modify to work on buffers directly to avoid extra memcopy
 public class PureJavaCrc32C implements Checksum
 {
     private static final int MASK_DELTA = 0xa282ead8;
@@ -112,6 +113,41 @@ public class PureJavaCrc32C implements Checksum
         crc = localCrc;
     }
 
+    /**
+     * Updates the checksum with the remaining bytes of the buffer without moving its position.
+     * Direct and memory mapped buffers are read eight bytes at a time in place.
+     */
+    public void update(ByteBuffer buffer)
+    {
+        if (buffer.hasArray()) {
+            update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int position = data.position();
+        int limit = data.limit();
+        int localCrc = crc;
+        while (limit - position > 7) {
+            long value = data.getLong(position);
+            int low = ((int) value) ^ localCrc;
+            int high = (int) (value >>> 32);
+            localCrc = (T8_7[low & 0xff] ^ T8_6[(low >>> 8) & 0xff])
+                    ^ (T8_5[(low >>> 16) & 0xff] ^ T8_4[low >>> 24]);
+
+            localCrc ^= (T8_3[high & 0xff] ^ T8_2[(high >>> 8) & 0xff])
+                    ^ (T8_1[(high >>> 16) & 0xff] ^ T8_0[high >>> 24]);
+
+            position += 8;
+        }
+        while (position < limit) {
+            localCrc = (localCrc >>> 8) ^ T8_0[(localCrc ^ data.get(position++)) & 0xff];
+        }
+
+        // Publish crc out to object
+        crc = localCrc;
+    }
+
     public void update(int b)
     {
         crc = (crc >>> 8) ^ T8_0[(crc ^ b) & 0xff];
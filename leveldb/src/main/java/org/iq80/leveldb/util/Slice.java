@@ -587,6 +587,14 @@ public final class Slice implements Comparable<Slice> {
         return toByteBuffer(0, length);
     }
 
+    /**
+     * Returns a read-only NIO view of this buffer positioned at zero.  The
+     * view shares the backing array, so no data is copied.
+     */
+    public ByteBuffer toReadOnlyByteBuffer() {
+        return ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer();
+    }
+
     /**
      * Converts this buffer's sub-region into a NIO buffer.  The returned
      * buffer shares the content with this buffer.
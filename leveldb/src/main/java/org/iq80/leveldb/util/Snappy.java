@@ -131,6 +131,13 @@ public class Snappy {
         }
     }
 
+    static final private ThreadLocal<byte[]> INPUT_SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[4 * 1024];
+        }
+    };
+
     static final private SPI SNAPPY;
     static {
         SPI attempt = null;
@@ -164,6 +171,25 @@ public class Snappy {
         SNAPPY.uncompress(input, inputOffset, length, output, outputOffset);
     }
 
+    /**
+     * Uncompresses the remaining bytes of the compressed buffer straight into the output array.
+     * Direct (e.g. memory mapped) input is staged in a per-thread buffer, so concurrent callers never contend.
+     */
+    public static void uncompress(ByteBuffer compressed, byte[] output, int outputOffset) throws IOException {
+        int length = compressed.remaining();
+        if (compressed.hasArray()) {
+            SNAPPY.uncompress(compressed.array(), compressed.arrayOffset() + compressed.position(), length, output, outputOffset);
+        } else {
+            byte[] input = INPUT_SCRATCH.get();
+            if (input.length < length) {
+                input = new byte[length];
+                INPUT_SCRATCH.set(input);
+            }
+            compressed.duplicate().get(input, 0, length);
+            SNAPPY.uncompress(input, 0, length, output, outputOffset);
+        }
+    }
+
     public static int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws IOException {
         return SNAPPY.compress(input, inputOffset, length, output, outputOffset);
     }
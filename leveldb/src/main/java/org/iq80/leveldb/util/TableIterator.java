@@ -1,5 +1,6 @@
 package org.iq80.leveldb.util;
 
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.table.Block;
 import org.iq80.leveldb.table.BlockIterator;
 import org.iq80.leveldb.table.Table;
@@ -23,14 +24,29 @@ public final class TableIterator extends AbstractSeekingIterator<Slice, Slice> {
      */
     private final BlockIterator blockIterator;
 
+    /**
+     * 读选项
+     */
+    private final ReadOptions options;
+
     /**
      * 当前块迭代器
      */
     private BlockIterator current;
 
+    /**
+     * 当前块的块句柄, 用于 seek 落在同一块时复用已打开的块
+     */
+    private Slice currentBlockHandle;
+
     public TableIterator(Table table, BlockIterator blockIterator) {
+        this(table, blockIterator, new ReadOptions());
+    }
+
+    public TableIterator(Table table, BlockIterator blockIterator, ReadOptions options) {
         this.table = table;
         this.blockIterator = blockIterator;
+        this.options = options;
         current = null;
     }
 
@@ -42,6 +58,15 @@ public final class TableIterator extends AbstractSeekingIterator<Slice, Slice> {
         // reset index to before first and clear the data iterator
         blockIterator.seekToFirst();
         current = null;
+        currentBlockHandle = null;
+    }
+
+    @Override
+    protected void seekToLastInternal() {
+        // park the index after the last block and clear the data iterator
+        blockIterator.seekToLast();
+        current = null;
+        currentBlockHandle = null;
     }
 
     @Override
@@ -51,11 +76,16 @@ public final class TableIterator extends AbstractSeekingIterator<Slice, Slice> {
 
         // if indexIterator does not have a next, it mean the key does not exist in this iterator
         if (blockIterator.hasNext()) {
+            Slice blockHandle = blockIterator.next().getValue();
+            // reuse the open block when the key lands in the same block
+            if (current == null || !blockHandle.equals(currentBlockHandle)) {
+                current = openBlock(blockHandle);
+            }
             // seek the current iterator to the key
-            current = getNextBlock();
             current.seek(targetKey);
         } else {
             current = null;
+            currentBlockHandle = null;
         }
     }
 
@@ -90,10 +120,36 @@ public final class TableIterator extends AbstractSeekingIterator<Slice, Slice> {
         } else {
             // set current to empty iterator to avoid extra calls to user iterators
             current = null;
+            currentBlockHandle = null;
             return null;
         }
     }
 
+    /**
+     * 获取表的 上一个元素实体
+     *
+     * @return 表元素实体
+     */
+    @Override
+    protected Entry<Slice, Slice> getPreviousElement() {
+        // while a block is open the index is positioned just after that block's entry
+        while (current == null || !current.hasPrev()) {
+            if (current != null) {
+                blockIterator.prev();
+            }
+            if (!blockIterator.hasPrev()) {
+                current = null;
+                currentBlockHandle = null;
+                return null;
+            }
+            Slice blockHandle = blockIterator.prev().getValue();
+            blockIterator.next();
+            current = openBlock(blockHandle);
+            current.seekToLast();
+        }
+        return current.prev();
+    }
+
     /**
      * 获取下一个块迭代器
      * {@code}
@@ -101,8 +157,12 @@ public final class TableIterator extends AbstractSeekingIterator<Slice, Slice> {
      * @return 下一块的迭代器
      */
     private BlockIterator getNextBlock() {
-        Slice blockHandle = blockIterator.next().getValue();
-        Block dataBlock = table.openBlock(blockHandle);
+        return openBlock(blockIterator.next().getValue());
+    }
+
+    private BlockIterator openBlock(Slice blockHandle) {
+        Block dataBlock = table.openBlock(blockHandle, options);
+        currentBlockHandle = blockHandle;
         return dataBlock.iterator();
     }
 
@@ -18,28 +18,36 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.UnsignedBytes;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBComparator;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.MemTableFactory;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.Range;
 import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
+import org.iq80.leveldb.table.BloomFilterPolicy;
+import org.iq80.leveldb.table.BytewiseComparator;
 import org.iq80.leveldb.util.FileUtils;
+import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -47,18 +55,27 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.immutableEntry;
 import static java.util.Arrays.asList;
 import static org.iq80.leveldb.CompressionType.NONE;
+import static org.iq80.leveldb.impl.DbConstants.L0_COMPACTION_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.table.BlockHelper.afterString;
 import static org.iq80.leveldb.table.BlockHelper.assertSequence;
 import static org.iq80.leveldb.table.BlockHelper.beforeString;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
@@ -192,6 +209,692 @@ public class DbImplTest
         assertEquals(db.get("foo"), "v1");
     }
 
+    @Test
+    public void testGetWithFilterPolicy()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().filterPolicy(new BloomFilterPolicy(10)), databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), key(i));
+        }
+        db.compactMemTable();
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i)), key(i));
+        }
+        for (int i = 1000; i < 2000; i++) {
+            assertNull(db.get(key(i)));
+        }
+        db.delete(key(0));
+        db.compactMemTable();
+        assertNull(db.get(key(0)));
+    }
+
+    @Test
+    public void testFilterPolicyOnTablesWithoutFilters()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "v1");
+        db.compactMemTable();
+
+        // tables written before the filter policy was configured must still be readable
+        db.reopen(new Options().filterPolicy(new BloomFilterPolicy(10)));
+        assertEquals(db.get("foo"), "v1");
+        assertNull(db.get("bar"));
+    }
+
+    @Test
+    public void testConcurrentReadsDuringWritesAndCompactions()
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(10000), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "v0");
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        runConcurrently(5, new ThreadTask()
+        {
+            @Override
+            public void run(int thread)
+            {
+                if (thread == 0) {
+                    // rewrite every key several times so memtables are switched and compacted under the readers
+                    try {
+                        for (int round = 1; round <= 20; round++) {
+                            for (int i = 0; i < 100; i++) {
+                                db.put(key(i), "v" + round);
+                            }
+                        }
+                    }
+                    finally {
+                        done.set(true);
+                    }
+                    return;
+                }
+
+                Random random = new Random();
+                while (!done.get()) {
+                    String value = db.get(key(random.nextInt(100)));
+                    assertNotNull(value);
+                    assertTrue(value.startsWith("v"), value);
+                }
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.get(key(i)), "v20");
+        }
+    }
+
+    @DataProvider(name = "pipelinedWrite")
+    public Object[][] pipelinedWrite()
+    {
+        return new Object[][] {
+                new Object[] {false},
+                new Object[] {true}
+        };
+    }
+
+    @Test(dataProvider = "pipelinedWrite")
+    public void testConcurrentWriters(boolean pipelinedWrite)
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(10000).pipelinedWrite(pipelinedWrite), databaseDir);
+
+        // mix sync and non-sync writes so groups are split on the sync flag
+        WriteOptions sync = new WriteOptions().sync(true);
+        WriteOptions async = new WriteOptions();
+        writeConcurrently(db, 200, sync, async, sync, async);
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int t = 0; t < 4; t++) {
+                for (int i = 0; i < 200; i++) {
+                    assertEquals(db.get(key(t * 1000 + i)), "v" + t + "-" + i);
+                }
+            }
+            // every write must also be recovered from the log
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testWriteControllerChargesWholeGroup()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+
+        // sync writes keep the leader busy so followers join its group
+        WriteOptions sync = new WriteOptions().sync(true);
+        long writtenBytes = writeConcurrently(db, 200, sync, sync, sync, sync);
+
+        // every batch is paid for, whether it led its group or followed
+        assertEquals(db.db.getWriteController().getChargedBytes(), writtenBytes);
+    }
+
+    @Test(dataProvider = "pipelinedWrite")
+    public void testMemTableInsertFailureStopsWrites(boolean pipelinedWrite)
+            throws Exception
+    {
+        // a memtable that refuses one key, after the rest of its batch went in
+        final InternalMemTableFactory skipList = (InternalMemTableFactory) MemTableFactories.skipList();
+        MemTableFactory failing = new InternalMemTableFactory()
+        {
+            @Override
+            public String name()
+            {
+                return "failing";
+            }
+
+            @Override
+            public MemTable newMemTable(InternalKeyComparator internalKeyComparator, int writeBufferSize)
+            {
+                final MemTable memTable = skipList.newMemTable(internalKeyComparator, writeBufferSize);
+                return new MemTable()
+                {
+                    @Override
+                    public boolean isEmpty()
+                    {
+                        return memTable.isEmpty();
+                    }
+
+                    @Override
+                    public long approximateMemoryUsage()
+                    {
+                        return memTable.approximateMemoryUsage();
+                    }
+
+                    @Override
+                    public void add(long sequenceNumber, ValueType valueType, Slice key, Slice value)
+                    {
+                        if (key.toString(UTF_8).equals("poison")) {
+                            throw new IllegalStateException("insert failed");
+                        }
+                        memTable.add(sequenceNumber, valueType, key, value);
+                    }
+
+                    @Override
+                    public LookupResult get(LookupKey key)
+                    {
+                        return memTable.get(key);
+                    }
+
+                    @Override
+                    public InternalIterator iterator()
+                    {
+                        return memTable.iterator();
+                    }
+                };
+            }
+        };
+        DbStringWrapper db = new DbStringWrapper(new Options().memTableFactory(failing).pipelinedWrite(pipelinedWrite), databaseDir);
+        db.put("foo", "v1");
+
+        WriteBatch batch = db.db.createWriteBatch();
+        batch.put(toByteArray("bar"), toByteArray("v2"));
+        batch.put(toByteArray("poison"), toByteArray("v3"));
+        try {
+            db.db.write(batch);
+            fail("expected the write to fail");
+        }
+        catch (IllegalStateException expected) {
+        }
+
+        // the failed batch used sequences that were never published, later writes must not reuse them
+        try {
+            db.put("baz", "v4");
+            fail("expected writes to be rejected");
+        }
+        catch (DbImpl.BackgroundProcessingException expected) {
+        }
+    }
+
+    @DataProvider(name = "memTableFactories")
+    public Object[][] memTableFactories()
+    {
+        return new Object[][] {
+                new Object[] {MemTableFactories.arena()},
+                new Object[] {MemTableFactories.vector()},
+                new Object[] {MemTableFactories.hashLinkList(4, 16)}
+        };
+    }
+
+    @Test(dataProvider = "memTableFactories")
+    public void testMemTableFactory(MemTableFactory memTableFactory)
+            throws Exception
+    {
+        testRandomWrites(new Options().memTableFactory(memTableFactory).writeBufferSize(10000));
+    }
+
+    @Test
+    public void testMultipleWriteBuffers()
+            throws Exception
+    {
+        testRandomWrites(new Options().maxWriteBufferNumber(4).writeBufferSize(10000));
+    }
+
+    @Test
+    public void testConcurrentCompactions()
+            throws Exception
+    {
+        Options options = new Options().maxBackgroundCompactions(4).maxWriteBufferNumber(3).writeBufferSize(100000).compressionType(NONE);
+        final DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        // mostly ascending keys push level 1 over its limit while each level 0
+        // file covers a narrow range, so compactions of different key ranges
+        // and levels can run at the same time; meanwhile watch how many
+        // compactions are in flight at once
+        final Random random = new Random(301);
+        final String value = randomString(random, 1000);
+        final TreeMap<String, String> expected = new TreeMap<String, String>();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        runConcurrently(2, new ThreadTask()
+        {
+            @Override
+            public void run(int thread)
+                    throws InterruptedException
+            {
+                if (thread == 0) {
+                    try {
+                        for (int i = 0; i < 30000; i++) {
+                            String key = key(i + random.nextInt(200));
+                            String keyValue = i + value;
+                            db.put(key, keyValue);
+                            expected.put(key, keyValue);
+                        }
+                    }
+                    finally {
+                        done.set(true);
+                    }
+                    return;
+                }
+
+                while (!done.get()) {
+                    int running = db.db.numberOfRunningCompactions();
+                    if (running > maxRunning.get()) {
+                        maxRunning.set(running);
+                    }
+                    Thread.sleep(1);
+                }
+            }
+        });
+        assertTrue(maxRunning.get() >= 2, "at most " + maxRunning.get() + " compactions ran at once");
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (Entry<String, String> entry : expected.entrySet()) {
+                assertEquals(db.get(entry.getKey()), entry.getValue());
+            }
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testDisableWAL()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        WriteOptions unlogged = new WriteOptions().disableWAL(true);
+        db.put("logged", "v1");
+        db.db.put(toByteArray("unlogged"), toByteArray("v2"), unlogged);
+        assertEquals(db.get("unlogged"), "v2");
+
+        // a crash recovers only what reached the log
+        assertRecovered("v1", null);
+
+        // flush makes unlogged writes durable
+        db.db.flush();
+        assertRecovered("v1", "v2");
+
+        // and so does a clean close
+        db.db.put(toByteArray("unlogged"), toByteArray("v3"), unlogged);
+        db.reopen();
+        assertEquals(db.get("logged"), "v1");
+        assertEquals(db.get("unlogged"), "v3");
+    }
+
+    /**
+     * 复制当前数据库目录模拟崩溃, 检查恢复出的数据
+     */
+    private void assertRecovered(String logged, String unlogged)
+            throws IOException
+    {
+        File crashedDir = FileUtils.createTempDir("leveldb-crashed");
+        try {
+            FileUtils.copyDirectoryContents(databaseDir, crashedDir);
+            DbImpl recovered = new DbImpl(new Options(), crashedDir);
+            try {
+                assertEquals(recovered.get(toByteArray("logged")), logged == null ? null : toByteArray(logged));
+                assertEquals(recovered.get(toByteArray("unlogged")), unlogged == null ? null : toByteArray(unlogged));
+            }
+            finally {
+                recovered.close();
+            }
+        }
+        finally {
+            FileUtils.deleteRecursively(crashedDir);
+        }
+    }
+
+    @Test
+    public void testWriteAsync()
+            throws Exception
+    {
+        final DbStringWrapper db = new DbStringWrapper(new Options().walSyncWindowMicros(1000), databaseDir);
+
+        List<Future<Snapshot>> futures = newArrayList();
+        for (int i = 0; i < 200; i++) {
+            WriteBatch batch = db.db.createWriteBatch();
+            batch.put(toByteArray(key(i)), toByteArray("v" + i));
+            futures.add(db.db.writeAsync(batch, new WriteOptions()));
+            // visible before it is durable
+            assertEquals(db.get(key(i)), "v" + i);
+        }
+        for (Future<Snapshot> future : futures) {
+            assertNull(future.get(10, TimeUnit.SECONDS));
+        }
+
+        WriteBatch batch = db.db.createWriteBatch();
+        batch.put(toByteArray("foo"), toByteArray("v1"));
+        Snapshot snapshot = db.db.writeAsync(batch, new WriteOptions().snapshot(true)).get(10, TimeUnit.SECONDS);
+        db.put("foo", "v2");
+        assertEquals(db.get("foo", snapshot), "v1");
+        snapshot.close();
+
+        // writes still waiting for the sync thread are completed by close
+        batch = db.db.createWriteBatch();
+        batch.put(toByteArray("bar"), toByteArray("v1"));
+        Future<Snapshot> pending = db.db.writeAsync(batch, new WriteOptions());
+        db.reopen();
+        assertNull(pending.get(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(db.get(key(i)), "v" + i);
+        }
+        assertEquals(db.get("bar"), "v1");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWriteAsyncRequiresWAL()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.db.writeAsync(db.db.createWriteBatch(), new WriteOptions().disableWAL(true));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSyncWriteRequiresWAL()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.db.put(toByteArray("foo"), toByteArray("bar"), new WriteOptions().sync(true).disableWAL(true));
+    }
+
+    @Test
+    public void testSubcompactions()
+            throws Exception
+    {
+        Options options = new Options().maxSubcompactions(4).writeBufferSize(1 << 20).compressionType(NONE);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+
+        // once level 1 holds a few files, level 0 compactions are large
+        // enough to be split at the level 1 file boundaries
+        Random random = new Random(301);
+        String value = randomString(random, 1000);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (int i = 0; i < 20000; i++) {
+            String key = key(random.nextInt(10000));
+            String keyValue = i + value;
+            db.put(key, keyValue);
+            expected.put(key, keyValue);
+        }
+        db.compactMemTable();
+        db.compactRange(0, key(0), key(10000));
+        assertTrue(db.db.getSubcompactionCount() > 1, "no compaction was split");
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (Entry<String, String> entry : expected.entrySet()) {
+                assertEquals(db.get(entry.getKey()), entry.getValue());
+            }
+            assertEquals(db.numberOfFilesInLevel(0), 0);
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testSubcompactionBoundaries()
+    {
+        BytewiseComparator comparator = new BytewiseComparator();
+        long fileSize = VersionSet.TARGET_FILE_SIZE * 2;
+        List<FileMetaData> levelInputs = asList(file("a", "c", fileSize), file("d", "f", fileSize), file("g", "i", fileSize));
+        List<FileMetaData> levelUpInputs = asList(file("b", "e", fileSize), file("e", "f", fileSize));
+        List<FileMetaData> grandparents = asList(file("a", "h", 1000), file("h", "z", 1000));
+        Compaction compaction = new Compaction(null, 1, levelInputs, levelUpInputs, grandparents);
+
+        // candidates are the largest keys strictly inside [a, i], the shared "f" counted once
+        assertEquals(boundaries(compaction, 10, comparator), asList("c", "e", "f", "h"));
+        // fewer parts are spread over the candidates
+        assertEquals(boundaries(compaction, 3, comparator), asList("e", "f"));
+        assertEquals(boundaries(compaction, 2, comparator), asList("f"));
+        assertEquals(boundaries(compaction, 1, comparator), asList());
+
+        // each part must be able to fill an output file
+        Compaction small = new Compaction(null, 1, asList(file("a", "c", 1000), file("d", "f", 1000)), asList(file("b", "e", 1000)), null);
+        assertEquals(boundaries(small, 10, comparator), asList());
+        Compaction twoFiles = new Compaction(null, 1, asList(file("a", "c", VersionSet.TARGET_FILE_SIZE)), asList(file("b", "e", VersionSet.TARGET_FILE_SIZE)), null);
+        assertEquals(boundaries(twoFiles, 10, comparator), asList("c"));
+    }
+
+    private static List<String> boundaries(Compaction compaction, int maxSubcompactions, BytewiseComparator comparator)
+    {
+        List<String> boundaries = newArrayList();
+        for (Slice boundary : DbImpl.subcompactionBoundaries(compaction, maxSubcompactions, comparator)) {
+            boundaries.add(boundary.toString(UTF_8));
+        }
+        return boundaries;
+    }
+
+    private static FileMetaData file(String smallest, String largest, long fileSize)
+    {
+        return new FileMetaData(1, fileSize,
+                new InternalKey(Slices.copiedBuffer(smallest, UTF_8), 1, ValueType.VALUE),
+                new InternalKey(Slices.copiedBuffer(largest, UTF_8), 1, ValueType.VALUE));
+    }
+
+    @Test
+    public void testSuspendCompactions()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "v1");
+
+        db.db.suspendCompactions();
+        try {
+            // writes and reads keep working while no table file may change
+            db.put("bar", "v2");
+            assertEquals(db.get("foo"), "v1");
+            assertEquals(db.numberOfFilesInLevel(0), 0);
+        }
+        finally {
+            db.db.resumeCompactions();
+        }
+
+        db.compactMemTable();
+        assertEquals(db.get("bar"), "v2");
+        assertTrue(db.totalTableFiles() > 0);
+    }
+
+    @Test(timeOut = 60000)
+    public void testFlushWhileCompactionRuns()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(20000).compressionType(NONE), databaseDir);
+        String value = longString(1000, 'x');
+
+        // a compaction picked from now on stays in flight on the parked compaction thread
+        db.db.suspendCompactionThreads();
+        int count = 0;
+        try {
+            while (db.numberOfFilesInLevel(0) < L0_COMPACTION_TRIGGER + 2) {
+                assertTrue(count < 10000, "memtables were not flushed");
+                db.put(key(count++), value);
+            }
+            // the level 0 compaction was picked after the fourth flush,
+            // and the memtables sealed after it still reached level 0
+            assertEquals(db.db.numberOfRunningCompactions(), 1);
+        }
+        finally {
+            db.db.resumeCompactions();
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(db.get(key(i)), value);
+        }
+    }
+
+    /**
+     * 每个 WriteOptions 对应一个写线程, 各线程写入 writes 个互不重叠的 KEY
+     *
+     * @return 写入批量的总字节数
+     */
+    private static long writeConcurrently(final DbStringWrapper db, final int writes, final WriteOptions... threadOptions)
+            throws Exception
+    {
+        final AtomicLong bytes = new AtomicLong();
+        runConcurrently(threadOptions.length, new ThreadTask()
+        {
+            @Override
+            public void run(int thread)
+            {
+                for (int i = 0; i < writes; i++) {
+                    byte[] key = toByteArray(key(thread * 1000 + i));
+                    byte[] value = toByteArray("v" + thread + "-" + i);
+                    bytes.addAndGet(new WriteBatchImpl().put(key, value).getApproximateSize());
+                    db.db.put(key, value, threadOptions[thread]);
+                }
+            }
+        });
+        return bytes.get();
+    }
+
+    /**
+     * 在 threads 个线程中并发执行 task, 全部结束后抛出第一个失败
+     */
+    private static void runConcurrently(int threads, final ThreadTask task)
+            throws Exception
+    {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> started = newArrayList();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread runner = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        task.run(thread);
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            runner.start();
+            started.add(runner);
+        }
+        for (Thread runner : started) {
+            runner.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface ThreadTask
+    {
+        void run(int thread)
+                throws Exception;
+    }
+
+    private void testRandomWrites(Options options)
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        Random random = new Random(301);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        for (int i = 0; i < 2000; i++) {
+            // keys are spaced out so testDb can seek just before and after each of them
+            String key = key(random.nextInt(300) * 2);
+            if (random.nextInt(10) == 0) {
+                db.delete(key);
+                expected.remove(key);
+            }
+            else {
+                String value = randomString(random, random.nextInt(100));
+                db.put(key, value);
+                expected.put(key, value);
+            }
+        }
+
+        // memtables are switched and flushed along the way, then recovered from the log
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 600; i++) {
+                assertEquals(db.get(key(i)), expected.get(key(i)));
+            }
+            List<Entry<String, String>> entries = newArrayList();
+            for (Entry<String, String> entry : expected.entrySet()) {
+                entries.add(immutableEntry(entry.getKey(), entry.getValue()));
+            }
+            testDb(db, entries);
+            db.reopen();
+        }
+    }
+
+    @Test
+    public void testMultiGet()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options().filterPolicy(new BloomFilterPolicy(10)), databaseDir);
+        for (int i = 0; i < 200; i++) {
+            db.put(key(i), "v1-" + i);
+        }
+        db.compactMemTable();
+        db.compactRange(0, key(0), key(200));
+        for (int i = 0; i < 200; i += 3) {
+            db.put(key(i), "v2-" + i);
+        }
+        db.compactMemTable();
+        for (int i = 0; i < 200; i += 5) {
+            db.delete(key(i));
+        }
+        db.put(key(1), "v3-1");
+
+        List<String> keys = newArrayList();
+        Random random = new Random(301);
+        for (int i = 0; i < 300; i++) {
+            keys.add(key(random.nextInt(250)));
+        }
+        keys.add(key(7));
+        keys.add(key(7));
+
+        List<byte[]> values = db.db.multiGet(Lists.transform(keys, new Function<String, byte[]>()
+        {
+            @Override
+            public byte[] apply(String key)
+            {
+                return toByteArray(key);
+            }
+        }));
+        assertEquals(values.size(), keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            String expected = db.get(keys.get(i));
+            assertEquals(values.get(i) == null ? null : new String(values.get(i), UTF_8), expected, keys.get(i));
+        }
+
+        assertTrue(db.db.multiGet(new ArrayList<byte[]>()).isEmpty());
+    }
+
+    @Test
+    public void testZeroCopyGet()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        String value = longString(8192, 'v');
+        db.put("foo", value);
+
+        for (int i = 0; i < 2; i++) {
+            ByteBuffer buffer = db.db.getByteBuffer(toByteArray("foo"), new ReadOptions());
+            assertTrue(buffer.isReadOnly());
+            assertEquals(buffer.position(), 0);
+            assertEquals(UTF_8.decode(buffer).toString(), value);
+            assertNull(db.db.getByteBuffer(toByteArray("missing"), new ReadOptions()));
+
+            ByteBuffer destination = ByteBuffer.allocate(10000);
+            destination.position(5);
+            assertEquals(db.db.get(toByteArray("foo"), destination, new ReadOptions()), value.length());
+            assertEquals(destination.position(), 5 + value.length());
+            destination.flip().position(5);
+            assertEquals(UTF_8.decode(destination).toString(), value);
+
+            // a short destination receives a prefix and learns the full length
+            ByteBuffer small = ByteBuffer.allocate(100);
+            assertEquals(db.db.get(toByteArray("foo"), small, new ReadOptions()), value.length());
+            assertFalse(small.hasRemaining());
+            assertEquals(db.db.get(toByteArray("missing"), small, new ReadOptions()), -1);
+
+            SeekingIteratorAdapter iterator = db.db.iterator();
+            iterator.seekToFirst();
+            SeekingIteratorAdapter.DbEntry entry = iterator.next();
+            assertEquals(UTF_8.decode(entry.getKeyBuffer()).toString(), "foo");
+            assertEquals(UTF_8.decode(entry.getValueBuffer()).toString(), value);
+            iterator.close();
+
+            // repeat with the value read from a table block
+            db.compactMemTable();
+        }
+    }
+
     @Test
     public void testGetSnapshot()
             throws Exception
@@ -316,6 +1019,76 @@ public class DbImplTest
                 immutableEntry("c", "vc"));
     }
 
+    @Test
+    public void testReverseIteration()
+            throws Exception
+    {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        Random random = new Random(301);
+
+        // spread the data over the levels, level 0, the immutable and the active memtable
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 300; i++) {
+                String key = key(random.nextInt(400));
+                if (random.nextInt(5) == 0) {
+                    db.delete(key);
+                    expected.remove(key);
+                }
+                else {
+                    String value = "v" + round + "-" + i;
+                    db.put(key, value);
+                    expected.put(key, value);
+                }
+            }
+            if (round == 0) {
+                db.compactMemTable();
+                db.compactRange(0, key(0), key(400));
+            }
+            else if (round < 3) {
+                db.compactMemTable();
+            }
+        }
+
+        SeekingIterator<String, String> iterator = db.iterator();
+
+        // writes after the iterator was created must stay invisible
+        for (int i = 0; i < 400; i += 7) {
+            db.put(key(i), "later");
+        }
+
+        List<Entry<String, String>> entries = ImmutableList.copyOf(expected.entrySet());
+        iterator.seekToLast();
+        for (Entry<String, String> entry : Lists.reverse(entries)) {
+            assertTrue(iterator.hasPrev());
+            assertEquals(iterator.peekPrev(), entry);
+            assertEquals(iterator.prev(), entry);
+        }
+        assertFalse(iterator.hasPrev());
+        assertSequence(iterator, entries);
+
+        // random walk in both directions against the expected ordering
+        for (int i = 0; i < 100; i++) {
+            String target = key(random.nextInt(410));
+            iterator.seek(target);
+            int position = expected.headMap(target).size();
+            for (int step = 0; step < 20; step++) {
+                if (random.nextBoolean()) {
+                    assertEquals(iterator.hasNext(), position < entries.size());
+                    if (position < entries.size()) {
+                        assertEquals(iterator.next(), entries.get(position++));
+                    }
+                }
+                else {
+                    assertEquals(iterator.hasPrev(), position > 0);
+                    if (position > 0) {
+                        assertEquals(iterator.prev(), entries.get(--position));
+                    }
+                }
+            }
+        }
+    }
+
     @Test
     public void testRecover()
             throws Exception
@@ -1241,6 +2014,30 @@ public class DbImplTest
             return adapt(iterator.next());
         }
 
+        @Override
+        public void seekToLast()
+        {
+            iterator.seekToLast();
+        }
+
+        @Override
+        public boolean hasPrev()
+        {
+            return iterator.hasPrev();
+        }
+
+        @Override
+        public Entry<String, String> prev()
+        {
+            return adapt(iterator.prev());
+        }
+
+        @Override
+        public Entry<String, String> peekPrev()
+        {
+            return adapt(iterator.peekPrev());
+        }
+
         @Override
         public void remove()
         {
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.InternalIterator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class MemTableFactoriesTest
+{
+    private final InternalKeyComparator comparator = new InternalKeyComparator(new BytewiseComparator());
+
+    @DataProvider(name = "factories")
+    public Object[][] factories()
+    {
+        return new Object[][] {
+                // small chunks so records spill over many chunks and some get their own
+                new Object[] {MemTableFactories.arena(), 1024},
+                new Object[] {MemTableFactories.arena(), 64 << 10},
+                new Object[] {MemTableFactories.vector(), 4096},
+                new Object[] {MemTableFactories.hashLinkList(3, 7), 4096}
+        };
+    }
+
+    @Test(dataProvider = "factories")
+    public void testEmpty(InternalMemTableFactory factory, int writeBufferSize)
+    {
+        MemTable memTable = factory.newMemTable(comparator, writeBufferSize);
+        assertTrue(memTable.isEmpty());
+        assertNull(memTable.get(new LookupKey(Slices.copiedBuffer("foo", UTF_8), 10)));
+
+        InternalIterator iterator = memTable.iterator();
+        assertFalse(iterator.hasNext());
+        assertFalse(iterator.hasPrev());
+        iterator.seekToLast();
+        assertFalse(iterator.hasPrev());
+    }
+
+    @Test(dataProvider = "factories")
+    public void testMatchesSkipListMemTable(InternalMemTableFactory factory, int writeBufferSize)
+    {
+        MemTable memTable = factory.newMemTable(comparator, writeBufferSize);
+        MemTable expected = new SkipListMemTable(comparator);
+
+        Random random = new Random(301);
+        for (int sequence = 1; sequence <= 3000; sequence++) {
+            Slice key = Slices.copiedBuffer("key" + random.nextInt(300), UTF_8);
+            if (random.nextInt(5) == 0) {
+                memTable.add(sequence, ValueType.DELETION, key, Slices.EMPTY_SLICE);
+                expected.add(sequence, ValueType.DELETION, key, Slices.EMPTY_SLICE);
+            }
+            else {
+                Slice value = Slices.copiedBuffer(longString(random.nextInt(300), (char) ('a' + random.nextInt(26))), UTF_8);
+                memTable.add(sequence, ValueType.VALUE, key, value);
+                expected.add(sequence, ValueType.VALUE, key, value);
+            }
+
+            if (sequence % 1000 == 0) {
+                // iterating may reorganize the records, later writes must still be visible
+                assertEquals(drain(memTable.iterator()), drain(expected.iterator()));
+            }
+            if (sequence % 500 == 0) {
+                assertLookupsEqual(memTable, expected, sequence);
+            }
+        }
+        assertFalse(memTable.isEmpty());
+
+        // forward, backward and seeks
+        List<Entry<InternalKey, Slice>> entries = drain(expected.iterator());
+        InternalIterator iterator = memTable.iterator();
+        assertEquals(drain(iterator), entries);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            assertTrue(iterator.hasPrev());
+            assertEquals(iterator.prev(), entries.get(i));
+        }
+        assertFalse(iterator.hasPrev());
+
+        for (int i = 0; i < entries.size(); i += 37) {
+            iterator.seek(entries.get(i).getKey());
+            assertEquals(iterator.next(), entries.get(i));
+            // switching direction returns the element just stepped over
+            assertEquals(iterator.prev(), entries.get(i));
+            if (i > 0) {
+                assertEquals(iterator.prev(), entries.get(i - 1));
+            }
+        }
+    }
+
+    @Test(dataProvider = "factories")
+    public void testConcurrentInserts(InternalMemTableFactory factory, int writeBufferSize)
+            throws Exception
+    {
+        final MemTable memTable = factory.newMemTable(comparator, writeBufferSize);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = newArrayList();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            Thread writer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            Slice key = Slices.copiedBuffer(String.format("%06d", i), UTF_8);
+                            memTable.add(thread * 5000 + i + 1, ValueType.VALUE, key, Slices.copiedBuffer("v" + thread, UTF_8));
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            writer.start();
+            threads.add(writer);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        List<Entry<InternalKey, Slice>> entries = drain(memTable.iterator());
+        assertEquals(entries.size(), 20000);
+        for (int i = 1; i < entries.size(); i++) {
+            assertTrue(comparator.compare(entries.get(i - 1).getKey(), entries.get(i).getKey()) < 0);
+        }
+
+        // the newest write of every key wins
+        for (int i = 0; i < 5000; i++) {
+            LookupKey lookupKey = new LookupKey(Slices.copiedBuffer(String.format("%06d", i), UTF_8), Long.MAX_VALUE >>> 8);
+            assertEquals(memTable.get(lookupKey).getValue().toString(UTF_8), "v3");
+        }
+    }
+
+    private static void assertLookupsEqual(MemTable memTable, MemTable expected, long lastSequence)
+    {
+        for (int i = 0; i < 300; i++) {
+            for (long snapshot : new long[] {1, lastSequence / 2, lastSequence}) {
+                LookupKey lookupKey = new LookupKey(Slices.copiedBuffer("key" + i, UTF_8), snapshot);
+                LookupResult actualResult = memTable.get(lookupKey);
+                LookupResult expectedResult = expected.get(lookupKey);
+                if (expectedResult == null) {
+                    assertNull(actualResult);
+                    continue;
+                }
+                assertEquals(actualResult.isDeleted(), expectedResult.isDeleted());
+                if (!expectedResult.isDeleted()) {
+                    assertEquals(actualResult.getValue(), expectedResult.getValue());
+                }
+            }
+        }
+    }
+
+    private static List<Entry<InternalKey, Slice>> drain(InternalIterator iterator)
+    {
+        List<Entry<InternalKey, Slice>> entries = newArrayList();
+        while (iterator.hasNext()) {
+            entries.add(iterator.next());
+        }
+        return entries;
+    }
+
+    private static String longString(int length, char character)
+    {
+        char[] chars = new char[length];
+        Arrays.fill(chars, character);
+        return new String(chars);
+    }
+}
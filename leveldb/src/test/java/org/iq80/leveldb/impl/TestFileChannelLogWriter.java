@@ -6,6 +6,8 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
@@ -44,6 +46,53 @@ public class TestFileChannelLogWriter
         }
     }
 
+    @Test
+    public void testPaddingAndFragments()
+            throws Exception
+    {
+        File file = File.createTempFile("test", ".log");
+        try {
+            // leaves fewer than HEADER_SIZE bytes at the end of the first block,
+            // then spans several blocks, then a run of small records
+            List<Slice> records = new ArrayList<Slice>();
+            records.add(record(LogConstants.BLOCK_SIZE - 2 * LogConstants.HEADER_SIZE + 1, 1));
+            records.add(record(3 * LogConstants.BLOCK_SIZE + 17, 2));
+            for (int i = 0; i < 1000; i++) {
+                records.add(record(i % 100, i));
+            }
+
+            LogWriter writer = new FileChannelLogWriter(file, 10);
+            for (Slice record : records) {
+                writer.addRecord(record, false);
+            }
+            writer.close();
+
+            FileChannel channel = new FileInputStream(file).getChannel();
+            try {
+                LogReader logReader = new LogReader(channel, new AssertNoCorruptionLogMonitor(), true, 0);
+                for (Slice expected : records) {
+                    assertEquals(logReader.readRecord(), expected);
+                }
+                assertEquals(logReader.readRecord(), null);
+            }
+            finally {
+                channel.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static Slice record(int length, int seed)
+    {
+        Slice record = new Slice(length);
+        for (int i = 0; i < length; i++) {
+            record.setByte(i, seed + i);
+        }
+        return record;
+    }
+
     private static class AssertNoCorruptionLogMonitor implements LogMonitor
     {
 
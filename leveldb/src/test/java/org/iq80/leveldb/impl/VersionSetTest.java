@@ -0,0 +1,431 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.util.FileUtils;
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.util.Slices.copiedBuffer;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class VersionSetTest
+{
+    private final InternalKeyComparator comparator = new InternalKeyComparator(new BytewiseComparator());
+    private final ReentrantLock mutex = new ReentrantLock();
+    private File databaseDir;
+    private TableCache tableCache;
+    private VersionSet versions;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        databaseDir = FileUtils.createTempDir("leveldb");
+        tableCache = new TableCache(databaseDir, 100, new InternalUserComparator(comparator), false);
+        versions = new VersionSet(databaseDir, tableCache, comparator);
+        versions.recover();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        versions.destroy();
+        tableCache.close();
+        FileUtils.deleteRecursively(databaseDir);
+    }
+
+    @Test
+    public void testLevel0CompactionsConflict()
+            throws Exception
+    {
+        FileMetaData first = addFile(0, "a", "b", 1000);
+        FileMetaData second = addFile(0, "m", "n", 1000);
+
+        Compaction running = compactRange(0, "a", "b");
+        assertNotNull(running);
+        assertEquals(running.getLevelInputs().size(), 1);
+        assertTrue(first.isBeingCompacted());
+
+        // disjoint, but only one level 0 compaction may run at a time
+        assertNull(compactRange(0, "m", "n"));
+        assertFalse(second.isBeingCompacted());
+
+        versions.finishCompaction(running);
+        assertFalse(first.isBeingCompacted());
+        assertNotNull(compactRange(0, "m", "n"));
+    }
+
+    @Test
+    public void testOverlappingCompactionsConflict()
+            throws Exception
+    {
+        addFile(1, "a", "c", 1000);
+        addFile(1, "d", "f", 1000);
+        addFile(1, "m", "p", 1000);
+        FileMetaData shared = addFile(2, "b", "e", 1000);
+        addFile(2, "n", "o", 1000);
+
+        Compaction running = compactRange(1, "a", "c");
+        assertNotNull(running);
+        assertTrue(running.getLevelUpInputs().contains(shared));
+        assertTrue(shared.isBeingCompacted());
+
+        // overlapping ranges on the same level share input files
+        assertNull(compactRange(1, "b", "e"));
+        assertNull(compactRange(1, "d", "f"));
+        assertEquals(versions.numberOfRunningCompactions(), 1);
+
+        // a disjoint range on the same level may run alongside
+        Compaction disjoint = compactRange(1, "m", "p");
+        assertNotNull(disjoint);
+        assertEquals(versions.numberOfRunningCompactions(), 2);
+
+        versions.finishCompaction(running);
+        assertFalse(shared.isBeingCompacted());
+        assertNotNull(compactRange(1, "d", "f"));
+    }
+
+    @Test
+    public void testIsCompactingInto()
+            throws Exception
+    {
+        addFile(1, "d", "f", 1000);
+        Compaction running = compactRange(1, "d", "f");
+        assertNotNull(running);
+
+        // flushes must not place a file into a range a compaction is writing
+        assertTrue(versions.isCompactingInto(2, slice("e"), slice("e")));
+        assertTrue(versions.isCompactingInto(2, slice("a"), slice("d")));
+        assertFalse(versions.isCompactingInto(2, slice("g"), slice("z")));
+        assertFalse(versions.isCompactingInto(1, slice("e"), slice("e")));
+
+        versions.finishCompaction(running);
+        assertFalse(versions.isCompactingInto(2, slice("e"), slice("e")));
+    }
+
+    @Test
+    public void testPickCompactionSkipsRunningInputs()
+            throws Exception
+    {
+        // level 1 is well over its limit, level 0 is at the trigger
+        long bigFile = 8 * 1048576;
+        addFile(1, "a", "c", bigFile);
+        addFile(1, "g", "i", bigFile);
+        addFile(1, "m", "p", bigFile);
+        for (int i = 0; i < DbConstants.L0_COMPACTION_TRIGGER; i++) {
+            addFile(0, "s", "t", 1000);
+        }
+
+        // each pick takes a different level 1 file, then level 0 gets its turn
+        Compaction[] picks = new Compaction[4];
+        for (int i = 0; i < picks.length; i++) {
+            picks[i] = versions.pickCompaction();
+            assertNotNull(picks[i], "pick " + i);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(picks[i].getLevel(), 1);
+            for (int j = 0; j < i; j++) {
+                assertFalse(picks[i].getLevelInputs().get(0) == picks[j].getLevelInputs().get(0));
+            }
+        }
+        assertEquals(picks[3].getLevel(), 0);
+        assertEquals(picks[3].getLevelInputs().size(), DbConstants.L0_COMPACTION_TRIGGER);
+
+        // everything that needs compacting is taken
+        assertNull(versions.pickCompaction());
+        assertEquals(versions.numberOfRunningCompactions(), 4);
+
+        versions.finishCompaction(picks[3]);
+        Compaction level0 = versions.pickCompaction();
+        assertNotNull(level0);
+        assertEquals(level0.getLevel(), 0);
+    }
+
+    @Test(timeOut = 60000)
+    public void testConcurrentEditsAreWrittenAsOneGroup()
+            throws Exception
+    {
+        addFile(1, "a", "b", 1000);
+        BlockingLogWriter log = new BlockingLogWriter(versions.getDescriptorLog(), false);
+        versions.setDescriptorLog(log);
+
+        // the first edit holds its write while the others queue behind it
+        List<EditThread> threads = newArrayList();
+        threads.add(startEdit(2, "c", "d"));
+        log.entered.await();
+        for (int i = 0; i < 4; i++) {
+            String key = String.valueOf((char) ('e' + 2 * i));
+            threads.add(startEdit(2, key, key));
+        }
+        awaitQueued(threads.subList(1, threads.size()));
+        log.release.countDown();
+        for (EditThread thread : threads) {
+            thread.join();
+            assertNull(thread.failure, "edit failed");
+        }
+
+        // one record per edit, but the four queued edits share a single sync
+        assertEquals(log.records.get(), 5);
+        assertEquals(log.syncs.get(), 2);
+        assertEquals(versions.numberOfFilesInLevel(2), 5);
+
+        // reopening finds every file from the grouped edits
+        versions.destroy();
+        versions = new VersionSet(databaseDir, tableCache, comparator);
+        versions.recover();
+        assertEquals(versions.numberOfFilesInLevel(1), 1);
+        assertEquals(versions.numberOfFilesInLevel(2), 5);
+        List<Long> recovered = newArrayList();
+        for (FileMetaData file : versions.getCurrent().getFiles(2)) {
+            recovered.add(file.getNumber());
+        }
+        for (EditThread thread : threads) {
+            assertTrue(recovered.contains(thread.file.getNumber()), "file " + thread.file.getNumber() + " was not recovered");
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testManifestWriteFailureReachesEveryWriter()
+            throws Exception
+    {
+        addFile(1, "a", "b", 1000);
+        BlockingLogWriter log = new BlockingLogWriter(versions.getDescriptorLog(), true);
+        versions.setDescriptorLog(log);
+
+        List<EditThread> threads = newArrayList();
+        threads.add(startEdit(2, "c", "d"));
+        log.entered.await();
+        for (int i = 0; i < 4; i++) {
+            String key = String.valueOf((char) ('e' + 2 * i));
+            threads.add(startEdit(2, key, key));
+        }
+        awaitQueued(threads.subList(1, threads.size()));
+        log.release.countDown();
+
+        // the followers are written by one leader, its failure reaches all of them
+        for (EditThread thread : threads) {
+            thread.join();
+            assertTrue(thread.failure instanceof IOException, "edit did not fail: " + thread.failure);
+        }
+        assertEquals(log.records.get(), 2);
+        assertEquals(versions.numberOfFilesInLevel(1), 1);
+        assertEquals(versions.numberOfFilesInLevel(2), 0);
+    }
+
+    private FileMetaData addFile(int level, String smallest, String largest, long fileSize)
+            throws Exception
+    {
+        FileMetaData file = new FileMetaData(versions.getNextFileNumber(), fileSize,
+                new InternalKey(slice(smallest), 1, ValueType.VALUE),
+                new InternalKey(slice(largest), 1, ValueType.VALUE));
+        VersionEdit edit = new VersionEdit();
+        edit.addFile(level, file);
+        logAndApply(edit);
+        for (FileMetaData installed : versions.getCurrent().getFiles(level)) {
+            if (installed.getNumber() == file.getNumber()) {
+                return installed;
+            }
+        }
+        throw new AssertionError("file " + file.getNumber() + " was not installed");
+    }
+
+    private Compaction compactRange(int level, String begin, String end)
+    {
+        mutex.lock();
+        try {
+            return versions.compactRange(level,
+                    new InternalKey(slice(begin), MAX_SEQUENCE_NUMBER, ValueType.VALUE),
+                    new InternalKey(slice(end), 0, ValueType.DELETION));
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    private void logAndApply(VersionEdit edit)
+            throws Exception
+    {
+        mutex.lock();
+        try {
+            versions.logAndApply(edit, mutex);
+        }
+        finally {
+            mutex.unlock();
+        }
+    }
+
+    private EditThread startEdit(int level, String smallest, String largest)
+    {
+        FileMetaData file = new FileMetaData(versions.getNextFileNumber(), 1000,
+                new InternalKey(slice(smallest), 1, ValueType.VALUE),
+                new InternalKey(slice(largest), 1, ValueType.VALUE));
+        EditThread thread = new EditThread(level, file);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 等待线程都排进 MANIFEST 写入队列: 线程在等待, 而且不是在等 mutex
+     */
+    private void awaitQueued(List<EditThread> threads)
+            throws InterruptedException
+    {
+        while (true) {
+            boolean queued = mutex.getQueueLength() == 0;
+            for (EditThread thread : threads) {
+                queued &= thread.getState() == Thread.State.WAITING;
+            }
+            if (queued) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private class EditThread
+            extends Thread
+    {
+        private final int level;
+        private final FileMetaData file;
+        private volatile Throwable failure;
+
+        private EditThread(int level, FileMetaData file)
+        {
+            this.level = level;
+            this.file = file;
+        }
+
+        @Override
+        public void run()
+        {
+            VersionEdit edit = new VersionEdit();
+            edit.addFile(level, file);
+            try {
+                logAndApply(edit);
+            }
+            catch (Throwable e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * 第一次写记录时停住, 直到测试放行; 可以让所有写入失败
+     */
+    private static class BlockingLogWriter
+            implements LogWriter
+    {
+        private final LogWriter delegate;
+        private final boolean fail;
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger records = new AtomicInteger();
+        private final AtomicInteger syncs = new AtomicInteger();
+
+        private BlockingLogWriter(LogWriter delegate, boolean fail)
+        {
+            this.delegate = delegate;
+            this.fail = fail;
+        }
+
+        @Override
+        public void addRecord(Slice record, boolean force)
+                throws IOException
+        {
+            entered.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted");
+            }
+            records.incrementAndGet();
+            if (fail) {
+                throw new IOException("injected MANIFEST write failure");
+            }
+            if (force) {
+                syncs.incrementAndGet();
+            }
+            delegate.addRecord(record, force);
+        }
+
+        @Override
+        public boolean isClosed()
+        {
+            return delegate.isClosed();
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            delegate.close();
+        }
+
+        @Override
+        public void delete()
+                throws IOException
+        {
+            delegate.delete();
+        }
+
+        @Override
+        public File getFile()
+        {
+            return delegate.getFile();
+        }
+
+        @Override
+        public long getFileNumber()
+        {
+            return delegate.getFileNumber();
+        }
+
+        @Override
+        public void sync()
+                throws IOException
+        {
+            delegate.sync();
+        }
+    }
+
+    private static Slice slice(String value)
+    {
+        return copiedBuffer(value, UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.Slice;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.iq80.leveldb.util.Slices.copiedBuffer;
+import static org.testng.Assert.assertEquals;
+
+public class WriteBatchImplTest
+{
+    @Test
+    public void testRecordRoundTrip()
+    {
+        WriteBatchImpl batch = new WriteBatchImpl();
+        assertEquals(batch.getApproximateSize(), WriteBatchImpl.HEADER_SIZE);
+        batch.put("foo".getBytes(UTF_8), "bar".getBytes(UTF_8));
+        batch.delete("box".getBytes(UTF_8));
+        batch.put("baz".getBytes(UTF_8), "boo".getBytes(UTF_8));
+
+        // type, varint length and bytes for each key and value
+        assertEquals(batch.getApproximateSize(), WriteBatchImpl.HEADER_SIZE + 9 + 5 + 9);
+
+        Slice record = batch.toRecord(100);
+        assertEquals(record.length(), batch.getApproximateSize());
+
+        WriteBatchImpl recovered = WriteBatchImpl.fromRecord(record);
+        assertEquals(recovered.getSequence(), 100);
+        assertEquals(recovered.size(), 3);
+        assertEquals(contents(recovered), asList("put(foo, bar)", "delete(box)", "put(baz, boo)"));
+    }
+
+    @Test
+    public void testAppend()
+    {
+        WriteBatchImpl first = new WriteBatchImpl();
+        first.put("a".getBytes(UTF_8), "va".getBytes(UTF_8));
+        WriteBatchImpl second = new WriteBatchImpl();
+        second.delete("b".getBytes(UTF_8));
+        second.put("c".getBytes(UTF_8), "vc".getBytes(UTF_8));
+
+        WriteBatchImpl group = new WriteBatchImpl();
+        group.append(first);
+        group.append(second);
+        assertEquals(group.size(), 3);
+        assertEquals(group.getApproximateSize(), first.getApproximateSize() + second.getApproximateSize() - WriteBatchImpl.HEADER_SIZE);
+        assertEquals(contents(group), asList("put(a, va)", "delete(b)", "put(c, vc)"));
+    }
+
+    @Test
+    public void testBatchOwnsItsBytes()
+    {
+        byte[] key = "key".getBytes(UTF_8);
+        WriteBatchImpl batch = new WriteBatchImpl();
+        batch.put(key, key);
+        key[0] = 'X';
+        assertEquals(contents(batch), asList("put(key, key)"));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testWrongCount()
+    {
+        WriteBatchImpl batch = new WriteBatchImpl();
+        batch.put(copiedBuffer("foo", UTF_8), copiedBuffer("bar", UTF_8));
+        Slice record = batch.toRecord(1);
+        record.setInt(8, 2);
+        WriteBatchImpl.fromRecord(record).forEach(new WriteBatchImpl.Handler()
+        {
+            @Override
+            public void put(Slice key, Slice value)
+            {
+            }
+
+            @Override
+            public void delete(Slice key)
+            {
+            }
+        });
+    }
+
+    private static List<String> contents(WriteBatchImpl batch)
+    {
+        final List<String> entries = new ArrayList<String>();
+        batch.forEach(new WriteBatchImpl.Handler()
+        {
+            @Override
+            public void put(Slice key, Slice value)
+            {
+                entries.add("put(" + key.toString(UTF_8) + ", " + value.toString(UTF_8) + ")");
+            }
+
+            @Override
+            public void delete(Slice key)
+            {
+                entries.add("delete(" + key.toString(UTF_8) + ")");
+            }
+        });
+        return entries;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.testng.annotations.Test;
+
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.DbConstants.L0_STOP_WRITES_TRIGGER;
+import static org.iq80.leveldb.impl.WriteController.DEFAULT_DELAYED_WRITE_RATE;
+import static org.iq80.leveldb.impl.WriteController.MIN_DELAYED_WRITE_RATE;
+import static org.iq80.leveldb.impl.WriteController.SOFT_PENDING_COMPACTION_BYTES_LIMIT;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class WriteControllerTest
+{
+    @Test
+    public void testNoDelayBelowTriggers()
+    {
+        WriteController controller = new WriteController();
+        assertEquals(controller.getDelay(L0_SLOWDOWN_WRITES_TRIGGER, 0, 1 << 20), 0);
+        assertEquals(controller.getDelay(0, SOFT_PENDING_COMPACTION_BYTES_LIMIT - 1, 1 << 20), 0);
+        assertEquals(controller.getDelayedWriteRate(), 0);
+
+        // writes are charged even when they are not delayed
+        assertEquals(controller.getChargedBytes(), 2 << 20);
+    }
+
+    @Test
+    public void testTokenBucket()
+    {
+        WriteController controller = new WriteController();
+        int level0Files = L0_SLOWDOWN_WRITES_TRIGGER + 1;
+
+        // the first delayed write goes through, the next one pays for it
+        assertEquals(controller.getDelay(level0Files, 0, 1 << 20), 0);
+        long rate = controller.getDelayedWriteRate();
+        assertTrue(rate > 0 && rate < DEFAULT_DELAYED_WRITE_RATE);
+        long delay = controller.getDelay(level0Files, 0, 1 << 20);
+        long expected = 1000000000L * (1 << 20) / rate;
+        assertTrue(delay > expected / 2 && delay <= expected, "delay " + delay);
+
+        // leaving the slowdown zone stops the delay and forgets the debt
+        assertEquals(controller.getDelay(0, 0, 1 << 20), 0);
+        assertEquals(controller.getDelayedWriteRate(), 0);
+        assertEquals(controller.getDelay(level0Files, 0, 1 << 20), 0);
+    }
+
+    @Test
+    public void testRateFollowsPressure()
+    {
+        WriteController controller = new WriteController();
+        long previous = Long.MAX_VALUE;
+        for (int level0Files = L0_SLOWDOWN_WRITES_TRIGGER + 1; level0Files < L0_STOP_WRITES_TRIGGER; level0Files++) {
+            controller.getDelay(level0Files, 0, 0);
+            long rate = controller.getDelayedWriteRate();
+            assertTrue(rate < previous, "rate " + rate + " at " + level0Files + " level 0 files");
+            previous = rate;
+        }
+
+        controller.getDelay(0, SOFT_PENDING_COMPACTION_BYTES_LIMIT, 0);
+        assertEquals(controller.getDelayedWriteRate(), DEFAULT_DELAYED_WRITE_RATE);
+        controller.getDelay(0, 4 * SOFT_PENDING_COMPACTION_BYTES_LIMIT, 0);
+        assertEquals(controller.getDelayedWriteRate(), DEFAULT_DELAYED_WRITE_RATE / 4);
+
+        controller.getDelay(L0_STOP_WRITES_TRIGGER, 0, 0);
+        assertEquals(controller.getDelayedWriteRate(), MIN_DELAYED_WRITE_RATE);
+    }
+
+    @Test
+    public void testRateFollowsCompactionThroughput()
+    {
+        WriteController controller = new WriteController();
+        controller.recordCompaction(1 << 20, 1000000000L);
+        controller.getDelay(0, SOFT_PENDING_COMPACTION_BYTES_LIMIT, 0);
+        assertEquals(controller.getDelayedWriteRate(), 1 << 20);
+
+        // later samples are smoothed in
+        controller.recordCompaction(5 << 20, 1000000000L);
+        controller.getDelay(0, SOFT_PENDING_COMPACTION_BYTES_LIMIT, 0);
+        assertEquals(controller.getDelayedWriteRate(), 2 << 20);
+    }
+
+    @Test
+    public void testStallTime()
+    {
+        WriteController controller = new WriteController();
+        controller.recordStall(1000);
+        controller.recordStall(500);
+        assertEquals(controller.getStallNanos(), 1500);
+    }
+}
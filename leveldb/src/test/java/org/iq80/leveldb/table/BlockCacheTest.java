@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class BlockCacheTest
+{
+    @Test
+    public void testGet()
+    {
+        BlockCache cache = new BlockCache(1024 * 1024);
+        Block first = createBlock("a");
+        Block second = createBlock("b");
+
+        cache.put(1, 0, first);
+        cache.put(1, 4096, second);
+        cache.put(2, 0, second);
+
+        assertSame(cache.get(1, 0), first);
+        assertSame(cache.get(1, 4096), second);
+        assertSame(cache.get(2, 0), second);
+        assertNull(cache.get(1, 8192));
+        assertNull(cache.get(3, 0));
+    }
+
+    @Test
+    public void testCapacityIsBounded()
+    {
+        Block block = createBlock("key");
+        // room for only a handful of blocks per shard
+        BlockCache cache = new BlockCache(block.size() * 32);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, 0, block);
+        }
+        assertTrue(cache.size() <= 32, "cache size " + cache.size());
+    }
+
+    private static Block createBlock(String key)
+    {
+        BlockBuilder builder = new BlockBuilder(256, 16, new BytewiseComparator());
+        builder.add(BlockHelper.createBlockEntry(key, "value"));
+        return new Block(builder.finish(), new BytewiseComparator());
+    }
+}
@@ -18,6 +18,7 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
@@ -79,6 +80,31 @@ public class BlockHelper
         }
     }
 
+    public static <K, V> void assertReverseSequence(SeekingIterator<K, V> seekingIterator, Iterable<? extends Entry<K, V>> entries)
+    {
+        Assert.assertNotNull(seekingIterator, "blockIterator is not null");
+
+        for (Entry<K, V> entry : ImmutableList.copyOf(entries).reverse()) {
+            assertTrue(seekingIterator.hasPrev());
+            assertEntryEquals(seekingIterator.peekPrev(), entry);
+            assertEntryEquals(seekingIterator.prev(), entry);
+        }
+        assertFalse(seekingIterator.hasPrev());
+
+        try {
+            seekingIterator.peekPrev();
+            fail("expected NoSuchElementException");
+        }
+        catch (NoSuchElementException expected) {
+        }
+        try {
+            seekingIterator.prev();
+            fail("expected NoSuchElementException");
+        }
+        catch (NoSuchElementException expected) {
+        }
+    }
+
     public static <K, V> void assertEntryEquals(Entry<K, V> actual, Entry<K, V> expected)
     {
         if (actual.getKey() instanceof Slice) {
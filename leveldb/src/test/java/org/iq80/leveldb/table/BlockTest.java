@@ -27,6 +27,7 @@ import java.util.List;
 
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 
 public class BlockTest
 {
@@ -130,6 +131,10 @@ public class BlockTest
         blockIterator.seekToFirst();
         BlockHelper.assertSequence(blockIterator, entries);
 
+        blockIterator.seekToLast();
+        BlockHelper.assertReverseSequence(blockIterator, entries);
+        BlockHelper.assertSequence(blockIterator, entries);
+
         for (BlockEntry entry : entries) {
             List<BlockEntry> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
             blockIterator.seek(entry.getKey());
@@ -140,10 +145,31 @@ public class BlockTest
 
             blockIterator.seek(BlockHelper.after(entry));
             BlockHelper.assertSequence(blockIterator, nextEntries.subList(1, nextEntries.size()));
+
+            List<BlockEntry> previousEntries = entries.subList(0, entries.indexOf(entry));
+            blockIterator.seek(entry.getKey());
+            BlockHelper.assertReverseSequence(blockIterator, previousEntries);
+
+            // switching direction returns the element just stepped over
+            blockIterator.seek(entry.getKey());
+            BlockHelper.assertEntryEquals(blockIterator.next(), entry);
+            BlockHelper.assertEntryEquals(blockIterator.prev(), entry);
+            BlockHelper.assertReverseSequence(blockIterator, previousEntries);
+
+            // point lookup without an iterator
+            BlockHelper.assertEntryEquals(block.seek(entry.getKey()), entry);
+            BlockHelper.assertEntryEquals(block.seek(BlockHelper.before(entry)), entry);
+            if (nextEntries.size() > 1) {
+                BlockHelper.assertEntryEquals(block.seek(BlockHelper.after(entry)), nextEntries.get(1));
+            }
+            else {
+                assertNull(block.seek(BlockHelper.after(entry)));
+            }
         }
 
         blockIterator.seek(Slices.wrappedBuffer(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF}));
         BlockHelper.assertSequence(blockIterator, Collections.<BlockEntry>emptyList());
+        assertNull(block.seek(Slices.wrappedBuffer(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF})));
 
     }
 }
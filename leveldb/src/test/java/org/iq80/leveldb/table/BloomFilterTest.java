@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class BloomFilterTest
+{
+    private final BloomFilter policy = new BloomFilter(10);
+
+    @Test
+    public void testEmptyFilter()
+    {
+        Slice filter = policy.createFilter(new ArrayList<Slice>());
+        assertFalse(policy.keyMayMatch(Slices.copiedBuffer("hello", UTF_8), filter));
+        assertFalse(policy.keyMayMatch(Slices.copiedBuffer("world", UTF_8), filter));
+    }
+
+    @Test
+    public void testSmall()
+    {
+        List<Slice> keys = new ArrayList<Slice>();
+        keys.add(Slices.copiedBuffer("hello", UTF_8));
+        keys.add(Slices.copiedBuffer("world", UTF_8));
+        Slice filter = policy.createFilter(keys);
+
+        assertTrue(policy.keyMayMatch(Slices.copiedBuffer("hello", UTF_8), filter));
+        assertTrue(policy.keyMayMatch(Slices.copiedBuffer("world", UTF_8), filter));
+        assertFalse(policy.keyMayMatch(Slices.copiedBuffer("x", UTF_8), filter));
+        assertFalse(policy.keyMayMatch(Slices.copiedBuffer("foo", UTF_8), filter));
+    }
+
+    @Test
+    public void testVaryingLengths()
+    {
+        // Count number of filters that significantly exceed the false positive rate
+        int mediocreFilters = 0;
+        int goodFilters = 0;
+
+        for (int length = 1; length <= 10000; length = nextLength(length)) {
+            List<Slice> keys = new ArrayList<Slice>();
+            for (int i = 0; i < length; i++) {
+                keys.add(key(i));
+            }
+            Slice filter = policy.createFilter(keys);
+
+            assertTrue(filter.length() <= (length * 10 / 8) + 40, "filter too large for length " + length);
+
+            // All added keys must match
+            for (int i = 0; i < length; i++) {
+                assertTrue(policy.keyMayMatch(key(i), filter), "length " + length + "; key " + i);
+            }
+
+            // Check false positive rate
+            double rate = falsePositiveRate(filter);
+            assertTrue(rate <= 0.02, "false positive rate " + rate + " for length " + length);
+            if (rate > 0.0125) {
+                mediocreFilters++;
+            }
+            else {
+                goodFilters++;
+            }
+        }
+        assertTrue(mediocreFilters <= goodFilters / 5);
+    }
+
+    @Test
+    public void testFilterPolicyWrapper()
+    {
+        BloomFilterPolicy filterPolicy = new BloomFilterPolicy(10);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        keys.add("hello".getBytes(UTF_8));
+        byte[] filter = filterPolicy.createFilter(keys);
+
+        assertTrue(filterPolicy.keyMayMatch("hello".getBytes(UTF_8), filter));
+        assertFalse(filterPolicy.keyMayMatch("foo".getBytes(UTF_8), filter));
+    }
+
+    private double falsePositiveRate(Slice filter)
+    {
+        int result = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (policy.keyMayMatch(key(i + 1000000000), filter)) {
+                result++;
+            }
+        }
+        return result / 10000.0;
+    }
+
+    private static int nextLength(int length)
+    {
+        if (length < 10) {
+            return length + 1;
+        }
+        else if (length < 100) {
+            return length + 10;
+        }
+        else if (length < 1000) {
+            return length + 100;
+        }
+        return length + 1000;
+    }
+
+    private static Slice key(int i)
+    {
+        Slice key = Slices.allocate(4);
+        key.setInt(0, i);
+        return key;
+    }
+}
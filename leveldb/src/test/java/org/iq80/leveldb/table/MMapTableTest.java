@@ -28,4 +28,8 @@ public class MMapTableTest extends TableTest
     protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums) throws IOException {
         return new MMapTable(name, fileChannel, comparator, verifyChecksums);
     }
+
+    protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, UserFilterPolicy filterPolicy) throws IOException {
+        return new MMapTable(name, 0, fileChannel, comparator, verifyChecksums, null, filterPolicy);
+    }
 }
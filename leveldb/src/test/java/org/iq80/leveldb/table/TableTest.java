@@ -18,8 +18,11 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import com.google.common.io.Closeables;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
@@ -30,14 +33,20 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static java.util.Arrays.asList;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 abstract public class TableTest
 {
@@ -46,6 +55,8 @@ abstract public class TableTest
     private FileChannel fileChannel;
 
     abstract protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums) throws IOException;
+
+    abstract protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, UserFilterPolicy filterPolicy) throws IOException;
     
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void testEmptyFile()
@@ -106,6 +117,141 @@ abstract public class TableTest
         tableTest(BlockHelper.estimateBlockSize(Integer.MAX_VALUE, entries) / 3, Integer.MAX_VALUE, entries);
     }
 
+    @Test
+    public void testFilterBlock()
+            throws Exception
+    {
+        List<BlockEntry> entries = filterTestEntries();
+        UserFilterPolicy filterPolicy = new BloomFilter(10);
+
+        TableBuilder builder = new TableBuilder(new Options().blockSize(256), fileChannel, new BytewiseComparator(), filterPolicy);
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, filterPolicy);
+        BlockHelper.assertSequence(table.iterator(), entries);
+
+        for (BlockEntry entry : entries) {
+            assertTrue(table.keyMayMatch(entry.getKey()));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (table.keyMayMatch(Slices.copiedBuffer(String.format("key%06d-missing", i), UTF_8))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 50, "too many false positives: " + falsePositives);
+    }
+
+    @Test
+    public void testTableWithoutFilterBlock()
+            throws Exception
+    {
+        List<BlockEntry> entries = filterTestEntries();
+
+        TableBuilder builder = new TableBuilder(new Options().blockSize(256), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        // a table written without a filter must still open when a filter policy is configured
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, new BloomFilter(10));
+        BlockHelper.assertSequence(table.iterator(), entries);
+        assertTrue(table.keyMayMatch(Slices.copiedBuffer("missing", UTF_8)));
+    }
+
+    @Test
+    public void testCorruptBlockIsDetected()
+            throws Exception
+    {
+        List<BlockEntry> entries = filterTestEntries();
+        TableBuilder builder = new TableBuilder(new Options().blockSize(256).compressionType(CompressionType.NONE), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        // flip a byte inside the first data block
+        ByteBuffer corrupt = ByteBuffer.allocate(1);
+        fileChannel.read(corrupt, 10);
+        corrupt.put(0, (byte) (corrupt.get(0) ^ 0x01)).clear();
+        fileChannel.write(corrupt, 10);
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        try {
+            table.iterator().hasNext();
+            fail("expected checksum mismatch");
+        }
+        catch (IllegalStateException expected) {
+        }
+
+        // checksums can also be requested per read
+        table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), false);
+        try {
+            table.iterator(new ReadOptions().verifyChecksums(true)).hasNext();
+            fail("expected checksum mismatch");
+        }
+        catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testConcurrentCompressedReads()
+            throws Exception
+    {
+        final List<BlockEntry> entries = new ArrayList<BlockEntry>();
+        for (int i = 0; i < 2000; i++) {
+            // highly repetitive values so every block is stored compressed
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), Strings.repeat("value" + (i % 10), 20)));
+        }
+
+        TableBuilder builder = new TableBuilder(new Options().blockSize(1024), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        final Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (int loop = 0; loop < 10; loop++) {
+                            BlockHelper.assertSequence(table.iterator(), entries);
+                        }
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+
+    private static List<BlockEntry> filterTestEntries()
+    {
+        List<BlockEntry> entries = new ArrayList<BlockEntry>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), "value" + i));
+        }
+        return entries;
+    }
+
     private void tableTest(int blockSize, int blockRestartInterval, BlockEntry... entries)
             throws IOException
     {
@@ -132,6 +278,10 @@ abstract public class TableTest
         seekingIterator.seekToFirst();
         BlockHelper.assertSequence(seekingIterator, entries);
 
+        seekingIterator.seekToLast();
+        BlockHelper.assertReverseSequence(seekingIterator, entries);
+        BlockHelper.assertSequence(seekingIterator, entries);
+
         long lastApproximateOffset = 0;
         for (BlockEntry entry : entries) {
             List<BlockEntry> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
@@ -144,6 +294,19 @@ abstract public class TableTest
             seekingIterator.seek(BlockHelper.after(entry));
             BlockHelper.assertSequence(seekingIterator, nextEntries.subList(1, nextEntries.size()));
 
+            List<BlockEntry> previousEntries = entries.subList(0, entries.indexOf(entry));
+            seekingIterator.seek(entry.getKey());
+            BlockHelper.assertReverseSequence(seekingIterator, previousEntries);
+
+            // switching direction returns the element just stepped over
+            seekingIterator.seek(entry.getKey());
+            BlockHelper.assertEntryEquals(seekingIterator.next(), entry);
+            BlockHelper.assertEntryEquals(seekingIterator.prev(), entry);
+            BlockHelper.assertReverseSequence(seekingIterator, previousEntries);
+
+            // point lookup without an iterator
+            BlockHelper.assertEntryEquals(table.get(entry.getKey(), new ReadOptions()), entry);
+
             long approximateOffset = table.getApproximateOffsetOf(entry.getKey());
             assertTrue(approximateOffset >= lastApproximateOffset);
             lastApproximateOffset = approximateOffset;
@@ -152,6 +315,7 @@ abstract public class TableTest
         Slice endKey = Slices.wrappedBuffer(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
         seekingIterator.seek(endKey);
         BlockHelper.assertSequence(seekingIterator, Collections.<BlockEntry>emptyList());
+        assertNull(table.get(endKey, new ReadOptions()));
 
         long approximateOffset = table.getApproximateOffsetOf(endKey);
         assertTrue(approximateOffset >= lastApproximateOffset);
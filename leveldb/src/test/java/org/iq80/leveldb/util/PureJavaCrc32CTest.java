@@ -5,7 +5,9 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.iq80.leveldb.util.PureJavaCrc32C.mask;
 import static org.iq80.leveldb.util.PureJavaCrc32C.unmask;
@@ -48,6 +50,41 @@ public class PureJavaCrc32CTest
         };
     }
 
+    @Test(dataProvider = "crcs")
+    public void testDirectBufferCrc(int expectedCrc, byte[] data)
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(buffer);
+        assertEquals(expectedCrc, crc.getIntValue());
+        assertEquals(buffer.position(), 0);
+    }
+
+    @Test
+    public void testDirectBufferMatchesArray()
+    {
+        byte[] data = new byte[1000];
+        new Random(301).nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+
+        // unaligned start and tail lengths
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length < 40; length++) {
+                PureJavaCrc32C expected = new PureJavaCrc32C();
+                expected.update(data, offset, length + 900);
+
+                PureJavaCrc32C actual = new PureJavaCrc32C();
+                buffer.limit(offset + length + 900).position(offset);
+                actual.update(buffer);
+
+                assertEquals(actual.getIntValue(), expected.getIntValue());
+            }
+        }
+    }
+
     @Test
     public void testProducesDifferentCrcs()
             throws UnsupportedEncodingException